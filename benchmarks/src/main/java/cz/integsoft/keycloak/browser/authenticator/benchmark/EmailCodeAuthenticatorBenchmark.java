@@ -0,0 +1,161 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.integsoft.keycloak.browser.authenticator.EmailCodeAuthenticator;
+import cz.integsoft.keycloak.browser.authenticator.EmailCodeAuthenticatorFactory;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.Fake;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.FakeLogin;
+import cz.integsoft.keycloak.browser.authenticator.config.AuthenticatorProperties;
+import cz.integsoft.keycloak.browser.authenticator.config.EmailCodeAuthenticatorConfigCache;
+import cz.integsoft.keycloak.browser.authenticator.email.AsyncEmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.EmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.EmailTemplateCache;
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.LocalRateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.OtpSendLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.RateLimit;
+import cz.integsoft.keycloak.browser.authenticator.store.LoginCounterStore;
+import cz.integsoft.keycloak.browser.authenticator.store.OtpCodeStore;
+
+/**
+ * {@link EmailCodeAuthenticator} - sending a new code, rendering the form again with the sent code and verifying the entered code. Codes are kept in the in-memory store, emails are taken from the
+ * template cache and dropped by a fake sender.
+ *
+ * @author integsoft
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailCodeAuthenticatorBenchmark {
+
+	private static final String CODE = "123456";
+
+	private static final long TTL_MILLIS = 300000L;
+
+	private final OtpCodeStore codeStore = new OtpCodeStore();
+
+	private FakeLogin login;
+
+	private AuthenticationFlowContext context;
+
+	private AsyncEmailSender asyncSender;
+
+	private EmailCodeAuthenticator authenticator;
+
+	private String codeKey;
+
+	/**
+	 * Prepare the user and the authenticator.
+	 */
+	@Setup
+	public void setup() {
+		login = new FakeLogin();
+		login.setUser(login.addUser("jane", "jane.doe@example.com", null, Map.of()));
+		final AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+		config.setId("config");
+		config.setAlias("benchmark");
+		config.setConfig(Map.of(EmailCodeAuthenticatorFactory.CODE_LENGTH, "6"));
+		login.setAuthenticatorConfig(config);
+		context = login.flowContext();
+
+		// the email is rendered once per realm, theme and locale, the benchmarks measure the rendered email taken from the cache
+		final EmailTemplateCache templateCache = new EmailTemplateCache();
+		templateCache.put(EmailTemplateCache.key("benchmark", "benchmark", Locale.ENGLISH, Map.of()),
+				new EmailTemplate("Your code", "Your code is " + EmailTemplateCache.CODE_PLACEHOLDER, "<p>Your code is " + EmailTemplateCache.CODE_PLACEHOLDER + "</p>"));
+
+		final EmailSender smtpSender = Fake.of(EmailSender.class).create();
+		asyncSender = new AsyncEmailSender(smtpSender, 1, 1);
+		authenticator = new EmailCodeAuthenticator(login.getSession(), AuthenticatorProperties.of(new Properties()), new EmailCodeAuthenticatorConfigCache(), new LoginCounterStore(TimeUnit.DAYS.toSeconds(1)),
+				codeStore, new OtpSendLimiter(new LocalRateLimiter(), RateLimit.NONE, RateLimit.NONE, RateLimit.NONE), templateCache, asyncSender, smtpSender);
+		codeKey = "id-jane:benchmark";
+	}
+
+	/**
+	 * Close the background sender.
+	 */
+	@TearDown
+	public void tearDown() {
+		asyncSender.close();
+	}
+
+	/**
+	 * First render of the form, a new code is generated, stored and sent.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String authenticateSendCode() {
+		login.reset();
+		login.getAuthNotes().clear();
+		authenticator.authenticate(context);
+		return login.getStatus();
+	}
+
+	/**
+	 * Form rendered again while the sent code is valid.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String authenticateReuseCode() {
+		login.reset();
+		storeCode();
+		authenticator.authenticate(context);
+		return login.getStatus();
+	}
+
+	/**
+	 * Correct code entered.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String actionValidCode() {
+		login.reset();
+		storeCode();
+		login.form("email_code", CODE);
+		authenticator.action(context);
+		return login.getStatus();
+	}
+
+	/**
+	 * Bad code entered.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String actionInvalidCode() {
+		login.reset();
+		storeCode();
+		login.form("email_code", "654321");
+		authenticator.action(context);
+		return login.getStatus();
+	}
+
+	private void storeCode() {
+		login.getAuthNotes().clear();
+		codeStore.put(login.getSession(), codeKey, CODE, TTL_MILLIS);
+		login.getAuthNotes().put(EmailCodeAuthenticatorFactory.CODE_KEY, codeKey);
+	}
+}
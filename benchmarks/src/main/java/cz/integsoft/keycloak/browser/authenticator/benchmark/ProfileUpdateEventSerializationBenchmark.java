@@ -0,0 +1,101 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cz.integsoft.keycloak.browser.authenticator.model.ProfileUpdateEvent;
+import cz.integsoft.keycloak.browser.authenticator.queue.ProfileUpdateEventSerializer;
+
+/**
+ * Serialization of one {@link ProfileUpdateEvent} for all destination queues - the former per call {@link ObjectMapper} against the shared {@link ProfileUpdateEventSerializer}.
+ *
+ * @author integsoft
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileUpdateEventSerializationBenchmark {
+
+	@Param({ "1", "3" })
+	private int queues;
+
+	private ProfileUpdateEvent event;
+
+	private ProfileUpdateEventSerializer serializer;
+
+	/**
+	 * Prepare the event.
+	 */
+	@Setup
+	public void setup() {
+		final Map<String, String> updates = new LinkedHashMap<>();
+		updates.put("firstName", "Jane");
+		updates.put("email", "jane.doe@example.com");
+		updates.put("phone_number", "+16175551234");
+		event = new ProfileUpdateEvent("5f0e6b2c-3c39-4a4e-9a59-0d6f4f6f8c11", updates, "0b8e4f44-1c2d-4f1e-8f55-8e3a3c1b2d77");
+		serializer = new ProfileUpdateEventSerializer(Set.of());
+	}
+
+	/**
+	 * New mapper per event, serialized once per queue.
+	 *
+	 * @param blackhole blackhole
+	 * @throws JsonProcessingException serialization error
+	 */
+	@Benchmark
+	public void perCallMapper(final Blackhole blackhole) throws JsonProcessingException {
+		final ObjectMapper mapper = new ObjectMapper();
+		for (int i = 0; i < queues; i++) {
+			blackhole.consume(mapper.writeValueAsString(event));
+		}
+	}
+
+	/**
+	 * Shared writer, serialized once and reused for every queue.
+	 *
+	 * @param blackhole blackhole
+	 * @throws JsonProcessingException serialization error
+	 */
+	@Benchmark
+	public void sharedWriterJson(final Blackhole blackhole) throws JsonProcessingException {
+		final String json = serializer.toJson(event);
+		for (int i = 0; i < queues; i++) {
+			blackhole.consume(json);
+		}
+	}
+
+	/**
+	 * Shared writer, Base64 encoded CBOR serialized once and reused for every queue.
+	 *
+	 * @param blackhole blackhole
+	 * @throws JsonProcessingException serialization error
+	 */
+	@Benchmark
+	public void sharedWriterCbor(final Blackhole blackhole) throws JsonProcessingException {
+		final String cbor = serializer.toCbor(event);
+		for (int i = 0; i < queues; i++) {
+			blackhole.consume(cbor);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.ValidationContext;
+import org.keycloak.models.UserModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.integsoft.keycloak.browser.authenticator.RegistrationUserCreation;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.FakeLogin;
+
+/**
+ * {@link RegistrationUserCreation#validate(ValidationContext)} - valid registration and registration with a bad phone number. The user profile is a fake accepting any attributes.
+ *
+ * @author integsoft
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationUserCreationBenchmark {
+
+	private final RegistrationUserCreation registration = new RegistrationUserCreation();
+
+	private FakeLogin login;
+
+	private ValidationContext context;
+
+	/**
+	 * Prepare the context.
+	 */
+	@Setup
+	public void setup() {
+		login = new FakeLogin();
+		context = login.validationContext();
+	}
+
+	/**
+	 * Valid registration form.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String validRegistration() {
+		return submit("(617) 555-1234");
+	}
+
+	/**
+	 * Registration form with a bad phone number.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String badPhoneNumber() {
+		return submit("555-12");
+	}
+
+	private String submit(final String phoneNumber) {
+		login.reset();
+		login.form(UserModel.EMAIL, "jane.doe@example.com").form(UserModel.USERNAME, "jane.doe@example.com").form(UserModel.FIRST_NAME, "Jane").form(UserModel.LAST_NAME, "Doe")
+				.form("terms_of_use", "on").form("user.attributes.areacode", "+1").form("user.attributes.phone_number", phoneNumber);
+		registration.validate(context);
+		return login.getStatus();
+	}
+}
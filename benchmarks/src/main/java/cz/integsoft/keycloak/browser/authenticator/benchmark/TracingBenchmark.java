@@ -0,0 +1,106 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.tracing.NoopTracingProvider;
+import org.keycloak.tracing.TracingProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.integsoft.keycloak.browser.authenticator.UsernamePasswordForm;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.FakeLogin;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.tracing.FileSpanExporter;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.tracing.SdkTracing;
+import cz.integsoft.keycloak.browser.authenticator.password.LegacyPasswordVerifier;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+/**
+ * Cost of the login spans - {@link UsernamePasswordForm#action(AuthenticationFlowContext)} with tracing disabled, with the trace dropped by the sampler and with the trace recorded. Run with -prof gc,
+ * the dropped trace must not allocate more than the disabled tracing. The recorded spans are written to the file of the system property benchmark.traceFile.
+ *
+ * @author integsoft
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracingBenchmark {
+
+	private static final String PASSWORD = "Correct-horse-1";
+
+	@Param({ "disabled", "dropped", "sampled" })
+	private String tracing;
+
+	private final LegacyPasswordVerifier legacyVerifier = new LegacyPasswordVerifier(1, 1, 5000L);
+
+	private final UsernamePasswordForm form = new UsernamePasswordForm(legacyVerifier, null, null, null);
+
+	private FakeLogin login;
+
+	private AuthenticationFlowContext context;
+
+	private SdkTracing sdkTracing;
+
+	/**
+	 * Prepare the user and start the span of the request.
+	 */
+	@Setup
+	public void setup() {
+		login = new FakeLogin();
+		login.addUser("keycloak", "keycloak@example.com", PASSWORD, Map.of());
+		context = login.flowContext();
+		if ("disabled".equals(tracing)) {
+			login.addProvider(TracingProvider.class, new NoopTracingProvider());
+			return;
+		}
+		final String traceFile = System.getProperty("benchmark.traceFile");
+		final SpanExporter exporter = traceFile == null ? SpanExporter.composite(List.of()) : new FileSpanExporter(Path.of(traceFile));
+		sdkTracing = new SdkTracing("sampled".equals(tracing), exporter);
+		login.addProvider(TracingProvider.class, sdkTracing);
+		// the Keycloak server starts the span of the HTTP request, the authenticator spans are its children
+		sdkTracing.startSpan("benchmark", "POST /realms/benchmark/login-actions/authenticate");
+	}
+
+	/**
+	 * End the span of the request, flush the spans and stop the verifier threads.
+	 */
+	@TearDown
+	public void tearDown() {
+		legacyVerifier.close();
+		if (sdkTracing != null) {
+			sdkTracing.endSpan();
+			sdkTracing.shutdown();
+		}
+	}
+
+	/**
+	 * Correct username and password.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String validPassword() {
+		login.reset();
+		login.form(AuthenticationManager.FORM_USERNAME, "keycloak").form(CredentialRepresentation.PASSWORD, PASSWORD);
+		form.action(context);
+		return login.getStatus();
+	}
+}
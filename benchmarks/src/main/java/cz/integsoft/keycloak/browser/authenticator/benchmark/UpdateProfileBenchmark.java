@@ -0,0 +1,121 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.RequiredActionContext;
+import org.keycloak.models.UserModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.Fake;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.FakeLogin;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.LocalQueuePublisher;
+import cz.integsoft.keycloak.browser.authenticator.queue.QueuePublisher;
+import cz.integsoft.keycloak.browser.authenticator.requiredaction.UpdateProfile;
+
+/**
+ * {@link UpdateProfile#processAction(RequiredActionContext)} - profile without a change of the phone number and profile with a changed phone number stored in the outbox. The outbox publishes to the local
+ * in-memory queue.
+ *
+ * @author integsoft
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateProfileBenchmark {
+
+	private static final String PHONE = "6175551234";
+
+	private final UpdateProfile updateProfile = new UpdateProfile() {
+		@Override
+		protected QueuePublisher createPublisher(final String awsRegion, final List<String> queueNames) {
+			return new LocalQueuePublisher(queueNames);
+		}
+	};
+
+	private FakeLogin login;
+
+	private RequiredActionContext context;
+
+	private Path outboxDir;
+
+	/**
+	 * Prepare the user and the local outbox.
+	 *
+	 * @throws IOException outbox directory error
+	 */
+	@Setup
+	public void setup() throws IOException {
+		outboxDir = Files.createTempDirectory("mbta-benchmark-outbox");
+		final Map<String, String> options = Map.of("awsJmsQueues", "benchmark", "awsRegion", "local", "profileUpdateOutboxDir", outboxDir.toString());
+		final Config.Scope config = Fake.of(Config.Scope.class).answer("get", args -> options.getOrDefault(args[0], args.length > 1 ? (String) args[1] : null))
+				.answer("getLong", args -> args.length > 1 ? args[1] : null).create();
+		updateProfile.init(config);
+		updateProfile.postInit(null);
+
+		login = new FakeLogin();
+		login.setUser(login.addUser("jane", "jane.doe@example.com", null, Map.of("phone_number", PHONE, "phoneAreaCode", "+1", "mbta_uuid", "5f0e6b2c-3c39-4a4e-9a59-0d6f4f6f8c11")));
+		context = login.requiredActionContext();
+	}
+
+	/**
+	 * Close the outbox and remove the journal.
+	 *
+	 * @throws IOException journal removal error
+	 */
+	@TearDown
+	public void tearDown() throws IOException {
+		updateProfile.close();
+		try (Stream<Path> files = Files.walk(outboxDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * Submitted profile, the phone number is not changed.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String unchangedPhone() {
+		return submit(PHONE);
+	}
+
+	/**
+	 * Submitted profile with a new phone number, the update is stored in the outbox.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String changedPhone() {
+		return submit("(617) 555-9876");
+	}
+
+	private String submit(final String phoneNumber) {
+		login.reset();
+		login.form(UserModel.FIRST_NAME, "Jane").form(UserModel.LAST_NAME, "Doe").form(UserModel.EMAIL, "jane.doe@example.com").form("user.attributes.areacode", "+1")
+				.form("user.attributes.phone_number", phoneNumber);
+		updateProfile.processAction(context);
+		return login.getStatus();
+	}
+}
@@ -0,0 +1,109 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import cz.integsoft.keycloak.browser.authenticator.UsernamePasswordForm;
+import cz.integsoft.keycloak.browser.authenticator.benchmark.fake.FakeLogin;
+import cz.integsoft.keycloak.browser.authenticator.password.LegacyPasswordVerifier;
+
+/**
+ * {@link UsernamePasswordForm#action(AuthenticationFlowContext)} - user with a Keycloak password and user with the legacy BCrypt hash in the password attribute. The legacy hash is checked by
+ * the verifier thread as in the server.
+ *
+ * @author integsoft
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsernamePasswordFormBenchmark {
+
+	private static final String PASSWORD = "Correct-horse-1";
+
+	@Param({ "keycloak", "legacy" })
+	private String credential;
+
+	private final LegacyPasswordVerifier legacyVerifier = new LegacyPasswordVerifier(1, 1, 5000L);
+
+	private final UsernamePasswordForm form = new UsernamePasswordForm(legacyVerifier, null, null, null);
+
+	private FakeLogin login;
+
+	private AuthenticationFlowContext context;
+
+	/**
+	 * Prepare the users.
+	 */
+	@Setup
+	public void setup() {
+		login = new FakeLogin();
+		login.addUser("keycloak", "keycloak@example.com", PASSWORD, Map.of());
+		login.addUser("legacy", "legacy@example.com", null, Map.of(CredentialRepresentation.PASSWORD, BCrypt.hashpw(PASSWORD, BCrypt.gensalt(10)).replace("$2a$", "$2y$")));
+		context = login.flowContext();
+	}
+
+	/**
+	 * Stop the verifier threads.
+	 */
+	@TearDown
+	public void tearDown() {
+		legacyVerifier.close();
+	}
+
+	/**
+	 * Correct username and password.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String validPassword() {
+		return submit(credential, PASSWORD);
+	}
+
+	/**
+	 * Correct username, bad password.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String invalidPassword() {
+		return submit(credential, "bad-password");
+	}
+
+	/**
+	 * Email of the forbidden domain, rejected before the user lookup.
+	 *
+	 * @return outcome
+	 */
+	@Benchmark
+	public String forbiddenDomain() {
+		return submit("jane.doe@mbta.com", PASSWORD);
+	}
+
+	private String submit(final String username, final String password) {
+		login.reset();
+		login.form(AuthenticationManager.FORM_USERNAME, username).form(CredentialRepresentation.PASSWORD, password);
+		form.action(context);
+		return login.getStatus();
+	}
+}
@@ -0,0 +1,124 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark.fake;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Lightweight in-memory fake of a Keycloak interface. Methods answer by name, default interface methods run their implementation, fluent methods return the fake itself, other methods return null, an
+ * empty stream or zero.
+ *
+ * @param <T> faked interface
+ * @author integsoft
+ */
+public final class Fake<T> implements InvocationHandler {
+
+	/**
+	 * Answer of a faked method.
+	 */
+	@FunctionalInterface
+	public interface Answer {
+
+		/**
+		 * @param args method arguments, empty for no arguments
+		 * @return result
+		 * @throws Exception error thrown by the method
+		 */
+		Object answer(Object[] args) throws Exception;
+	}
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private final Class<T> type;
+
+	private final Map<String, Answer> answers = new HashMap<>();
+
+	private Fake(final Class<T> type) {
+		this.type = type;
+	}
+
+	/**
+	 * @param <T> faked interface
+	 * @param type faked interface
+	 * @return fake answering nothing
+	 */
+	public static <T> Fake<T> of(final Class<T> type) {
+		return new Fake<>(type);
+	}
+
+	/**
+	 * Answer all overloads of the method.
+	 *
+	 * @param method method name
+	 * @param answer answer
+	 * @return this fake
+	 */
+	public Fake<T> answer(final String method, final Answer answer) {
+		answers.put(method, answer);
+		return this;
+	}
+
+	/**
+	 * Return the value from all overloads of the method.
+	 *
+	 * @param method method name
+	 * @param value returned value
+	 * @return this fake
+	 */
+	public Fake<T> returns(final String method, final Object value) {
+		return answer(method, args -> value);
+	}
+
+	/**
+	 * @return proxy implementing the interface
+	 */
+	public T create() {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this));
+	}
+
+	@Override
+	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+		final Answer answer = answers.get(method.getName());
+		if (answer != null) {
+			return answer.answer(args == null ? NO_ARGS : args);
+		}
+		if (method.getDeclaringClass() == Object.class) {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return type.getSimpleName() + " fake";
+			}
+		}
+		if (method.isDefault()) {
+			try {
+				return InvocationHandler.invokeDefault(proxy, method, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		final Class<?> returnType = method.getReturnType();
+		if (returnType != Object.class && returnType.isInstance(proxy)) {
+			return proxy;
+		}
+		if (returnType == Stream.class) {
+			return Stream.empty();
+		}
+		if (returnType == boolean.class) {
+			return false;
+		}
+		if (returnType == int.class) {
+			return 0;
+		}
+		if (returnType == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
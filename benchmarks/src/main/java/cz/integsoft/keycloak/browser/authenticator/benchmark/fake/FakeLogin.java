@@ -0,0 +1,324 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark.fake;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.RequiredActionContext;
+import org.keycloak.authentication.ValidationContext;
+import org.keycloak.common.ClientConnection;
+import org.keycloak.credential.CredentialInput;
+import org.keycloak.events.EventBuilder;
+import org.keycloak.events.EventType;
+import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.http.HttpRequest;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SubjectCredentialManager;
+import org.keycloak.models.ThemeManager;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.provider.Provider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.theme.Theme;
+import org.keycloak.userprofile.Attributes;
+import org.keycloak.userprofile.UserProfile;
+import org.keycloak.userprofile.UserProfileProvider;
+
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * One login request against in-memory fakes of the realm, client, users and sessions. The flow contexts record the outcome instead of rendering pages, the forms return a prebuilt {@link FakeResponse}.
+ * A login is reused by the benchmark iterations, {@link #reset()} clears the outcome.
+ *
+ * @author integsoft
+ */
+public final class FakeLogin {
+
+	/**
+	 * Page returned by the fake forms.
+	 */
+	public static final Response PAGE = new FakeResponse(200, "page");
+
+	private final MultivaluedMap<String, String> formParameters = new MultivaluedHashMap<>();
+
+	private final Map<String, String> authNotes = new HashMap<>();
+
+	private final Map<String, String> clientNotes = new HashMap<>();
+
+	private final Map<String, Object> sessionAttributes = new HashMap<>();
+
+	private final Map<Class<?>, Provider> providers = new HashMap<>();
+
+	private final Map<String, UserModel> users = new HashMap<>();
+
+	private final RealmModel realm;
+
+	private final ClientModel client;
+
+	private final KeycloakSession session;
+
+	private final AuthenticationSessionModel authenticationSession;
+
+	private final HttpRequest httpRequest;
+
+	private final ClientConnection connection;
+
+	private final LoginFormsProvider forms;
+
+	private final AuthenticationExecutionModel execution = new AuthenticationExecutionModel();
+
+	private final EventBuilder event;
+
+	private AuthenticatorConfigModel authenticatorConfig;
+
+	private UserModel user;
+
+	private String status;
+
+	private Response challenge;
+
+	/**
+	 * Constructor.
+	 */
+	public FakeLogin() {
+		realm = Fake.of(RealmModel.class).returns("getId", "benchmark").returns("getName", "benchmark").returns("isLoginWithEmailAllowed", true).returns("getSmtpConfig", Map.of())
+				.returns("getRealmLocalizationTextsByLocale", Map.of()).create();
+		client = Fake.of(ClientModel.class).returns("getId", "client").returns("getClientId", "benchmark-client").returns("getClientScopes", Map.of()).create();
+		final Fake<KeycloakSession> sessionFake = Fake.of(KeycloakSession.class);
+		session = sessionFake.create();
+		authenticationSession = Fake.of(AuthenticationSessionModel.class).returns("getRealm", realm).returns("getClient", client).returns("getTabId", "tab")
+				.answer("getAuthNote", args -> authNotes.get(args[0])).answer("setAuthNote", args -> authNotes.put((String) args[0], (String) args[1]))
+				.answer("removeAuthNote", args -> authNotes.remove(args[0])).answer("getClientNote", args -> clientNotes.get(args[0]))
+				.answer("setClientNote", args -> clientNotes.put((String) args[0], (String) args[1])).answer("removeClientNote", args -> clientNotes.remove(args[0])).create();
+		httpRequest = Fake.of(HttpRequest.class).returns("getDecodedFormParameters", formParameters).create();
+		connection = Fake.of(ClientConnection.class).returns("getRemoteAddr", "192.0.2.1").returns("getRemoteHost", "192.0.2.1").create();
+		forms = Fake.of(LoginFormsProvider.class).answer("createForm", args -> PAGE).answer("createLoginUsernamePassword", args -> PAGE).answer("createResponse", args -> PAGE)
+				.answer("createErrorPage", args -> PAGE).create();
+
+		final KeycloakContext keycloakContext = Fake.of(KeycloakContext.class).returns("getRealm", realm).returns("getClient", client).returns("getConnection", connection)
+				.returns("getAuthenticationSession", authenticationSession).returns("resolveLocale", Locale.ENGLISH).create();
+		final UserProvider userProvider = Fake.of(UserProvider.class).answer("getUserByUsername", args -> users.get(args[1])).answer("getUserByEmail", args -> users.get(args[1])).create();
+		final Theme theme = Fake.of(Theme.class).returns("getName", "benchmark").returns("getType", Theme.Type.EMAIL).answer("getMessages", args -> new Properties())
+				.answer("getProperties", args -> new Properties()).create();
+		final ThemeManager themeManager = Fake.of(ThemeManager.class).returns("getTheme", theme).create();
+		sessionFake.returns("getContext", keycloakContext).returns("getKeycloakSessionFactory", Fake.of(KeycloakSessionFactory.class).create()).returns("users", userProvider).returns("theme", themeManager).answer("getProvider", args -> providers.get(args[0]))
+				.answer("getAttribute", args -> sessionAttributes.get(args[0])).answer("setAttribute", args -> sessionAttributes.put((String) args[0], args[1]))
+				.answer("removeAttribute", args -> sessionAttributes.remove(args[0]));
+
+		providers.put(UserProfileProvider.class, Fake.of(UserProfileProvider.class).answer("create", args -> profile(findFormData(args))).create());
+
+		execution.setId("execution");
+		event = new UnsentEventBuilder(realm, session, connection);
+		event.event(EventType.LOGIN);
+	}
+
+	/**
+	 * Add user.
+	 *
+	 * @param username username
+	 * @param email email
+	 * @param password password of the Keycloak credential, null - the user has no Keycloak credential
+	 * @param attributes user attributes
+	 * @return user
+	 */
+	public UserModel addUser(final String username, final String email, final String password, final Map<String, String> attributes) {
+		final Map<String, List<String>> values = new HashMap<>();
+		attributes.forEach((name, value) -> values.put(name, List.of(value)));
+		final SubjectCredentialManager credentials = Fake.of(SubjectCredentialManager.class).answer("isConfiguredFor", args -> password != null)
+				.answer("isValid", args -> password != null && isPassword(args[0], password)).create();
+		final UserModel added = Fake.of(UserModel.class).returns("getId", "id-" + username).returns("getUsername", username).returns("getEmail", email).returns("isEnabled", true)
+				.returns("credentialManager", credentials).answer("getFirstAttribute", args -> first(values.get(args[0])))
+				.answer("getAttributeStream", args -> values.getOrDefault(args[0], List.of()).stream()).answer("getAttributes", args -> values)
+				.answer("setSingleAttribute", args -> values.put((String) args[0], List.of((String) args[1]))).create();
+		users.put(username, added);
+		users.put(email, added);
+		return added;
+	}
+
+	/**
+	 * @param <T> provider type
+	 * @param type provider type
+	 * @param provider provider returned by the session
+	 */
+	public <T extends Provider> void addProvider(final Class<T> type, final T provider) {
+		providers.put(type, provider);
+	}
+
+	/**
+	 * Clear the outcome and the submitted form.
+	 */
+	public void reset() {
+		formParameters.clear();
+		sessionAttributes.clear();
+		status = null;
+		challenge = null;
+	}
+
+	/**
+	 * @param name form parameter name
+	 * @param value submitted value
+	 * @return this login
+	 */
+	public FakeLogin form(final String name, final String value) {
+		formParameters.putSingle(name, value);
+		return this;
+	}
+
+	/**
+	 * @return authentication flow context of an authenticator
+	 */
+	public AuthenticationFlowContext flowContext() {
+		return contextFake(AuthenticationFlowContext.class).create();
+	}
+
+	/**
+	 * @return validation context of a registration form action
+	 */
+	public ValidationContext validationContext() {
+		return contextFake(ValidationContext.class).answer("validationError", args -> outcome("validationError", null)).answer("error", args -> outcome("error", null)).create();
+	}
+
+	/**
+	 * @return context of a required action
+	 */
+	public RequiredActionContext requiredActionContext() {
+		return contextFake(RequiredActionContext.class).answer("failure", args -> outcome("failure", null)).create();
+	}
+
+	/**
+	 * @return the session
+	 */
+	public KeycloakSession getSession() {
+		return session;
+	}
+
+	/**
+	 * @return the realm
+	 */
+	public RealmModel getRealm() {
+		return realm;
+	}
+
+	/**
+	 * @return the authentication session notes
+	 */
+	public Map<String, String> getAuthNotes() {
+		return authNotes;
+	}
+
+	/**
+	 * @param user the user of the login
+	 */
+	public void setUser(final UserModel user) {
+		this.user = user;
+	}
+
+	/**
+	 * @param authenticatorConfig the authenticator config of the execution
+	 */
+	public void setAuthenticatorConfig(final AuthenticatorConfigModel authenticatorConfig) {
+		this.authenticatorConfig = authenticatorConfig;
+	}
+
+	/**
+	 * @return the outcome of the last call, e.g. success or failureChallenge
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the challenge of the last call or null
+	 */
+	public Response getChallenge() {
+		return challenge;
+	}
+
+	private <T> Fake<T> contextFake(final Class<T> type) {
+		return Fake.of(type).returns("getHttpRequest", httpRequest).returns("getAuthenticationSession", authenticationSession).returns("getSession", session).returns("getRealm", realm)
+				.returns("getConnection", connection).returns("getExecution", execution).returns("getEvent", event).returns("newEvent", event).returns("form", forms)
+				.answer("getAuthenticatorConfig", args -> authenticatorConfig).answer("getUser", args -> user).answer("setUser", args -> {
+					user = (UserModel) args[0];
+					return null;
+				}).answer("clearUser", args -> {
+					user = null;
+					return null;
+				}).answer("challenge", args -> outcome("challenge", (Response) args[0])).answer("forceChallenge", args -> outcome("forceChallenge", (Response) args[0]))
+				.answer("failureChallenge", args -> outcome("failureChallenge", (Response) args[1])).answer("success", args -> outcome("success", null))
+				.answer("failure", args -> outcome("failure", args.length > 1 ? (Response) args[1] : null)).answer("fork", args -> outcome("fork", null))
+				.answer("cancelLogin", args -> outcome("cancelLogin", null));
+	}
+
+	private Object outcome(final String outcome, final Response response) {
+		status = outcome;
+		challenge = response;
+		return null;
+	}
+
+	private UserProfile profile(final MultivaluedMap<String, String> formData) {
+		final Attributes attributes = Fake.of(Attributes.class).answer("getFirst", args -> formData.getFirst((String) args[0])).create();
+		return Fake.of(UserProfile.class).returns("getAttributes", attributes).create();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static MultivaluedMap<String, String> findFormData(final Object[] args) {
+		for (final Object arg : args) {
+			if (arg instanceof MultivaluedMap) {
+				return (MultivaluedMap<String, String>) arg;
+			}
+		}
+		return new MultivaluedHashMap<>();
+	}
+
+	private static boolean isPassword(final Object credentials, final String password) {
+		final List<Object> inputs = new ArrayList<>();
+		if (credentials instanceof List) {
+			inputs.addAll((List<?>) credentials);
+		} else if (credentials instanceof Object[]) {
+			inputs.addAll(Arrays.asList((Object[]) credentials));
+		} else {
+			inputs.add(credentials);
+		}
+		for (final Object input : inputs) {
+			if (input instanceof CredentialInput && password.equals(((CredentialInput) input).getChallengeResponse())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String first(final List<String> values) {
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * Event builder not sending the events, the event store and listeners are not part of the measured paths.
+	 */
+	private static final class UnsentEventBuilder extends EventBuilder {
+
+		UnsentEventBuilder(final RealmModel realm, final KeycloakSession session, final ClientConnection connection) {
+			super(realm, session, connection);
+		}
+
+		@Override
+		public void success() {
+		}
+
+		@Override
+		public void error(final String error) {
+		}
+	}
+}
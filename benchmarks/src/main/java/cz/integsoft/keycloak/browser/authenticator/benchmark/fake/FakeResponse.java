@@ -0,0 +1,174 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark.fake;
+
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.Link;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.NewCookie;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Rendered page returned by the fake forms. The benchmarks run without a JAX-RS implementation, so responses cannot be built by {@link Response#status(int)}.
+ *
+ * @author integsoft
+ */
+public final class FakeResponse extends Response {
+
+	private final int status;
+
+	private final String page;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param status HTTP status
+	 * @param page name of the rendered page
+	 */
+	public FakeResponse(final int status, final String page) {
+		this.status = status;
+		this.page = page;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public StatusType getStatusInfo() {
+		return Status.fromStatusCode(status);
+	}
+
+	@Override
+	public Object getEntity() {
+		return page;
+	}
+
+	@Override
+	public <T> T readEntity(final Class<T> entityType) {
+		return entityType.cast(page);
+	}
+
+	@Override
+	public <T> T readEntity(final GenericType<T> entityType) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public <T> T readEntity(final Class<T> entityType, final Annotation[] annotations) {
+		return readEntity(entityType);
+	}
+
+	@Override
+	public <T> T readEntity(final GenericType<T> entityType, final Annotation[] annotations) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean hasEntity() {
+		return page != null;
+	}
+
+	@Override
+	public boolean bufferEntity() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		return MediaType.TEXT_HTML_TYPE;
+	}
+
+	@Override
+	public Locale getLanguage() {
+		return null;
+	}
+
+	@Override
+	public int getLength() {
+		return -1;
+	}
+
+	@Override
+	public Set<String> getAllowedMethods() {
+		return Set.of();
+	}
+
+	@Override
+	public Map<String, NewCookie> getCookies() {
+		return Map.of();
+	}
+
+	@Override
+	public EntityTag getEntityTag() {
+		return null;
+	}
+
+	@Override
+	public Date getDate() {
+		return null;
+	}
+
+	@Override
+	public Date getLastModified() {
+		return null;
+	}
+
+	@Override
+	public URI getLocation() {
+		return null;
+	}
+
+	@Override
+	public Set<Link> getLinks() {
+		return Set.of();
+	}
+
+	@Override
+	public boolean hasLink(final String relation) {
+		return false;
+	}
+
+	@Override
+	public Link getLink(final String relation) {
+		return null;
+	}
+
+	@Override
+	public Link.Builder getLinkBuilder(final String relation) {
+		return null;
+	}
+
+	@Override
+	public MultivaluedMap<String, Object> getMetadata() {
+		return new MultivaluedHashMap<>();
+	}
+
+	@Override
+	public MultivaluedMap<String, String> getStringHeaders() {
+		return new MultivaluedHashMap<>();
+	}
+
+	@Override
+	public String getHeaderString(final String name) {
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return status + " " + page;
+	}
+}
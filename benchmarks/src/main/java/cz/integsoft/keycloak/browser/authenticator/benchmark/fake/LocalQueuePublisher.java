@@ -0,0 +1,84 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark.fake;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+
+import cz.integsoft.keycloak.browser.authenticator.exception.QueueException;
+import cz.integsoft.keycloak.browser.authenticator.queue.QueuePublisher;
+
+/**
+ * In-memory stand-in of the queue service for the benchmarks. Messages are only kept in memory.
+ *
+ * @author integsoft
+ */
+public class LocalQueuePublisher implements QueuePublisher {
+
+	private static Logger logger = Logger.getLogger(LocalQueuePublisher.class);
+
+	private final List<String> queueNames;
+
+	private final Map<String, List<String>> messages = new ConcurrentHashMap<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param queueNames destination queue names
+	 */
+	public LocalQueuePublisher(final List<String> queueNames) {
+		this.queueNames = List.copyOf(queueNames);
+	}
+
+	@Override
+	public void connect() throws QueueException {
+		// nothing to connect to
+	}
+
+	@Override
+	public void send(final String queueName, final String body) throws QueueException {
+		sendBatch(queueName, List.of(body));
+	}
+
+	@Override
+	public void sendBatch(final String queueName, final List<String> bodies) throws QueueException {
+		if (closed) {
+			throw new QueueException("Queue publisher is closed");
+		}
+		final List<String> queue = messages.computeIfAbsent(queueName, q -> new ArrayList<>());
+		synchronized (queue) {
+			queue.addAll(bodies);
+		}
+		logger.debugf("Local queue %s, batch of %d messages", queueName, bodies.size());
+	}
+
+	/**
+	 * @param queueName queue name
+	 * @return copy of messages sent to the queue
+	 */
+	public List<String> getMessages(final String queueName) {
+		final List<String> queue = messages.getOrDefault(queueName, List.of());
+		synchronized (queue) {
+			return List.copyOf(queue);
+		}
+	}
+
+	@Override
+	public List<String> getQueueNames() {
+		return queueNames;
+	}
+
+	@Override
+	public boolean isHealthy() {
+		return !closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+}
@@ -0,0 +1,92 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark.tracing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+/**
+ * Exporter writing the spans to a local file, one JSON object per line, for checking the spans without a collector.
+ *
+ * @author integsoft
+ */
+public final class FileSpanExporter implements SpanExporter {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final BufferedWriter writer;
+
+	/**
+	 * Constructor, the spans are appended to the file.
+	 *
+	 * @param file output file
+	 */
+	public FileSpanExporter(final Path file) {
+		try {
+			writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public synchronized CompletableResultCode export(final Collection<SpanData> spans) {
+		try {
+			for (final SpanData span : spans) {
+				writer.write(mapper.writeValueAsString(toMap(span)));
+				writer.newLine();
+			}
+			return CompletableResultCode.ofSuccess();
+		} catch (final IOException e) {
+			return CompletableResultCode.ofFailure();
+		}
+	}
+
+	@Override
+	public synchronized CompletableResultCode flush() {
+		try {
+			writer.flush();
+			return CompletableResultCode.ofSuccess();
+		} catch (final IOException e) {
+			return CompletableResultCode.ofFailure();
+		}
+	}
+
+	@Override
+	public synchronized CompletableResultCode shutdown() {
+		try {
+			writer.close();
+			return CompletableResultCode.ofSuccess();
+		} catch (final IOException e) {
+			return CompletableResultCode.ofFailure();
+		}
+	}
+
+	private static Map<String, Object> toMap(final SpanData span) {
+		final Map<String, Object> attributes = new LinkedHashMap<>();
+		span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), value));
+		final Map<String, Object> json = new LinkedHashMap<>();
+		json.put("traceId", span.getTraceId());
+		json.put("spanId", span.getSpanId());
+		json.put("parentSpanId", span.getParentSpanId());
+		json.put("tracer", span.getInstrumentationScopeInfo().getName());
+		json.put("name", span.getName());
+		json.put("startEpochNanos", span.getStartEpochNanos());
+		json.put("durationNanos", span.getEndEpochNanos() - span.getStartEpochNanos());
+		json.put("status", span.getStatus().getStatusCode().name());
+		json.put("attributes", attributes);
+		return json;
+	}
+}
@@ -0,0 +1,124 @@
+package cz.integsoft.keycloak.browser.authenticator.benchmark.tracing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.keycloak.tracing.TracingProvider;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+
+/**
+ * Tracing provider of one thread backed by the OpenTelemetry SDK, replaces the tracing of the Keycloak server. Spans follow the parent, the sampler decides for the root span only, as with the
+ * default sampler of the server. Ended spans are passed to the exporter immediately.
+ *
+ * @author integsoft
+ */
+public final class SdkTracing implements TracingProvider {
+
+	private final SdkTracerProvider tracerProvider;
+
+	private final Map<String, Tracer> tracers = new HashMap<>();
+
+	private final Deque<Span> spans = new ArrayDeque<>();
+
+	private final Deque<Scope> scopes = new ArrayDeque<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sampled true - traces are recorded / false - traces are dropped by the sampler
+	 * @param exporter exporter of the ended spans
+	 */
+	public SdkTracing(final boolean sampled, final SpanExporter exporter) {
+		tracerProvider = SdkTracerProvider.builder().setSampler(Sampler.parentBased(sampled ? Sampler.alwaysOn() : Sampler.alwaysOff())).addSpanProcessor(SimpleSpanProcessor.create(exporter))
+				.build();
+	}
+
+	@Override
+	public Span getCurrentSpan() {
+		return Span.current();
+	}
+
+	@Override
+	public Span startSpan(final String tracerName, final String spanName) {
+		return startSpan(getTracer(tracerName).spanBuilder(spanName));
+	}
+
+	@Override
+	public Span startSpan(final SpanBuilder builder) {
+		final Span span = builder.startSpan();
+		spans.push(span);
+		scopes.push(span.makeCurrent());
+		return span;
+	}
+
+	@Override
+	public void endSpan() {
+		scopes.pop().close();
+		spans.pop().end();
+	}
+
+	@Override
+	public void error(final Throwable exception) {
+		final Span span = spans.peek();
+		if (span != null) {
+			span.recordException(exception);
+			span.setStatus(StatusCode.ERROR);
+		}
+	}
+
+	@Override
+	public void trace(final String tracerName, final String spanName, final Consumer<Span> execution) {
+		trace(tracerName, spanName, span -> {
+			execution.accept(span);
+			return null;
+		});
+	}
+
+	@Override
+	public <T> T trace(final String tracerName, final String spanName, final Function<Span, T> execution) {
+		final Span span = startSpan(tracerName, spanName);
+		try {
+			return execution.apply(span);
+		} catch (final RuntimeException e) {
+			error(e);
+			throw e;
+		} finally {
+			endSpan();
+		}
+	}
+
+	@Override
+	public Tracer getTracer(final String name, final String version) {
+		return tracers.computeIfAbsent(name, tracerProvider::get);
+	}
+
+	@Override
+	public boolean validateAllSpansEnded() {
+		return spans.isEmpty();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Flush the exporter and stop the tracing.
+	 */
+	public void shutdown() {
+		tracerProvider.shutdown().join(10, TimeUnit.SECONDS);
+	}
+}
@@ -1,12 +1,15 @@
 package cz.integsoft.keycloak.browser.authenticator;
 
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -15,20 +18,37 @@ import org.keycloak.authentication.AuthenticationProcessor;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.common.util.SecretGenerator;
 import org.keycloak.email.EmailException;
-import org.keycloak.email.EmailSenderProvider;
+import org.keycloak.events.Details;
 import org.keycloak.events.Errors;
 import org.keycloak.forms.login.LoginFormsProvider;
-import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.services.messages.Messages;
 import org.keycloak.sessions.AuthenticationSessionModel;
 import org.keycloak.theme.FreeMarkerException;
 import org.keycloak.theme.Theme;
 import org.keycloak.theme.beans.MessageFormatterMethod;
 import org.keycloak.theme.freemarker.FreeMarkerProvider;
-
+import org.keycloak.tracing.TracingProvider;
+
+import cz.integsoft.keycloak.browser.authenticator.config.AuthenticatorProperties;
+import cz.integsoft.keycloak.browser.authenticator.config.EmailCodeAuthenticatorConfig;
+import cz.integsoft.keycloak.browser.authenticator.config.EmailCodeAuthenticatorConfigCache;
+import cz.integsoft.keycloak.browser.authenticator.email.AsyncEmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.EmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.EmailTemplateCache;
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
 import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+import cz.integsoft.keycloak.browser.authenticator.model.cache.CachedCode;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.OtpSendLimiter;
+import cz.integsoft.keycloak.browser.authenticator.store.LoginCounterStore;
+import cz.integsoft.keycloak.browser.authenticator.store.OtpCodeStore;
+import cz.integsoft.keycloak.browser.authenticator.tracing.LoginTracing;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 
@@ -44,6 +64,13 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 	private static final String USER_NOT_FOUND = "secondFactor.userNotFound";
 	private static final String USER_NO_EMAIL = "secondFactor.userNoEmail";
 	private static final String SEND_EMAIL_ERROR = "secondFactor.sendEmailError";
+	private static final String TOO_MANY_EMAILS = "secondFactor.tooManyEmails";
+	private static final String RESEND_TOO_SOON = "secondFactor.resendTooSoon";
+	private static final String CODE_RESENT = "secondFactor.codeResent";
+	private static final String RESEND = "resend";
+	private static final String CODE_SENT_AT_NOTE = "emailCodeSentAt";
+	private static final String CODE_LOCKED_NOTE = "emailCodeLocked";
+	private static final String CODE_EXPIRED = "secondFactor.codeExpired";
 	private static final String EMAIL_SUBJECT = "secondFactor.emailSubject";
 	private static final String EMAIL_TEMPLATE = "second-factor-code.ftl";
 	private static final String FTL_CODE_NAME = "email_code";
@@ -51,24 +78,66 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 	private static final String NUMBER_OF_LOGIN_ATTR = "number_of_login";
 	private static final long THOUSAND_LONG = 1000L;
 
+	private static final StepTimer GENERATE_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_GENERATE);
+	private static final StepTimer TEMPLATE_CACHED_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_TEMPLATE_RENDER, "cache", "hit");
+	private static final StepTimer TEMPLATE_RENDERED_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_TEMPLATE_RENDER, "cache", "miss");
+	private static final StepTimer SEND_SUCCESS_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_EMAIL_SEND, "mode", "sync", AuthenticatorMetrics.TAG_OUTCOME, "success");
+	private static final StepTimer SEND_FAILURE_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_EMAIL_SEND, "mode", "sync", AuthenticatorMetrics.TAG_OUTCOME, "failure");
+	private static final StepTimer SESSION_LOCKED_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_VERIFY, AuthenticatorMetrics.TAG_OUTCOME, "session_locked");
+	private static final Map<OtpCodeStore.Result, StepTimer> VERIFY_TIMERS = new EnumMap<>(OtpCodeStore.Result.class);
+
+	static {
+		for (final OtpCodeStore.Result result : OtpCodeStore.Result.values()) {
+			VERIFY_TIMERS.put(result, AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_VERIFY, AuthenticatorMetrics.TAG_OUTCOME, result.name().toLowerCase(Locale.ROOT)));
+		}
+	}
+
 	private final FreeMarkerProvider freeMarker;
 
-	private final Properties properties;
+	private final AuthenticatorProperties properties;
+
+	private final EmailCodeAuthenticatorConfigCache configCache;
+
+	private final LoginCounterStore loginCounter;
+
+	private final OtpCodeStore codeStore;
+
+	private final OtpSendLimiter sendLimiter;
+
+	private final EmailTemplateCache templateCache;
+
+	private final AsyncEmailSender emailSender;
+
+	private final EmailSender smtpSender;
 
 	/**
 	 * Constructor.
 	 *
 	 * @param session {@link KeycloakSession}
 	 * @param properties authenticator properties
+	 * @param configCache parsed authenticator config cache
+	 * @param loginCounter login counter store
+	 * @param codeStore code store
+	 * @param sendLimiter code email rate limiter
+	 * @param templateCache rendered email cache
+	 * @param emailSender background email sender
+	 * @param smtpSender sender of the emails sent in the login request
 	 */
-	public EmailCodeAuthenticator(final KeycloakSession session, final Properties properties) {
+	public EmailCodeAuthenticator(final KeycloakSession session, final AuthenticatorProperties properties, final EmailCodeAuthenticatorConfigCache configCache, final LoginCounterStore loginCounter,
+			final OtpCodeStore codeStore, final OtpSendLimiter sendLimiter, final EmailTemplateCache templateCache, final AsyncEmailSender emailSender, final EmailSender smtpSender) {
 		this.freeMarker = session.getProvider(FreeMarkerProvider.class);
 		this.properties = properties;
+		this.configCache = configCache;
+		this.loginCounter = loginCounter;
+		this.codeStore = codeStore;
+		this.sendLimiter = sendLimiter;
+		this.templateCache = templateCache;
+		this.emailSender = emailSender;
+		this.smtpSender = smtpSender;
 	}
 
 	@Override
 	public void authenticate(final AuthenticationFlowContext context) {
-		final AuthenticatorConfigModel config = context.getAuthenticatorConfig();
 		final AuthenticationSessionModel session = context.getAuthenticationSession();
 
 		final UserModel user = context.getUser();
@@ -83,31 +152,20 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 			return;
 		}
 
-		if (properties.getProperty("skipMFA.clients") != null && context.getAuthenticationSession().getClient().getClientId().equalsIgnoreCase(properties.getProperty("skipMFA.clients"))) {
-			log.debugf("Client %s - skip MFA", context.getAuthenticationSession().getClient().getClientId());
-			context.success();
+		final EmailCodeAuthenticatorConfig config = configCache.get(context.getAuthenticatorConfig());
+		if (isMisconfigured(context, config)) {
 			return;
 		}
-
-		int length = EmailCodeAuthenticatorFactory.DEFAULT_LENGTH;
-		int loginCount = EmailCodeAuthenticatorFactory.DEFAULT_LOGIN_COUNT;
-		int ttl = EmailCodeAuthenticatorFactory.DEFAULT_TTL;
-
-		if (config != null) {
-			// get config values
-			length = Integer.parseInt(config.getConfig().get(EmailCodeAuthenticatorFactory.CODE_LENGTH));
-			loginCount = Integer.parseInt(config.getConfig().get(EmailCodeAuthenticatorFactory.LOGIN_COUNT));
-			ttl = Integer.parseInt(config.getConfig().get(EmailCodeAuthenticatorFactory.CODE_TTL));
-		}
-
-		if (loginCount > 1 && user.getFirstAttribute(NUMBER_OF_LOGIN_ATTR) == null) {
-			user.setSingleAttribute(NUMBER_OF_LOGIN_ATTR, "1");
+		final ClientModel client = session.getClient();
+		if (properties.getSkipMfaPolicy().matchesClient(client.getClientId()) || config.getSkipMfaPolicy().matches(context.getRealm(), client, user)) {
+			log.debugf("Client %s, user %s - skip MFA", client.getClientId(), user.getUsername());
 			context.success();
 			return;
 		}
-		if (loginCount > 1 && Integer.parseInt(user.getFirstAttribute(NUMBER_OF_LOGIN_ATTR)) + 1 < loginCount) {
-			final int numberOflogin = Integer.parseInt(user.getFirstAttribute(NUMBER_OF_LOGIN_ATTR)) + 1;
-			user.setSingleAttribute(NUMBER_OF_LOGIN_ATTR, String.valueOf(numberOflogin));
+
+		final int loginCount = config.getLoginCount();
+
+		if (loginCount > 1 && loginCounter.tryCount(context.getSession(), context.getRealm(), user, loginCount)) {
 			context.success();
 			return;
 		}
@@ -118,27 +176,113 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 			return;
 		}
 
-		final String code = SecretGenerator.getInstance().randomString(length, SecretGenerator.DIGITS);
+		// the form is rendered again (back button, reload), the code sent before is still valid
+		final String codeKey = session.getAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY);
+		if (codeKey != null && session.getAuthNote(AsyncEmailSender.SEND_FAILED_NOTE) == null && codeStore.get(context.getSession(), codeKey, config.getMaxAttempts()) != null) {
+			log.debugf("Second factor code for user email %s reused", user.getEmail());
+			context.getAuthenticationSession().setClientNote(AuthenticationProcessor.CURRENT_AUTHENTICATION_EXECUTION, context.getExecution().getId());
+			context.challenge(challenge(context));
+			return;
+		}
+
+		if (!sendCode(context, user, config, null, null, false)) {
+			return;
+		}
+
+		final Response challengeResponse = challenge(context);
+		context.getAuthenticationSession().setClientNote(AuthenticationProcessor.CURRENT_AUTHENTICATION_EXECUTION, context.getExecution().getId());
+		context.challenge(challengeResponse);
+	}
+
+	/**
+	 * Send the code email. The failure response is set if the email cannot be sent.
+	 *
+	 * @param context {@link AuthenticationFlowContext}
+	 * @param user user
+	 * @param config authenticator config
+	 * @param codeKey key of the code to send again, null - generate a new code
+	 * @param cachedCode code to send again, null - generate a new code
+	 * @param resend true - the user asked for the code again on the code form
+	 * @return true - the email was sent / otherwise false
+	 */
+	private boolean sendCode(final AuthenticationFlowContext context, final UserModel user, final EmailCodeAuthenticatorConfig config, final String codeKey, final CachedCode cachedCode,
+			final boolean resend) {
+		final AuthenticationSessionModel session = context.getAuthenticationSession();
+		final long wait = sendLimiter.tryAcquire(context.getSession(), user.getId(), user.getEmail(), context.getConnection().getRemoteAddr());
+		if (wait > 0) {
+			context.getEvent().detail(Details.REASON, "too_many_code_emails").error(Errors.EMAIL_SEND_FAILED);
+			final long waitSeconds = TimeUnit.MILLISECONDS.toSeconds(wait) + 1;
+			if (resend) {
+				// the user stays on the code form, the code sent before is still valid
+				context.challenge(context.form().setError(TOO_MANY_EMAILS, waitSeconds).createForm(FORM_FTL_EMAIL_CODE));
+			} else {
+				context.forkWithErrorMessage(new FormMessage(TOO_MANY_EMAILS, waitSeconds));
+			}
+			return false;
+		}
 
-		log.debugf("Generated random code for user email %s is %d", user.getEmail(), code);
-		session.setAuthNote(EmailCodeAuthenticatorFactory.CODE, code);
-		session.setAuthNote(EmailCodeAuthenticatorFactory.CODE_TTL, Long.toString(System.currentTimeMillis() + (ttl * THOUSAND_LONG)));
+		final String code;
+		final String key;
+		if (cachedCode != null) {
+			code = cachedCode.getCode();
+			key = codeKey;
+		} else {
+			final long generateStart = System.nanoTime();
+			code = SecretGenerator.getInstance().randomString(config.getLength(), SecretGenerator.DIGITS);
+			GENERATE_TIMER.stop(generateStart);
+			log.debugf("Generated random code for user email %s is %s", user.getEmail(), code);
+			final String previousCodeKey = session.getAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY);
+			if (previousCodeKey != null) {
+				codeStore.remove(context.getSession(), previousCodeKey);
+			}
+			key = user.getId() + ':' + KeycloakModelUtils.generateId();
+			codeStore.put(context.getSession(), key, code, config.getTtl() * THOUSAND_LONG);
+			session.setAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY, key);
+			session.removeAuthNote(CODE_LOCKED_NOTE);
+		}
 
 		try {
-			final Map<String, Object> attributes = new HashMap<>();
-			attributes.put("code", code);
-			send(context, user, processTemplate(context, user, EMAIL_SUBJECT, new ArrayList<>(), EMAIL_TEMPLATE, attributes));
+			final EmailTemplate email = createCodeEmail(context, user, code);
+			session.removeAuthNote(AsyncEmailSender.SEND_FAILED_NOTE);
+			if (!config.isAsyncSend() || !emailSender.submit(context, user, email)) {
+				send(context, user, email);
+			}
 		} catch (final EmailException e) {
 			log.error("Error send email", e);
-			session.removeAuthNote(EmailCodeAuthenticatorFactory.CODE);
-			session.removeAuthNote(EmailCodeAuthenticatorFactory.CODE_TTL);
-			returnFailure(context, SEND_EMAIL_ERROR);
+			removeCode(context, key);
+			context.getEvent().error(Errors.EMAIL_SEND_FAILED);
+			if (resend) {
+				context.challenge(context.form().setError(SEND_EMAIL_ERROR).createForm(FORM_FTL_EMAIL_CODE));
+			} else {
+				returnFailure(context, SEND_EMAIL_ERROR);
+			}
+			return false;
+		}
+		session.setAuthNote(CODE_SENT_AT_NOTE, Long.toString(System.currentTimeMillis()));
+		return true;
+	}
+
+	/**
+	 * Send the code again on user request. The code is sent again while it is valid, otherwise a new code is generated.
+	 *
+	 * @param context {@link AuthenticationFlowContext}
+	 * @param config authenticator config
+	 */
+	private void resendCode(final AuthenticationFlowContext context, final EmailCodeAuthenticatorConfig config) {
+		final AuthenticationSessionModel session = context.getAuthenticationSession();
+		final String sentAt = session.getAuthNote(CODE_SENT_AT_NOTE);
+		final long cooldownMillis = (sentAt == null ? 0 : Long.parseLong(sentAt)) + config.getResendCooldown() * THOUSAND_LONG - System.currentTimeMillis();
+		if (cooldownMillis > 0) {
+			context.challenge(context.form().setError(RESEND_TOO_SOON, TimeUnit.MILLISECONDS.toSeconds(cooldownMillis) + 1).createForm(FORM_FTL_EMAIL_CODE));
 			return;
 		}
 
-		final Response challengeResponse = challenge(context);
-		context.getAuthenticationSession().setClientNote(AuthenticationProcessor.CURRENT_AUTHENTICATION_EXECUTION, context.getExecution().getId());
-		context.challenge(challengeResponse);
+		final String codeKey = session.getAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY);
+		final CachedCode cachedCode = codeKey == null ? null : codeStore.get(context.getSession(), codeKey, config.getMaxAttempts());
+		if (sendCode(context, context.getUser(), config, codeKey, cachedCode, true)) {
+			log.debugf("Second factor code for user email %s sent again", context.getUser().getEmail());
+			context.challenge(context.form().setInfo(CODE_RESENT).createForm(FORM_FTL_EMAIL_CODE));
+		}
 	}
 
 	/**
@@ -150,15 +294,70 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 	 * @throws EmailException send email problem
 	 */
 	protected void send(final AuthenticationFlowContext context, final UserModel user, final EmailTemplate template) throws EmailException {
-		final EmailSenderProvider emailSender = context.getSession().getProvider(EmailSenderProvider.class);
-		emailSender.send(context.getRealm().getSmtpConfig(), user, template.getSubject(), template.getTextBody(), template.getHtmlBody());
+		final TracingProvider tracing = LoginTracing.start(context.getSession(), LoginTracing.SEND_EMAIL);
+		final long start = System.nanoTime();
+		boolean sent = false;
+		try {
+			smtpSender.send(context.getSession(), context.getRealm().getSmtpConfig(), user.getEmail(), template);
+			sent = true;
+		} catch (final EmailException | RuntimeException e) {
+			LoginTracing.error(tracing, e);
+			throw e;
+		} finally {
+			(sent ? SEND_SUCCESS_TIMER : SEND_FAILURE_TIMER).stop(start);
+			LoginTracing.end(tracing);
+		}
 	}
 
 	/**
-	 * Create email template.
+	 * Create code email. The email is rendered once per realm, theme and locale, then only the code is substituted.
 	 *
 	 * @param context {@link AuthenticationFlowContext}
 	 * @param user {@link UserModel}
+	 * @param code generated code
+	 * @return {@link EmailTemplate}
+	 * @throws EmailException template creation error
+	 */
+	private EmailTemplate createCodeEmail(final AuthenticationFlowContext context, final UserModel user, final String code) throws EmailException {
+		final long start = System.nanoTime();
+		final Theme theme;
+		try {
+			theme = context.getSession().theme().getTheme(Theme.Type.EMAIL);
+		} catch (final IOException e) {
+			throw new EmailException("Failed to load email theme", e);
+		}
+		final Locale locale = context.getSession().getContext().resolveLocale(user);
+		final Map<String, String> localizationTexts = context.getRealm().getRealmLocalizationTextsByLocale(locale.toLanguageTag());
+		final String key = EmailTemplateCache.key(context.getRealm().getId(), theme.getName(), locale, localizationTexts);
+
+		final EmailTemplate cached = templateCache.get(key, code);
+		if (cached != null) {
+			TEMPLATE_CACHED_TIMER.stop(start);
+			return cached;
+		}
+
+		final Map<String, Object> attributes = new HashMap<>();
+		attributes.put("code", EmailTemplateCache.CODE_PLACEHOLDER);
+		final EmailTemplate template = processTemplate(context.getSession(), theme, locale, localizationTexts, EMAIL_SUBJECT, new ArrayList<>(), EMAIL_TEMPLATE, attributes);
+		if (templateCache.put(key, template)) {
+			TEMPLATE_RENDERED_TIMER.stop(start);
+			return EmailTemplateCache.substitute(template, code);
+		}
+
+		// the template does not print the code as it is, render it with the real code
+		attributes.put("code", code);
+		final EmailTemplate rendered = processTemplate(context.getSession(), theme, locale, localizationTexts, EMAIL_SUBJECT, new ArrayList<>(), EMAIL_TEMPLATE, attributes);
+		TEMPLATE_RENDERED_TIMER.stop(start);
+		return rendered;
+	}
+
+	/**
+	 * Create email template.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param theme email theme
+	 * @param locale user locale
+	 * @param localizationTexts realm localization texts
 	 * @param subjectKey subject key
 	 * @param subjectAttributes subject attributes
 	 * @param template template
@@ -166,14 +365,14 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 	 * @return {@link EmailTemplate}
 	 * @throws EmailException template creation error
 	 */
-	private EmailTemplate processTemplate(final AuthenticationFlowContext context, final UserModel user, final String subjectKey, final List<Object> subjectAttributes, final String template, final Map<String, Object> attributes)
-			throws EmailException {
+	private EmailTemplate processTemplate(final KeycloakSession session, final Theme theme, final Locale locale, final Map<String, String> localizationTexts, final String subjectKey,
+			final List<Object> subjectAttributes, final String template, final Map<String, Object> attributes) throws EmailException {
+		final TracingProvider tracing = LoginTracing.start(session, LoginTracing.PROCESS_TEMPLATE);
 		try {
-			final Theme theme = context.getSession().theme().getTheme(Theme.Type.EMAIL);
-			final Locale locale = context.getSession().getContext().resolveLocale(user);
 			attributes.put("locale", locale);
-			final Properties rb = theme.getMessages(locale);
-			final Map<String, String> localizationTexts = context.getRealm().getRealmLocalizationTextsByLocale(locale.toLanguageTag());
+			// copy, the theme messages are shared and must not be modified
+			final Properties rb = new Properties();
+			rb.putAll(theme.getMessages(locale));
 			rb.putAll(localizationTexts);
 			attributes.put("msg", new MessageFormatterMethod(locale, rb));
 			attributes.put("properties", theme.getProperties());
@@ -195,20 +394,39 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 
 			return new EmailTemplate(subject, textBody, htmlBody);
 		} catch (final Exception e) {
+			LoginTracing.error(tracing, e);
 			throw new EmailException("Failed to template email", e);
+		} finally {
+			LoginTracing.end(tracing);
 		}
 	}
 
 	/**
-	 * Error response.
+	 * Restart the login flow, the error message is shown on the login form.
 	 *
 	 * @param context login flow context
 	 * @param message error message
-	 * @return {@link Response}
+	 * @param parameters message parameters
 	 */
-	private Response returnFailure(final AuthenticationFlowContext context, final String message) {
-		context.fork();
-		return context.form().setError(message).createForm(FORM_FTL_EMAIL_CODE);
+	private void returnFailure(final AuthenticationFlowContext context, final String message, final Object... parameters) {
+		context.forkWithErrorMessage(new FormMessage(message, parameters));
+	}
+
+	/**
+	 * Fail the login if the authenticator config is invalid, the codes are not checked with other limits than the administrator set.
+	 *
+	 * @param context login flow context
+	 * @param config authenticator config
+	 * @return true - the config is invalid and the failure response is set / otherwise false
+	 */
+	private boolean isMisconfigured(final AuthenticationFlowContext context, final EmailCodeAuthenticatorConfig config) {
+		if (config.isValid()) {
+			return false;
+		}
+		log.errorf("Authenticator config %s is invalid, login failed: %s", context.getAuthenticatorConfig().getAlias(), config.getErrors());
+		context.getEvent().detail(Details.REASON, "invalid_authenticator_config").error(Errors.INVALID_CONFIG);
+		context.failure(AuthenticationFlowError.INTERNAL_ERROR, context.form().setError(Messages.INTERNAL_SERVER_ERROR).createErrorPage(Response.Status.INTERNAL_SERVER_ERROR));
+		return true;
 	}
 
 	@Override
@@ -216,11 +434,60 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 		final MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
 
 		final AuthenticationSessionModel session = context.getAuthenticationSession();
-		final String code = session.getAuthNote(EmailCodeAuthenticatorFactory.CODE);
-		final String ttl = session.getAuthNote(EmailCodeAuthenticatorFactory.CODE_TTL);
+		final String codeKey = session.getAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY);
 		final String enteredCode = formData.getFirst(FTL_CODE_NAME);
 
-		if (code == null || !code.equals(enteredCode)) {
+		final EmailCodeAuthenticatorConfig config = configCache.get(context.getAuthenticatorConfig());
+		if (isMisconfigured(context, config)) {
+			return;
+		}
+		if (formData.containsKey(RESEND)) {
+			resendCode(context, config);
+			return;
+		}
+
+		if (session.getAuthNote(CODE_LOCKED_NOTE) != null) {
+			// the code was locked by too many attempts, further guesses do not touch the code store, the themed form offers a new code
+			SESSION_LOCKED_TIMER.record(0);
+			context.getEvent().detail(Details.REASON, "too_many_attempts").error(Errors.INVALID_CODE);
+			context.failureChallenge(AuthenticationFlowError.INVALID_CREDENTIALS, context.form().setStatus(Response.Status.TOO_MANY_REQUESTS).setError(CODE_EXPIRED).createForm(FORM_FTL_EMAIL_CODE));
+			return;
+		}
+
+		if (session.getAuthNote(AsyncEmailSender.SEND_FAILED_NOTE) != null) {
+			// the code email sent in the background was not delivered, the entered code cannot be right, a new code is sent and the user stays on the code form
+			log.warnf("Second factor code email to %s was not sent, sending a new code", context.getUser().getEmail());
+			session.removeAuthNote(AsyncEmailSender.SEND_FAILED_NOTE);
+			removeCode(context, codeKey);
+			context.getEvent().error(Errors.EMAIL_SEND_FAILED);
+			if (sendCode(context, context.getUser(), config, null, null, true)) {
+				context.challenge(context.form().setInfo(CODE_RESENT).createForm(FORM_FTL_EMAIL_CODE));
+			}
+			return;
+		}
+
+		final long verifyStart = System.nanoTime();
+		final OtpCodeStore.Result result = codeKey == null ? OtpCodeStore.Result.INVALID : codeStore.verify(context.getSession(), codeKey, enteredCode, config.getMaxAttempts());
+		VERIFY_TIMERS.get(result).stop(verifyStart);
+		switch (result) {
+		case VALID:
+			break;
+		case EXPIRED:
+			// expired codes are evicted by the cache
+			log.debugf("Second factor code - user email %s, code %s - expired", context.getUser().getEmail(), enteredCode);
+			removeCode(context, codeKey);
+			context.getEvent().error(Errors.EXPIRED_CODE);
+			context.failureChallenge(AuthenticationFlowError.EXPIRED_CODE, emailCodeExpired(context));
+			return;
+		case LOCKED:
+			// the code was removed, the user has to request a new one as if the code expired
+			log.warnf("Verify second factor code - user email %s - too many attempts", context.getUser().getEmail());
+			removeCode(context, codeKey);
+			session.setAuthNote(CODE_LOCKED_NOTE, Boolean.TRUE.toString());
+			context.getEvent().detail(Details.REASON, "too_many_attempts").error(Errors.INVALID_CODE);
+			context.failureChallenge(AuthenticationFlowError.INVALID_CREDENTIALS, emailCodeExpired(context));
+			return;
+		default:
 			log.debugf("Verify second factor code - user email %s, code %s - bad", context.getUser().getEmail(), enteredCode);
 			context.getEvent().error(Errors.INVALID_CODE);
 			final Response challenge = invalidEmailCode(context);
@@ -228,22 +495,29 @@ public class EmailCodeAuthenticator extends AbstractLoginFormAuthenticator imple
 			return;
 		}
 		log.debugf("Verify second factor code - user email %s, code %s - correct", context.getUser().getEmail(), enteredCode);
-		if (Long.parseLong(ttl) < System.currentTimeMillis()) {
-			// expired
-			log.debugf("Second factor code - user email %s, code %s - expired", context.getUser().getEmail(), enteredCode);
-			context.getEvent().error(Errors.EXPIRED_CODE);
-			final Response challenge = emailCodeExpired(context);
-			context.failureChallenge(AuthenticationFlowError.EXPIRED_CODE, challenge);
-			return;
-		}
 		// valid
-		context.getAuthenticationSession().removeAuthNote(EmailCodeAuthenticatorFactory.CODE);
-		if (context.getUser().getFirstAttribute(SKIP_MFA_ATTR) == null || !context.getUser().getFirstAttribute(SKIP_MFA_ATTR).equals("true")) {
+		session.removeAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY);
+		loginCounter.reset(context.getSession(), context.getRealm(), context.getUser());
+		if (context.getUser().getFirstAttribute(NUMBER_OF_LOGIN_ATTR) != null) {
+			// counter of the previous versions, stored in the user
 			context.getUser().removeAttribute(NUMBER_OF_LOGIN_ATTR);
 		}
 		context.success();
 	}
 
+	/**
+	 * Remove the code from the store and from the authentication session.
+	 *
+	 * @param context {@link AuthenticationFlowContext}
+	 * @param codeKey code key, may be null
+	 */
+	private void removeCode(final AuthenticationFlowContext context, final String codeKey) {
+		if (codeKey != null) {
+			codeStore.remove(context.getSession(), codeKey);
+		}
+		context.getAuthenticationSession().removeAuthNote(EmailCodeAuthenticatorFactory.CODE_KEY);
+	}
+
 	/**
 	 * Create an email code verification form.
 	 *
@@ -1,17 +1,34 @@
 package cz.integsoft.keycloak.browser.authenticator;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 
+import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
 import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.provider.ProviderConfigProperty;
 
+import cz.integsoft.keycloak.browser.authenticator.config.AuthenticatorPropertiesLoader;
+import cz.integsoft.keycloak.browser.authenticator.config.EmailCodeAuthenticatorConfigCache;
+import cz.integsoft.keycloak.browser.authenticator.email.AsyncEmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.EmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.EmailTemplateCache;
+import cz.integsoft.keycloak.browser.authenticator.email.KeycloakEmailSender;
+import cz.integsoft.keycloak.browser.authenticator.email.PooledSmtpEmailSender;
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.ClusterRateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.LocalRateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.OtpSendLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.RateLimit;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.RateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.store.LoginCounterStore;
+import cz.integsoft.keycloak.browser.authenticator.store.OtpCodeStore;
+
 /**
  * Factory for authenticator sending and checking the generated code sent by email.
  *
@@ -19,42 +36,105 @@ import org.keycloak.provider.ProviderConfigProperty;
  */
 public class EmailCodeAuthenticatorFactory implements AuthenticatorFactory {
 
+	private static Logger logger = Logger.getLogger(EmailCodeAuthenticatorFactory.class);
+
 	public static final String PROVIDER_ID = "email-code-authenticator";
-	public static final String CODE = "emailCode";
+	public static final String CODE_KEY = "emailCodeKey";
 	public static final String CODE_LENGTH = "length";
 	public static final int DEFAULT_LENGTH = 4;
 	public static final String LOGIN_COUNT = "loginCount";
 	public static final int DEFAULT_LOGIN_COUNT = 1;
 	public static final String CODE_TTL = "ttl";
 	public static final int DEFAULT_TTL = 300;
+	public static final String MAX_ATTEMPTS = "maxAttempts";
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	public static final String RESEND_COOLDOWN = "resendCooldown";
+	public static final int DEFAULT_RESEND_COOLDOWN = 30;
+	public static final String ASYNC_SEND = "asyncSend";
+	public static final String SKIP_MFA_CLIENTS = "skipMfaClients";
+	public static final String SKIP_MFA_CLIENT_SCOPES = "skipMfaClientScopes";
+	public static final String SKIP_MFA_ROLES = "skipMfaRoles";
+
+	private static final int DEFAULT_SENDER_THREADS = 4;
+	private static final int DEFAULT_SENDER_MAX_PENDING = 1000;
+	private static final int DEFAULT_SMTP_POOL_MAX_IDLE = 4;
+	private static final long DEFAULT_SMTP_POOL_IDLE_TIMEOUT_MILLIS = 60000L;
+	private static final long DEFAULT_LOGIN_COUNTER_LIFESPAN_SECONDS = 7776000L;
+	private static final int DEFAULT_USER_RATE_CAPACITY = 5;
+	private static final int DEFAULT_USER_RATE_PER_HOUR = 20;
+	private static final int DEFAULT_IP_RATE_CAPACITY = 30;
+	private static final int DEFAULT_IP_RATE_PER_HOUR = 300;
 
 	private static final AuthenticationExecutionModel.Requirement[] REQUIREMENT_CHOICES = { AuthenticationExecutionModel.Requirement.REQUIRED, AuthenticationExecutionModel.Requirement.DISABLED };
 
-	private static final Properties PROP = new Properties();
+	private static final EmailCodeAuthenticatorConfigCache CONFIG_CACHE = new EmailCodeAuthenticatorConfigCache();
+
+	private static final EmailTemplateCache TEMPLATE_CACHE = new EmailTemplateCache();
+
+	private AuthenticatorPropertiesLoader properties;
+
+	private LoginCounterStore loginCounter;
+
+	private final OtpCodeStore codeStore = new OtpCodeStore();
+
+	private OtpSendLimiter sendLimiter;
+
+	private EmailSender smtpSender;
+
+	private AsyncEmailSender emailSender;
 
 	@Override
 	public Authenticator create(final KeycloakSession session) {
-		try {
-			PROP.load(this.getClass().getClassLoader().getResourceAsStream("META-INF/authenticator.properties"));
-		} catch (final IOException e) {
-			throw new RuntimeException(e);
-		}
-
-		return new EmailCodeAuthenticator(session, PROP);
+		return new EmailCodeAuthenticator(session, properties.get(), CONFIG_CACHE, loginCounter, codeStore, sendLimiter, TEMPLATE_CACHE, emailSender, smtpSender);
 	}
 
 	@Override
 	public void init(final Config.Scope config) {
+		properties = new AuthenticatorPropertiesLoader(config);
+		properties.startWatching();
+		loginCounter = new LoginCounterStore(config.getLong("loginCounterLifespanSeconds", DEFAULT_LOGIN_COUNTER_LIFESPAN_SECONDS));
+		final RateLimiter rateLimiter = "local".equals(config.get("otpRateLimiter", "cluster")) ? new LocalRateLimiter() : new ClusterRateLimiter();
+		sendLimiter = new OtpSendLimiter(rateLimiter,
+				RateLimit.of(config.getInt("otpRateLimitUserCapacity", DEFAULT_USER_RATE_CAPACITY), config.getInt("otpRateLimitUserPerHour", DEFAULT_USER_RATE_PER_HOUR)),
+				RateLimit.of(config.getInt("otpRateLimitEmailCapacity", DEFAULT_USER_RATE_CAPACITY), config.getInt("otpRateLimitEmailPerHour", DEFAULT_USER_RATE_PER_HOUR)),
+				RateLimit.of(config.getInt("otpRateLimitIpCapacity", DEFAULT_IP_RATE_CAPACITY), config.getInt("otpRateLimitIpPerHour", DEFAULT_IP_RATE_PER_HOUR)));
+		if (config.getBoolean("smtpPool", false)) {
+			smtpSender = new PooledSmtpEmailSender(config.getInt("smtpPoolMaxIdle", DEFAULT_SMTP_POOL_MAX_IDLE), config.getLong("smtpPoolIdleTimeoutMillis", DEFAULT_SMTP_POOL_IDLE_TIMEOUT_MILLIS));
+		} else {
+			smtpSender = new KeycloakEmailSender();
+		}
+		emailSender = new AsyncEmailSender(smtpSender, config.getInt("emailSenderThreads", DEFAULT_SENDER_THREADS), config.getInt("emailSenderMaxPending", DEFAULT_SENDER_MAX_PENDING));
 	}
 
 	@Override
 	public void postInit(final KeycloakSessionFactory factory) {
-
+		AuthenticatorMetrics.getInstance().register();
+		// validate the stored configurations at startup instead of at the first login, each invalid configuration is logged by the cache
+		try {
+			final List<String> invalid = new ArrayList<>();
+			KeycloakModelUtils.runJobInTransaction(factory, session -> session.realms().getRealmsStream().forEach(realm -> realm.getAuthenticationFlowsStream()
+					.flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId())).filter(execution -> PROVIDER_ID.equals(execution.getAuthenticator()) && execution.getAuthenticatorConfig() != null)
+					.map(execution -> realm.getAuthenticatorConfigById(execution.getAuthenticatorConfig())).filter(model -> !CONFIG_CACHE.get(model).isValid())
+					.forEach(model -> invalid.add(realm.getName() + '/' + model.getAlias()))));
+			if (!invalid.isEmpty()) {
+				logger.errorf("Invalid email code authenticator configurations %s, logins through them fail until they are fixed", invalid);
+			}
+		} catch (final RuntimeException e) {
+			logger.warn("Unable to validate email code authenticator configurations", e);
+		}
 	}
 
 	@Override
 	public void close() {
-
+		if (emailSender != null) {
+			emailSender.close();
+		}
+		if (smtpSender != null) {
+			smtpSender.close();
+		}
+		if (properties != null) {
+			properties.close();
+		}
 	}
 
 	@Override
@@ -81,7 +161,18 @@ public class EmailCodeAuthenticatorFactory implements AuthenticatorFactory {
 	public List<ProviderConfigProperty> getConfigProperties() {
 		return List.of(new ProviderConfigProperty(CODE_LENGTH, "Code length", "The number of digits of the generated code.", ProviderConfigProperty.STRING_TYPE, String.valueOf(DEFAULT_LENGTH)),
 				new ProviderConfigProperty(LOGIN_COUNT, "Login count for OTP check", "The number of logins at which the OTP check is triggered.", ProviderConfigProperty.STRING_TYPE, String.valueOf(DEFAULT_LOGIN_COUNT)),
-				new ProviderConfigProperty(CODE_TTL, "Time to live", "The time to live in seconds for the code to be valid.", ProviderConfigProperty.STRING_TYPE, String.valueOf(DEFAULT_TTL)));
+				new ProviderConfigProperty(CODE_TTL, "Time to live", "The time to live in seconds for the code to be valid.", ProviderConfigProperty.STRING_TYPE, String.valueOf(DEFAULT_TTL)),
+				new ProviderConfigProperty(MAX_ATTEMPTS, "Max attempts", "The number of attempts to enter the code, the code is invalidated after the last one.", ProviderConfigProperty.STRING_TYPE,
+						String.valueOf(DEFAULT_MAX_ATTEMPTS)),
+				new ProviderConfigProperty(RESEND_COOLDOWN, "Resend cooldown", "The time in seconds after which the user may request the code again. A valid code is sent again, otherwise a new one.",
+						ProviderConfigProperty.STRING_TYPE, String.valueOf(DEFAULT_RESEND_COOLDOWN)),
+				new ProviderConfigProperty(ASYNC_SEND, "Send email asynchronously", "Send the code email in the background and show the code form immediately. A failed send is reported on the code form.",
+						ProviderConfigProperty.BOOLEAN_TYPE, "false"),
+				new ProviderConfigProperty(SKIP_MFA_CLIENTS, "Skip OTP for clients", "Client ids skipping the OTP check, * matches any characters. Compared case insensitively.",
+						ProviderConfigProperty.MULTIVALUED_STRING_TYPE, null),
+				new ProviderConfigProperty(SKIP_MFA_CLIENT_SCOPES, "Skip OTP for client scopes", "Clients having one of the client scopes skip the OTP check.", ProviderConfigProperty.MULTIVALUED_STRING_TYPE, null),
+				new ProviderConfigProperty(SKIP_MFA_ROLES, "Skip OTP for roles", "Users having one of the roles skip the OTP check. Client roles are written as clientId.role.",
+						ProviderConfigProperty.MULTIVALUED_STRING_TYPE, null));
 	}
 
 	@Override
@@ -4,7 +4,7 @@ import java.net.URI;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,6 +26,7 @@ import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.Constants;
 import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.IdentityProviderStorageProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
@@ -45,6 +46,10 @@ import org.keycloak.userprofile.UserProfileContext;
 import org.keycloak.userprofile.UserProfileProvider;
 import org.keycloak.userprofile.ValidationException;
 
+import cz.integsoft.keycloak.browser.authenticator.config.DomainPolicy;
+import cz.integsoft.keycloak.browser.authenticator.config.DomainPolicyCache;
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
 import jakarta.ws.rs.core.MultivaluedHashMap;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.UriBuilder;
@@ -61,7 +66,6 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 	public static final String PROVIDER_ID = "mbta-registration-user-creation";
 
 	private static final String REGISTRATION_FORBIDDEN_EMAIL = "registration.forbidden.email";
-	private static final String EMAIL_MBTA_DOMAIN = "@mbta.com";
 	private static final String REGISTRATION_BAD_MOBILE_FORMAT = "registration.bad.format.phone_number";
 	private static final String REGISTRATION_FORM_NAME_MOBILE_AREA_CODE = "user.attributes.areacode";
 	private static final String REGISTRATION_FORM_NAME_MOBILE_PHONE = "user.attributes.phone_number";
@@ -69,6 +73,9 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 
 	protected static final String FIELD = "termsAccepted";
 
+	private static final StepTimer VALIDATE_SUCCESS_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.REGISTRATION_VALIDATE, AuthenticatorMetrics.TAG_OUTCOME, "success");
+	private static final StepTimer VALIDATE_ERROR_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.REGISTRATION_VALIDATE, AuthenticatorMetrics.TAG_OUTCOME, "error");
+
 	@Override
 	public String getHelpText() {
 		return "This action must always be first! Validates the username of the user in validation phase.  In success phase, this will create the user in the database.";
@@ -81,6 +88,18 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 
 	@Override
 	public void validate(final ValidationContext context) {
+		final long start = System.nanoTime();
+		final boolean valid = validateForm(context);
+		(valid ? VALIDATE_SUCCESS_TIMER : VALIDATE_ERROR_TIMER).stop(start);
+	}
+
+	/**
+	 * Validate the registration form.
+	 *
+	 * @param context {@link ValidationContext}
+	 * @return true - the form is valid / otherwise false
+	 */
+	private boolean validateForm(final ValidationContext context) {
 		final MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
 		trimPhone(formData);
 		context.getEvent().detail(Details.REGISTER_METHOD, "form");
@@ -93,7 +112,7 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 		if ((token != null && !token.equals(String.valueOf(LocalDate.now().getYear())) || robot != null)) {
 			errors.add(new FormMessage(null, "login.error.robot"));
 			context.validationError(formData, errors);
-			return;
+			return false;
 		}
 
 		if (termsOfUse == null || !termsOfUse.equals("on")) {
@@ -123,10 +142,11 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 		final String mobileAreaCode = formData.getFirst(REGISTRATION_FORM_NAME_MOBILE_AREA_CODE);
 		final String mobileNumber = formData.getFirst(REGISTRATION_FORM_NAME_MOBILE_PHONE);
 
-		if (email != null && email.toLowerCase(Locale.US).contains(EMAIL_MBTA_DOMAIN)) {
-			final IdentityProviderModel idpm = getFirstIdentityProvider(context);
-			final String loginUrl = Urls.identityProviderAuthnRequest(prepareBaseUriBuilder(context), idpm.getAlias(), context.getRealm().getName()).toString();
-			errors.add(new FormMessage(UserModel.EMAIL, REGISTRATION_FORBIDDEN_EMAIL, idpm != null ? loginUrl : ""));
+		final DomainPolicy.Rule blockedDomain = DomainPolicyCache.getInstance().get(context.getRealm()).match(email);
+		if (blockedDomain != null) {
+			final IdentityProviderModel idpm = getIdentityProvider(context, blockedDomain);
+			final String loginUrl = idpm != null ? Urls.identityProviderAuthnRequest(prepareBaseUriBuilder(context), idpm.getAlias(), context.getRealm().getName()).toString() : "";
+			errors.add(new FormMessage(UserModel.EMAIL, REGISTRATION_FORBIDDEN_EMAIL, loginUrl));
 		}
 		if (mobileNumber != null && !mobileNumber.isBlank()) {
 			final Pattern p = Pattern.compile("^\\+[1-9]\\d{10}$");
@@ -140,7 +160,7 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 
 		if (!errors.isEmpty()) {
 			context.validationError(formData, errors);
-			return;
+			return false;
 		}
 
 		try {
@@ -174,12 +194,13 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 				errors.add(new FormMessage("lastName", "missingLastNameMessage"));
 			}
 			context.validationError(formData, errors);
-			return;
+			return false;
 		}
 		if (mobileNumber != null && !mobileNumber.isBlank()) {
 			context.getEvent().detail("mobileNumber", mobileAreaCode + mobileNumber);
 		}
 		context.success();
+		return true;
 	}
 
 	private void trimPhone(final MultivaluedMap<String, String> formData) {
@@ -204,13 +225,22 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 	}
 
 	/**
-	 * Find first identity provider.
+	 * Find identity provider of the blocked domain, the first identity provider if the domain has none.
 	 *
 	 * @param context {@link ValidationContext}
+	 * @param blockedDomain rule of the blocked domain
 	 * @return provider model or null
 	 */
-	private IdentityProviderModel getFirstIdentityProvider(final ValidationContext context) {
-		return context.getRealm().getIdentityProvidersStream().findFirst().orElse(null);
+	private IdentityProviderModel getIdentityProvider(final ValidationContext context, final DomainPolicy.Rule blockedDomain) {
+		final IdentityProviderStorageProvider identityProviders = context.getSession().identityProviders();
+		if (blockedDomain.getIdentityProvider() != null) {
+			final IdentityProviderModel idpm = identityProviders.getByAlias(blockedDomain.getIdentityProvider());
+			if (idpm != null) {
+				return idpm;
+			}
+			logger.warnf("Identity provider %s of the blocked domain %s does not exist", blockedDomain.getIdentityProvider(), blockedDomain.getDomain());
+		}
+		return identityProviders.getAllStream(Map.of(), 0, 1).findFirst().orElse(null);
 	}
 
 	@Override
@@ -324,7 +354,7 @@ public class RegistrationUserCreation implements FormAction, FormActionFactory {
 
 	@Override
 	public void postInit(final KeycloakSessionFactory factory) {
-
+		AuthenticatorMetrics.getInstance().register();
 	}
 
 	@Override
@@ -1,7 +1,6 @@
 package cz.integsoft.keycloak.browser.authenticator;
 
 import java.util.List;
-import java.util.Locale;
 
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
@@ -25,6 +24,7 @@ import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.services.messages.Messages;
 import org.keycloak.services.validation.Validation;
 
+import cz.integsoft.keycloak.browser.authenticator.config.DomainPolicyCache;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 
@@ -34,8 +34,6 @@ public class ResetCredentialChooseUser implements Authenticator, AuthenticatorFa
 
 	public static final String PROVIDER_ID = "mbta-reset-credentials-choose-user";
 
-	private static final String EMAIL_MBTA_DOMAIN = "@mbta.com";
-
 	private static final String RESET_PASSWORD_FORBIDDEN = "resetpassword.forbidden";
 
 	@Override
@@ -81,7 +79,7 @@ public class ResetCredentialChooseUser implements Authenticator, AuthenticatorFa
 
 		username = username.trim();
 
-		if (username.toLowerCase(Locale.US).contains(EMAIL_MBTA_DOMAIN)) {
+		if (DomainPolicyCache.getInstance().get(context.getRealm()).isBlocked(username)) {
 			final Response challenge = context.form().addError(new FormMessage(Validation.FIELD_USERNAME, RESET_PASSWORD_FORBIDDEN)).createPasswordReset();
 			context.failureChallenge(AuthenticationFlowError.INVALID_USER, challenge);
 			return;
@@ -0,0 +1,99 @@
+package cz.integsoft.keycloak.browser.authenticator;
+
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import cz.integsoft.keycloak.browser.authenticator.store.UnknownUserCache;
+
+/**
+ * Removes the username and email of the registered, created or updated user from the {@link UnknownUserCache}. The entries are removed at once and again after the transaction, so a login running
+ * before the user is committed does not cache the username again.
+ *
+ * @author integsoft
+ */
+public class UnknownUserEventListener implements EventListenerProvider {
+
+	private static Logger logger = Logger.getLogger(UnknownUserEventListener.class);
+
+	private static final Set<EventType> USER_EVENTS = Set.of(EventType.REGISTER, EventType.IDENTITY_PROVIDER_FIRST_LOGIN, EventType.UPDATE_PROFILE, EventType.UPDATE_EMAIL, EventType.UPDATE_CREDENTIAL);
+
+	private static final String USERS_PATH = "users/";
+
+	private final KeycloakSession session;
+
+	private final UnknownUserCache unknownUsers;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param unknownUsers cache of the unknown usernames
+	 */
+	public UnknownUserEventListener(final KeycloakSession session, final UnknownUserCache unknownUsers) {
+		this.session = session;
+		this.unknownUsers = unknownUsers;
+	}
+
+	@Override
+	public void onEvent(final Event event) {
+		if (USER_EVENTS.contains(event.getType()) && event.getUserId() != null) {
+			removeUser(event.getRealmId(), event.getUserId());
+		}
+	}
+
+	@Override
+	public void onEvent(final AdminEvent event, final boolean includeRepresentation) {
+		if (event.getResourceType() != ResourceType.USER || event.getOperationType() != OperationType.CREATE && event.getOperationType() != OperationType.UPDATE) {
+			return;
+		}
+		final String path = event.getResourcePath();
+		if (path != null && path.startsWith(USERS_PATH) && path.indexOf('/', USERS_PATH.length()) < 0) {
+			removeUser(event.getRealmId(), path.substring(USERS_PATH.length()));
+		}
+	}
+
+	private void removeUser(final String realmId, final String userId) {
+		final RealmModel realm = session.realms().getRealm(realmId);
+		final UserModel user = realm == null ? null : session.users().getUserById(realm, userId);
+		if (user == null) {
+			return;
+		}
+		final String username = user.getUsername();
+		final String email = user.getEmail();
+		logger.debugf("Removing user %s from unknown usernames of realm %s", userId, realmId);
+		remove(realmId, username, email);
+		session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+
+			@Override
+			protected void commitImpl() {
+				remove(realmId, username, email);
+			}
+
+			@Override
+			protected void rollbackImpl() {
+
+			}
+		});
+	}
+
+	private void remove(final String realmId, final String username, final String email) {
+		unknownUsers.remove(realmId, username);
+		unknownUsers.remove(realmId, email);
+	}
+
+	@Override
+	public void close() {
+
+	}
+}
@@ -0,0 +1,73 @@
+package cz.integsoft.keycloak.browser.authenticator;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import cz.integsoft.keycloak.browser.authenticator.store.UnknownUserCache;
+
+/**
+ * Factory of the global listener keeping the unknown usernames of {@link UsernamePasswordForm} up to date. The listener receives the events of all realms, it does not have to be enabled in the realm.
+ *
+ * @author integsoft
+ */
+public class UnknownUserEventListenerFactory implements EventListenerProviderFactory {
+
+	public static final String PROVIDER_ID = "mbta-unknown-user-cache";
+
+	private static final EventListenerProvider NOOP = new EventListenerProvider() {
+
+		@Override
+		public void onEvent(final Event event) {
+
+		}
+
+		@Override
+		public void onEvent(final AdminEvent event, final boolean includeRepresentation) {
+
+		}
+
+		@Override
+		public void close() {
+
+		}
+	};
+
+	private UnknownUserCache unknownUsers;
+
+	@Override
+	public EventListenerProvider create(final KeycloakSession session) {
+		return unknownUsers == null ? NOOP : new UnknownUserEventListener(session, unknownUsers);
+	}
+
+	@Override
+	public void init(final Config.Scope config) {
+
+	}
+
+	@Override
+	public void postInit(final KeycloakSessionFactory factory) {
+		final UsernamePasswordFormFactory formFactory = (UsernamePasswordFormFactory) factory.getProviderFactory(Authenticator.class, UsernamePasswordFormFactory.PROVIDER_ID);
+		unknownUsers = formFactory == null ? null : formFactory.getUnknownUserCache();
+	}
+
+	@Override
+	public boolean isGlobal() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+	@Override
+	public String getId() {
+		return PROVIDER_ID;
+	}
+}
@@ -3,7 +3,7 @@ package cz.integsoft.keycloak.browser.authenticator;
 import static org.keycloak.services.validation.Validation.FIELD_PASSWORD;
 import static org.keycloak.services.validation.Validation.FIELD_USERNAME;
 
-import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -19,6 +19,7 @@ import org.keycloak.models.ModelException;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserCredentialModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.models.utils.FormMessage;
 import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
@@ -27,8 +28,18 @@ import org.keycloak.services.ServicesLogger;
 import org.keycloak.services.managers.AuthenticationManager;
 import org.keycloak.services.messages.Messages;
 import org.keycloak.services.validation.Validation;
-import org.springframework.security.crypto.bcrypt.BCrypt;
-
+import org.keycloak.tracing.TracingProvider;
+
+import cz.integsoft.keycloak.browser.authenticator.config.DomainPolicyCache;
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
+import cz.integsoft.keycloak.browser.authenticator.password.BCryptPasswordHashProvider;
+import cz.integsoft.keycloak.browser.authenticator.password.BCryptRehash;
+import cz.integsoft.keycloak.browser.authenticator.password.LegacyPasswordVerifier;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.LoginThrottle;
+import cz.integsoft.keycloak.browser.authenticator.store.UnknownUserCache;
+import cz.integsoft.keycloak.browser.authenticator.tracing.LoginTracing;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MultivaluedHashMap;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
@@ -42,10 +53,44 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 
 	private static Logger logger = Logger.getLogger(UsernamePasswordForm.class);
 
-	private static final String EMAIL_MBTA_DOMAIN = "@mbta.com";
-
 	private static final String MBTA_LOGIN_FORBIDDEN = "login.forbidden";
 
+	private static final String TRY_AGAIN_LATER = "login.tryAgainLater";
+
+	private static final String RETRY_AFTER_SECONDS = "5";
+
+	private static final String BCRYPT_ALGORITHM = '"' + BCryptPasswordHashProvider.ID + '"';
+
+	private static final StepTimer KEYCLOAK_PASSWORD_VALID = passwordTimer("keycloak", "valid");
+	private static final StepTimer KEYCLOAK_PASSWORD_INVALID = passwordTimer("keycloak", "invalid");
+	private static final StepTimer LEGACY_PASSWORD_VALID = passwordTimer("legacy", "valid");
+	private static final StepTimer LEGACY_PASSWORD_INVALID = passwordTimer("legacy", "invalid");
+	private static final StepTimer BCRYPT_PASSWORD_VALID = passwordTimer("bcrypt", "valid");
+	private static final StepTimer BCRYPT_PASSWORD_INVALID = passwordTimer("bcrypt", "invalid");
+
+	private final LegacyPasswordVerifier legacyVerifier;
+
+	private final BCryptRehash rehash;
+
+	private final UnknownUserCache unknownUsers;
+
+	private final LoginThrottle throttle;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param legacyVerifier verifier of the legacy BCrypt hashes
+	 * @param rehash re-hash of the BCrypt credentials after the login, null - the credentials stay BCrypt
+	 * @param unknownUsers cache of the unknown usernames, null - every username is looked up
+	 * @param throttle limits of the login attempts, null - the attempts are not limited
+	 */
+	public UsernamePasswordForm(final LegacyPasswordVerifier legacyVerifier, final BCryptRehash rehash, final UnknownUserCache unknownUsers, final LoginThrottle throttle) {
+		this.legacyVerifier = legacyVerifier;
+		this.rehash = rehash;
+		this.unknownUsers = unknownUsers;
+		this.throttle = throttle;
+	}
+
 	@Override
 	public void action(final AuthenticationFlowContext context) {
 		final MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
@@ -56,7 +101,16 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 
 		final String username = formData.getFirst(AuthenticationManager.FORM_USERNAME);
 
-		if (username != null && username.trim().toLowerCase(Locale.US).contains(EMAIL_MBTA_DOMAIN)) {
+		// before any user lookup or password hashing
+		if (throttle != null) {
+			final long wait = throttle.tryAcquire(context.getSession(), context.getRealm().getId(), username, context.getConnection().getRemoteAddr());
+			if (wait > 0) {
+				throttledHandler(context, username, wait);
+				return;
+			}
+		}
+
+		if (DomainPolicyCache.getInstance().get(context.getRealm()).isBlocked(username)) {
 			final Response challenge = context.form().addError(new FormMessage(Validation.FIELD_USERNAME, MBTA_LOGIN_FORBIDDEN)).createLoginUsernamePassword();
 			context.failureChallenge(AuthenticationFlowError.INVALID_USER, challenge);
 			return;
@@ -68,6 +122,18 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 	}
 
 	private boolean validatePassword(final AuthenticationFlowContext context, final MultivaluedMap<String, String> inputData) {
+		final TracingProvider tracing = LoginTracing.start(context.getSession(), LoginTracing.VALIDATE_PASSWORD);
+		try {
+			return checkPassword(context, inputData);
+		} catch (final RuntimeException e) {
+			LoginTracing.error(tracing, e);
+			throw e;
+		} finally {
+			LoginTracing.end(tracing);
+		}
+	}
+
+	private boolean checkPassword(final AuthenticationFlowContext context, final MultivaluedMap<String, String> inputData) {
 		context.clearUser();
 		final UserModel user = getUser(context, inputData);
 		// if the user has a "password" attribute, validate it. Remove "password" from attributes if valid.
@@ -77,28 +143,44 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 				if (user.getFirstAttribute(CredentialRepresentation.PASSWORD) != null) {
 					user.removeAttribute(CredentialRepresentation.PASSWORD);
 				}
-				return validateUserAndPassword(context, inputData) && validateUser(context, user, inputData);
+				final PasswordCredentialModel bcryptCredential = getBCryptCredential(user);
+				if (bcryptCredential != null) {
+					return validateBCryptPassword(context, user, inputData, bcryptCredential.getPasswordSecretData().getValue()) && validateUser(context, user, inputData);
+				}
+				final long start = System.nanoTime();
+				final boolean valid = validateUserAndPassword(context, inputData);
+				(valid ? KEYCLOAK_PASSWORD_VALID : KEYCLOAK_PASSWORD_INVALID).stop(start);
+				return valid && validateUser(context, user, inputData);
 			}
 			// if user has old hash type, we have to change it
-			String passwordHashAttribute = user.getFirstAttribute(CredentialRepresentation.PASSWORD);
+			final String passwordHashAttribute = user.getFirstAttribute(CredentialRepresentation.PASSWORD);
 			if (passwordHashAttribute == null) {
 				return badPasswordHandler(context, user, true, false);
 			}
-			if (passwordHashAttribute.startsWith("$2y$")) {
-				passwordHashAttribute = passwordHashAttribute.replace("$2y$", "$2a$");
-			}
 			final String password = inputData.getFirst(CredentialRepresentation.PASSWORD);
-			final boolean valid = BCrypt.checkpw(password, passwordHashAttribute);
+			final long start = System.nanoTime();
+			final LegacyPasswordVerifier.Result result = verifyBCrypt(context, password, passwordHashAttribute);
+			if (result == LegacyPasswordVerifier.Result.BUSY) {
+				return busyHandler(context);
+			}
+			final boolean valid = result == LegacyPasswordVerifier.Result.VALID;
+			(valid ? LEGACY_PASSWORD_VALID : LEGACY_PASSWORD_INVALID).stop(start);
 			logger.debugf("User %s attribut password valid: %s", user.getUsername(), valid);
 			if (!valid) {
 				return badPasswordHandler(context, user, true, false);
 			}
 			context.setUser(user);
 			// store the password in Keycloak
-			// we catch an exception if the password does not meet the password policy
+			// the hash is stored as it is, other hashes are hashed again and we catch an exception if the password does not meet the password policy
 			try {
-				user.credentialManager().updateCredential(UserCredentialModel.password(password));
-				user.removeAttribute(CredentialRepresentation.PASSWORD);
+				if (BCryptPasswordHashProvider.isHash(passwordHashAttribute)) {
+					user.credentialManager().createStoredCredential(BCryptPasswordHashProvider.credentialOf(passwordHashAttribute));
+					user.removeAttribute(CredentialRepresentation.PASSWORD);
+					scheduleRehash(context, user, password, passwordHashAttribute);
+				} else {
+					user.credentialManager().updateCredential(UserCredentialModel.password(password));
+					user.removeAttribute(CredentialRepresentation.PASSWORD);
+				}
 			} catch (final ModelException e) {
 				logger.infof("Password policy - unable to set password as Keycloak password of user %s.", user.getUsername());
 			}
@@ -107,6 +189,83 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 		return false;
 	}
 
+	/**
+	 * Validate the password of the user with the BCrypt credential imported from the legacy hash. The hash is verified by the verifier threads, Keycloak would verify it on the request thread and
+	 * hash the password again with the realm algorithm during the login.
+	 *
+	 * @param context {@link AuthenticationFlowContext}
+	 * @param user user
+	 * @param inputData form data
+	 * @param hash BCrypt hash of the credential
+	 * @return true - the password is valid
+	 */
+	private boolean validateBCryptPassword(final AuthenticationFlowContext context, final UserModel user, final MultivaluedMap<String, String> inputData, final String hash) {
+		final String password = inputData.getFirst(CredentialRepresentation.PASSWORD);
+		if (password == null || password.isEmpty()) {
+			return badPasswordHandler(context, user, true, true);
+		}
+		if (isDisabledByBruteForce(context, user)) {
+			return false;
+		}
+		final long start = System.nanoTime();
+		final LegacyPasswordVerifier.Result result = verifyBCrypt(context, password, hash);
+		if (result == LegacyPasswordVerifier.Result.BUSY) {
+			return busyHandler(context);
+		}
+		final boolean valid = result == LegacyPasswordVerifier.Result.VALID;
+		(valid ? BCRYPT_PASSWORD_VALID : BCRYPT_PASSWORD_INVALID).stop(start);
+		if (!valid) {
+			return badPasswordHandler(context, user, true, false);
+		}
+		context.getAuthenticationSession().setAuthNote(AuthenticationManager.PASSWORD_VALIDATED, "true");
+		scheduleRehash(context, user, password, hash);
+		return true;
+	}
+
+	private LegacyPasswordVerifier.Result verifyBCrypt(final AuthenticationFlowContext context, final String password, final String hash) {
+		final TracingProvider tracing = LoginTracing.start(context.getSession(), LoginTracing.BCRYPT_CHECK);
+		try {
+			return legacyVerifier.verify(password, hash);
+		} finally {
+			LoginTracing.end(tracing);
+		}
+	}
+
+	private void scheduleRehash(final AuthenticationFlowContext context, final UserModel user, final String password, final String hash) {
+		if (rehash != null) {
+			rehash.schedule(context.getSession(), user, password, hash);
+		}
+	}
+
+	private PasswordCredentialModel getBCryptCredential(final UserModel user) {
+		// parse the credential data of the BCrypt candidates only
+		return user.credentialManager().getStoredCredentialsByTypeStream(PasswordCredentialModel.TYPE).filter(stored -> stored.getCredentialData() != null && stored.getCredentialData().contains(BCRYPT_ALGORITHM))
+				.map(PasswordCredentialModel::createFromCredentialModel).filter(credential -> BCryptPasswordHashProvider.ID.equals(credential.getPasswordCredentialData().getAlgorithm())).findFirst()
+				.orElse(null);
+	}
+
+	// The password was not verified, ask the user to try again later. Not a failure, the brute force protection does not count it.
+	private boolean busyHandler(final AuthenticationFlowContext context) {
+		context.getEvent().detail(Details.REASON, "password_verifier_busy").error(Errors.SLOW_DOWN);
+		final Response challengeResponse = context.form().setStatus(Response.Status.SERVICE_UNAVAILABLE).setResponseHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+				.addError(new FormMessage(null, TRY_AGAIN_LATER)).createLoginUsernamePassword();
+		context.challenge(challengeResponse);
+		context.clearUser();
+		return false;
+	}
+
+	// Too many attempts from the client IP, its subnet or for the username. Not a failure, the brute force protection does not count it.
+	private void throttledHandler(final AuthenticationFlowContext context, final String username, final long waitMillis) {
+		if (username != null) {
+			context.getEvent().detail(Details.USERNAME, username.trim());
+		}
+		context.getEvent().detail(Details.REASON, "login_throttled").error(Errors.SLOW_DOWN);
+		final Response challengeResponse = context.form().setStatus(Response.Status.TOO_MANY_REQUESTS)
+				.setResponseHeader(HttpHeaders.RETRY_AFTER, Long.toString(TimeUnit.MILLISECONDS.toSeconds(waitMillis) + 1)).addError(new FormMessage(null, TRY_AGAIN_LATER))
+				.createLoginUsernamePassword();
+		context.challenge(challengeResponse);
+	}
+
 	// Set up AuthenticationFlowContext error.
 	private boolean badPasswordHandler(final AuthenticationFlowContext context, final UserModel user, final boolean clearUser, final boolean isEmptyPassword) {
 		context.getEvent().user(user);
@@ -139,10 +298,21 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 		context.getEvent().detail(Details.USERNAME, username);
 		context.getAuthenticationSession().setAuthNote(AbstractUsernameFormAuthenticator.ATTEMPTED_USERNAME, username);
 
+		// unknown usernames are not looked up again in the database and the user federation until the entry expires
+		if (unknownUsers != null && unknownUsers.isUnknown(context.getRealm(), username)) {
+			testInvalidUser(context, null);
+			return null;
+		}
+
 		UserModel user = null;
+		final TracingProvider tracing = LoginTracing.start(context.getSession(), LoginTracing.FIND_USER);
 		try {
 			user = KeycloakModelUtils.findUserByNameOrEmail(context.getSession(), context.getRealm(), username);
+			if (user == null && unknownUsers != null) {
+				unknownUsers.putUnknown(context.getRealm(), username);
+			}
 		} catch (final ModelDuplicateException mde) {
+			LoginTracing.error(tracing, mde);
 			ServicesLogger.LOGGER.modelDuplicateException(mde);
 
 			// Could happen during federation import
@@ -152,6 +322,8 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 				setDuplicateUserChallenge(context, Errors.USERNAME_IN_USE, Messages.USERNAME_EXISTS, AuthenticationFlowError.INVALID_USER);
 			}
 			return user;
+		} finally {
+			LoginTracing.end(tracing);
 		}
 
 		testInvalidUser(context, user);
@@ -227,6 +399,10 @@ public class UsernamePasswordForm extends AbstractUsernameFormAuthenticator impl
 		// never called
 	}
 
+	private static StepTimer passwordTimer(final String credential, final String outcome) {
+		return AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.PASSWORD_VERIFY, "credential", credential, AuthenticatorMetrics.TAG_OUTCOME, outcome);
+	}
+
 	@Override
 	public void close() {
 
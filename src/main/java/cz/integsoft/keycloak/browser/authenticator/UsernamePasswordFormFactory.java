@@ -1,7 +1,10 @@
 package cz.integsoft.keycloak.browser.authenticator;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
@@ -11,6 +14,17 @@ import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.provider.ProviderConfigProperty;
 
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.password.BCryptRehash;
+import cz.integsoft.keycloak.browser.authenticator.password.LegacyPasswordVerifier;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.ClusterRateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.IpRange;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.LocalRateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.LoginThrottle;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.RateLimit;
+import cz.integsoft.keycloak.browser.authenticator.ratelimit.RateLimiter;
+import cz.integsoft.keycloak.browser.authenticator.store.UnknownUserCache;
+
 /**
  * Factory for username password authenticator.
  *
@@ -18,27 +32,87 @@ import org.keycloak.provider.ProviderConfigProperty;
  */
 public class UsernamePasswordFormFactory implements AuthenticatorFactory {
 
+	private static Logger logger = Logger.getLogger(UsernamePasswordFormFactory.class);
+
 	public static final String PROVIDER_ID = "mbta-auth-username-password-form";
-	public static final UsernamePasswordForm SINGLETON = new UsernamePasswordForm();
+
+	private static final int DEFAULT_BCRYPT_MAX_QUEUED = 100;
+	private static final long DEFAULT_BCRYPT_TIMEOUT_MILLIS = 5000L;
+	private static final int DEFAULT_UNKNOWN_USER_CACHE_SIZE = 100000;
+	private static final long DEFAULT_UNKNOWN_USER_CACHE_SECONDS = 30L;
+	private static final int DEFAULT_LOGIN_IP_RATE_CAPACITY = 50;
+	private static final int DEFAULT_LOGIN_IP_RATE_PER_HOUR = 1000;
+	private static final int DEFAULT_LOGIN_SUBNET_RATE_CAPACITY = 300;
+	private static final int DEFAULT_LOGIN_SUBNET_RATE_PER_HOUR = 10000;
+	private static final int DEFAULT_LOGIN_USERNAME_RATE_CAPACITY = 10;
+	private static final int DEFAULT_LOGIN_USERNAME_RATE_PER_HOUR = 100;
+	private static final int DEFAULT_IPV4_SUBNET_PREFIX = 24;
+	private static final int DEFAULT_IPV6_SUBNET_PREFIX = 64;
+
+	private LegacyPasswordVerifier legacyVerifier;
+
+	private UnknownUserCache unknownUserCache;
+
+	private UsernamePasswordForm authenticator;
 
 	@Override
 	public Authenticator create(final KeycloakSession session) {
-		return SINGLETON;
+		return authenticator;
 	}
 
 	@Override
 	public void init(final Config.Scope config) {
+		legacyVerifier = new LegacyPasswordVerifier(config.getInt("bcryptThreads", Runtime.getRuntime().availableProcessors()), config.getInt("bcryptMaxQueued", DEFAULT_BCRYPT_MAX_QUEUED),
+				config.getLong("bcryptTimeoutMillis", DEFAULT_BCRYPT_TIMEOUT_MILLIS));
+		final int unknownUserCacheSize = config.getInt("unknownUserCacheSize", DEFAULT_UNKNOWN_USER_CACHE_SIZE);
+		final long unknownUserCacheSeconds = config.getLong("unknownUserCacheSeconds", DEFAULT_UNKNOWN_USER_CACHE_SECONDS);
+		// size or lifespan 0 disables the cache
+		unknownUserCache = unknownUserCacheSize > 0 && unknownUserCacheSeconds > 0 ? new UnknownUserCache(unknownUserCacheSize, TimeUnit.SECONDS.toMillis(unknownUserCacheSeconds)) : null;
+		authenticator = new UsernamePasswordForm(legacyVerifier, config.getBoolean("bcryptRehash", true) ? new BCryptRehash(legacyVerifier) : null, unknownUserCache, createThrottle(config));
+	}
+
+	private static LoginThrottle createThrottle(final Config.Scope config) {
+		// off by default, the buckets are keyed by the client address which is the address of the load balancer unless Keycloak trusts the proxy headers
+		if (!config.getBoolean("loginThrottle", false)) {
+			return null;
+		}
+		logger.warn("Login throttle is enabled, it limits by the client address of the request. Behind a load balancer or reverse proxy start Keycloak with --proxy-headers forwarded or xforwarded, "
+				+ "otherwise all users share the bucket of the proxy address and get 429 responses.");
+		// the local buckets cost no cluster round trip per attempt, the limits apply per node
+		final RateLimiter rateLimiter = "cluster".equals(config.get("loginRateLimiter", "local")) ? new ClusterRateLimiter() : new LocalRateLimiter();
+		final List<IpRange> allowList = new ArrayList<>();
+		final String[] ranges = config.getArray("loginAllowList");
+		if (ranges != null) {
+			for (final String range : ranges) {
+				if (!range.isBlank()) {
+					allowList.add(IpRange.parse(range));
+				}
+			}
+		}
+		return new LoginThrottle(rateLimiter,
+				RateLimit.of(config.getInt("loginRateLimitIpCapacity", DEFAULT_LOGIN_IP_RATE_CAPACITY), config.getInt("loginRateLimitIpPerHour", DEFAULT_LOGIN_IP_RATE_PER_HOUR)),
+				RateLimit.of(config.getInt("loginRateLimitSubnetCapacity", DEFAULT_LOGIN_SUBNET_RATE_CAPACITY), config.getInt("loginRateLimitSubnetPerHour", DEFAULT_LOGIN_SUBNET_RATE_PER_HOUR)),
+				RateLimit.of(config.getInt("loginRateLimitUsernameCapacity", DEFAULT_LOGIN_USERNAME_RATE_CAPACITY), config.getInt("loginRateLimitUsernamePerHour", DEFAULT_LOGIN_USERNAME_RATE_PER_HOUR)),
+				config.getInt("loginSubnetPrefixIpv4", DEFAULT_IPV4_SUBNET_PREFIX), config.getInt("loginSubnetPrefixIpv6", DEFAULT_IPV6_SUBNET_PREFIX), allowList);
+	}
 
+	/**
+	 * @return cache of the unknown usernames, null if disabled
+	 */
+	public UnknownUserCache getUnknownUserCache() {
+		return unknownUserCache;
 	}
 
 	@Override
 	public void postInit(final KeycloakSessionFactory factory) {
-
+		AuthenticatorMetrics.getInstance().register();
 	}
 
 	@Override
 	public void close() {
-
+		if (legacyVerifier != null) {
+			legacyVerifier.close();
+		}
 	}
 
 	@Override
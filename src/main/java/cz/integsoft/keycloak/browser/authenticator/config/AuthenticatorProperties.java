@@ -0,0 +1,47 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Immutable snapshot of the authenticator properties.
+ *
+ * @author integsoft
+ */
+public final class AuthenticatorProperties {
+
+	public static final String SKIP_MFA_CLIENTS = "skipMFA.clients";
+
+	/**
+	 * Names of all properties.
+	 */
+	public static final List<String> KEYS = List.of(SKIP_MFA_CLIENTS);
+
+	private final SkipMfaPolicy skipMfaPolicy;
+
+	private AuthenticatorProperties(final SkipMfaPolicy skipMfaPolicy) {
+		this.skipMfaPolicy = skipMfaPolicy;
+	}
+
+	/**
+	 * Parse properties.
+	 *
+	 * @param properties raw properties
+	 * @return parsed properties
+	 */
+	public static AuthenticatorProperties of(final Properties properties) {
+		return new AuthenticatorProperties(SkipMfaPolicy.of(SkipMfaPolicy.split(properties.getProperty(SKIP_MFA_CLIENTS)), List.of(), List.of()));
+	}
+
+	/**
+	 * @return policy of the clients skipping the second factor in all realms
+	 */
+	public SkipMfaPolicy getSkipMfaPolicy() {
+		return skipMfaPolicy;
+	}
+
+	@Override
+	public String toString() {
+		return SKIP_MFA_CLIENTS + "=" + skipMfaPolicy;
+	}
+}
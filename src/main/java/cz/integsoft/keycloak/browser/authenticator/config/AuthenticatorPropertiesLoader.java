@@ -0,0 +1,163 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+
+/**
+ * Loads the authenticator properties once. The defaults from META-INF/authenticator.properties are overridden by an optional external properties file and by the SPI config of the same keys. The external file
+ * is watched and reloaded when it changes, a file that cannot be read keeps the previous properties.
+ *
+ * @author integsoft
+ */
+public class AuthenticatorPropertiesLoader {
+
+	private static Logger logger = Logger.getLogger(AuthenticatorPropertiesLoader.class);
+
+	public static final String PROPERTIES_FILE = "propertiesFile";
+
+	private static final String RESOURCE = "META-INF/authenticator.properties";
+
+	private final Properties defaults = new Properties();
+
+	private final Map<String, String> overrides = new HashMap<>();
+
+	private final Path file;
+
+	private volatile AuthenticatorProperties properties;
+
+	private WatchService watchService;
+
+	private Thread watcher;
+
+	/**
+	 * Constructor, loads the properties.
+	 *
+	 * @param config SPI config
+	 */
+	public AuthenticatorPropertiesLoader(final Config.Scope config) {
+		try (InputStream in = AuthenticatorPropertiesLoader.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+			if (in != null) {
+				defaults.load(in);
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException("Unable to load " + RESOURCE, e);
+		}
+		for (final String key : AuthenticatorProperties.KEYS) {
+			final String value = config.get(key);
+			if (value != null) {
+				overrides.put(key, value);
+			}
+		}
+		final String fileName = config.get(PROPERTIES_FILE, System.getProperty(PROPERTIES_FILE));
+		this.file = fileName == null || fileName.isBlank() ? null : Paths.get(fileName).toAbsolutePath();
+		reload();
+	}
+
+	/**
+	 * @return current properties
+	 */
+	public AuthenticatorProperties get() {
+		return properties;
+	}
+
+	/**
+	 * Load the properties again.
+	 *
+	 * @return true - the properties were loaded / false - the external file cannot be read, the previous properties are kept
+	 */
+	public boolean reload() {
+		final Properties merged = new Properties();
+		merged.putAll(defaults);
+		if (file != null && Files.exists(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				merged.load(reader);
+			} catch (final IOException e) {
+				logger.errorf(e, "Unable to load authenticator properties %s, keeping the previous ones", file);
+				if (properties == null) {
+					// first load, use the defaults
+					properties = AuthenticatorProperties.of(defaults);
+				}
+				return false;
+			}
+		}
+		merged.putAll(overrides);
+		properties = AuthenticatorProperties.of(merged);
+		logger.infof("Authenticator properties loaded: %s", properties);
+		return true;
+	}
+
+	/**
+	 * Start watching the external properties file.
+	 */
+	public synchronized void startWatching() {
+		if (file == null || watcher != null) {
+			return;
+		}
+		try {
+			watchService = file.getFileSystem().newWatchService();
+			file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (final IOException e) {
+			logger.errorf(e, "Unable to watch authenticator properties %s, changes need a restart", file);
+			return;
+		}
+		watcher = new Thread(this::watch, "mbta-authenticator-properties-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				final WatchKey key = watchService.take();
+				boolean changed = false;
+				for (final WatchEvent<?> event : key.pollEvents()) {
+					if (file.getFileName().equals(event.context())) {
+						changed = true;
+					}
+				}
+				if (changed) {
+					reload();
+				}
+				if (!key.reset()) {
+					logger.warnf("Authenticator properties directory %s is no longer watched", file.getParent());
+					return;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ClosedWatchServiceException e) {
+			logger.debug("Authenticator properties watcher closed");
+		}
+	}
+
+	/**
+	 * Stop watching the external properties file.
+	 */
+	public synchronized void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (final IOException e) {
+				logger.debug("Error close authenticator properties watcher", e);
+			}
+			watchService = null;
+			watcher = null;
+		}
+	}
+}
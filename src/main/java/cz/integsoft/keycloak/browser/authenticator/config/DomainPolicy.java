@@ -0,0 +1,243 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Policy of the blocked email domains, e.g. the employee domains which have to log in by the identity provider. A domain blocks the domain itself and all its subdomains, the domain of an input is the
+ * part after the last @. Each domain may name the identity provider the user is redirected to. The domains are compiled into a trie of the reversed domain characters, an input is matched from its last
+ * character without allocation, the longest matching domain wins.
+ *
+ * @author integsoft
+ */
+public final class DomainPolicy {
+
+	/**
+	 * Policy blocking nothing.
+	 */
+	public static final DomainPolicy NONE = new DomainPolicy("", new Node(), List.of(), List.of());
+
+	private static final char ALIAS_DELIMITER = '=';
+
+	private final String source;
+
+	private final Node root;
+
+	private final List<Rule> rules;
+
+	private final List<String> errors;
+
+	private DomainPolicy(final String source, final Node root, final List<Rule> rules, final List<String> errors) {
+		this.source = source;
+		this.root = root;
+		this.rules = rules;
+		this.errors = errors;
+	}
+
+	/**
+	 * Compile policy.
+	 *
+	 * @param source domains separated by commas or by the multivalued config delimiter, each domain optionally followed by =alias of the identity provider, may be null
+	 * @return policy, invalid domains are skipped and reported by {@link #getErrors()}
+	 */
+	public static DomainPolicy of(final String source) {
+		final Node root = new Node();
+		final List<Rule> rules = new ArrayList<>();
+		final List<String> errors = new ArrayList<>();
+		for (final String entry : SkipMfaPolicy.split(source)) {
+			final int delimiter = entry.indexOf(ALIAS_DELIMITER);
+			final String domain = normalize(delimiter < 0 ? entry : entry.substring(0, delimiter));
+			final String alias = delimiter < 0 ? null : entry.substring(delimiter + 1).trim();
+			if (!isDomain(domain)) {
+				errors.add("Invalid domain " + entry);
+				continue;
+			}
+			final Rule rule = new Rule(domain, alias == null || alias.isEmpty() ? null : alias);
+			Node node = root;
+			for (int i = domain.length() - 1; i >= 0; i--) {
+				node = node.addChild(domain.charAt(i));
+			}
+			if (node.rule == null) {
+				node.rule = rule;
+				rules.add(rule);
+			}
+		}
+		final String value = source == null ? "" : source;
+		if (rules.isEmpty() && errors.isEmpty()) {
+			return new DomainPolicy(value, NONE.root, List.of(), List.of());
+		}
+		return new DomainPolicy(value, root, Collections.unmodifiableList(rules), Collections.unmodifiableList(errors));
+	}
+
+	/**
+	 * Find the rule of the email domain.
+	 *
+	 * @param email email or username, may be null
+	 * @return rule of the longest matching domain, null if the input has no @ or its domain is not blocked
+	 */
+	public Rule match(final String email) {
+		if (email == null) {
+			return null;
+		}
+		int end = email.length();
+		// trailing whitespace and the dot of a fully qualified domain
+		while (end > 0 && (email.charAt(end - 1) == '.' || Character.isWhitespace(email.charAt(end - 1)))) {
+			end--;
+		}
+		final int at = email.lastIndexOf('@', end - 1);
+		if (at < 0 || at == end - 1) {
+			return null;
+		}
+		Rule matched = null;
+		Node node = root;
+		for (int i = end - 1; i > at; i--) {
+			node = node.child(toLowerCase(email.charAt(i)));
+			if (node == null) {
+				break;
+			}
+			// the domain matches whole labels only, i.e. mbta.com matches x.mbta.com but not xmbta.com
+			if (node.rule != null && (i == at + 1 || email.charAt(i - 1) == '.')) {
+				matched = node.rule;
+			}
+		}
+		return matched;
+	}
+
+	/**
+	 * @param email email or username, may be null
+	 * @return true - the domain of the input is blocked / otherwise false
+	 */
+	public boolean isBlocked(final String email) {
+		return match(email) != null;
+	}
+
+	/**
+	 * @param value raw configuration value
+	 * @return true - the policy was compiled from the value / otherwise false
+	 */
+	public boolean isParsedFrom(final String value) {
+		return source.equals(value);
+	}
+
+	/**
+	 * @return blocked domains
+	 */
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * @return invalid domains of the configuration
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+		return rules.toString();
+	}
+
+	private static String normalize(final String domain) {
+		String normalized = domain.trim().toLowerCase(Locale.ROOT);
+		if (normalized.startsWith("*.")) {
+			normalized = normalized.substring(2);
+		} else if (normalized.startsWith("@")) {
+			normalized = normalized.substring(1);
+		}
+		while (normalized.endsWith(".")) {
+			normalized = normalized.substring(0, normalized.length() - 1);
+		}
+		return normalized;
+	}
+
+	private static boolean isDomain(final String domain) {
+		if (domain.isEmpty() || domain.startsWith(".") || domain.contains("..")) {
+			return false;
+		}
+		for (int i = 0; i < domain.length(); i++) {
+			final char c = domain.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '.' || c > 0x7F && Character.isLetterOrDigit(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static char toLowerCase(final char c) {
+		if (c >= 'A' && c <= 'Z') {
+			return (char) (c + ('a' - 'A'));
+		}
+		return c < 0x80 ? c : Character.toLowerCase(c);
+	}
+
+	/**
+	 * Blocked domain.
+	 */
+	public static final class Rule {
+
+		private final String domain;
+
+		private final String identityProvider;
+
+		Rule(final String domain, final String identityProvider) {
+			this.domain = domain;
+			this.identityProvider = identityProvider;
+		}
+
+		/**
+		 * @return the domain
+		 */
+		public String getDomain() {
+			return domain;
+		}
+
+		/**
+		 * @return alias of the identity provider the user is redirected to, null - not configured
+		 */
+		public String getIdentityProvider() {
+			return identityProvider;
+		}
+
+		@Override
+		public String toString() {
+			return identityProvider == null ? domain : domain + ALIAS_DELIMITER + identityProvider;
+		}
+	}
+
+	/**
+	 * Trie node of one character, the children are few and scanned linearly.
+	 */
+	private static final class Node {
+
+		private char[] keys = new char[0];
+
+		private Node[] children = new Node[0];
+
+		private Rule rule;
+
+		Node child(final char key) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == key) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node addChild(final char key) {
+			Node child = child(key);
+			if (child == null) {
+				child = new Node();
+				keys = Arrays.copyOf(keys, keys.length + 1);
+				children = Arrays.copyOf(children, children.length + 1);
+				keys[keys.length - 1] = key;
+				children[children.length - 1] = child;
+			}
+			return child;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Cache of the compiled {@link DomainPolicy} per realm shared by the login, reset credentials and registration providers. The blocked domains are configured by the realm attribute
+ * {@value #REALM_ATTRIBUTE}, without the attribute only {@value #DEFAULT_DOMAINS} is blocked. A cached policy is reused as long as the attribute is the same, a changed attribute is compiled again, so
+ * domains are added without a redeploy.
+ *
+ * @author integsoft
+ */
+public final class DomainPolicyCache {
+
+	private static Logger logger = Logger.getLogger(DomainPolicyCache.class);
+
+	public static final String REALM_ATTRIBUTE = "mbtaBlockedEmailDomains";
+
+	public static final String DEFAULT_DOMAINS = "mbta.com";
+
+	private static final int MAX_ENTRIES = 1024;
+
+	private static final DomainPolicyCache INSTANCE = new DomainPolicyCache();
+
+	private final Map<String, DomainPolicy> policies = new ConcurrentHashMap<>();
+
+	private DomainPolicyCache() {
+	}
+
+	/**
+	 * @return cache of this server
+	 */
+	public static DomainPolicyCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get compiled policy.
+	 *
+	 * @param realm realm
+	 * @return policy of the realm
+	 */
+	public DomainPolicy get(final RealmModel realm) {
+		final String attribute = realm.getAttribute(REALM_ATTRIBUTE);
+		final String domains = attribute == null ? DEFAULT_DOMAINS : attribute;
+		final DomainPolicy cached = policies.get(realm.getId());
+		if (cached != null && cached.isParsedFrom(domains)) {
+			return cached;
+		}
+
+		final DomainPolicy compiled = DomainPolicy.of(domains);
+		if (!compiled.getErrors().isEmpty()) {
+			logger.errorf("Blocked email domains of realm %s are invalid, the invalid domains are ignored: %s", realm.getName(), compiled.getErrors());
+		}
+		logger.debugf("Blocked email domains of realm %s: %s", realm.getName(), compiled);
+		if (policies.size() >= MAX_ENTRIES) {
+			// policies of removed realms are dropped here
+			policies.clear();
+		}
+		policies.put(realm.getId(), compiled);
+		return compiled;
+	}
+}
@@ -0,0 +1,158 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.integsoft.keycloak.browser.authenticator.EmailCodeAuthenticatorFactory;
+
+/**
+ * Parsed and validated configuration of the email code authenticator. Invalid values are reported in {@link #getErrors()}, an invalid configuration must not be used, the authenticator fails as
+ * misconfigured instead of checking the codes with other limits than the administrator set.
+ *
+ * @author integsoft
+ */
+public final class EmailCodeAuthenticatorConfig {
+
+	public static final int MAX_LENGTH = 16;
+	public static final int MAX_ATTEMPTS = 100;
+	public static final int MAX_RESEND_COOLDOWN = 3600;
+
+	/**
+	 * Configuration used when the authenticator is not configured.
+	 */
+	public static final EmailCodeAuthenticatorConfig DEFAULT = new EmailCodeAuthenticatorConfig(Map.of(), EmailCodeAuthenticatorFactory.DEFAULT_LENGTH, EmailCodeAuthenticatorFactory.DEFAULT_LOGIN_COUNT,
+			EmailCodeAuthenticatorFactory.DEFAULT_TTL, EmailCodeAuthenticatorFactory.DEFAULT_MAX_ATTEMPTS, EmailCodeAuthenticatorFactory.DEFAULT_RESEND_COOLDOWN, false, SkipMfaPolicy.NONE, List.of());
+
+	private final Map<String, String> source;
+	private final int length;
+	private final int loginCount;
+	private final int ttl;
+	private final int maxAttempts;
+	private final int resendCooldown;
+	private final boolean asyncSend;
+	private final SkipMfaPolicy skipMfaPolicy;
+	private final List<String> errors;
+
+	private EmailCodeAuthenticatorConfig(final Map<String, String> source, final int length, final int loginCount, final int ttl, final int maxAttempts, final int resendCooldown, final boolean asyncSend, final SkipMfaPolicy skipMfaPolicy,
+			final List<String> errors) {
+		this.source = source;
+		this.length = length;
+		this.loginCount = loginCount;
+		this.ttl = ttl;
+		this.maxAttempts = maxAttempts;
+		this.resendCooldown = resendCooldown;
+		this.asyncSend = asyncSend;
+		this.skipMfaPolicy = skipMfaPolicy;
+		this.errors = errors;
+	}
+
+	/**
+	 * Parse configuration.
+	 *
+	 * @param config raw configuration
+	 * @return parsed configuration
+	 */
+	public static EmailCodeAuthenticatorConfig of(final Map<String, String> config) {
+		final List<String> errors = new ArrayList<>();
+		final int length = parseInt(config, EmailCodeAuthenticatorFactory.CODE_LENGTH, EmailCodeAuthenticatorFactory.DEFAULT_LENGTH, 1, MAX_LENGTH, errors);
+		final int loginCount = parseInt(config, EmailCodeAuthenticatorFactory.LOGIN_COUNT, EmailCodeAuthenticatorFactory.DEFAULT_LOGIN_COUNT, 1, Integer.MAX_VALUE, errors);
+		final int ttl = parseInt(config, EmailCodeAuthenticatorFactory.CODE_TTL, EmailCodeAuthenticatorFactory.DEFAULT_TTL, 1, Integer.MAX_VALUE, errors);
+		final int maxAttempts = parseInt(config, EmailCodeAuthenticatorFactory.MAX_ATTEMPTS, EmailCodeAuthenticatorFactory.DEFAULT_MAX_ATTEMPTS, 1, MAX_ATTEMPTS, errors);
+		final int resendCooldown = parseInt(config, EmailCodeAuthenticatorFactory.RESEND_COOLDOWN, EmailCodeAuthenticatorFactory.DEFAULT_RESEND_COOLDOWN, 0, MAX_RESEND_COOLDOWN, errors);
+		final boolean asyncSend = Boolean.parseBoolean(config.get(EmailCodeAuthenticatorFactory.ASYNC_SEND));
+		final SkipMfaPolicy skipMfaPolicy = SkipMfaPolicy.of(SkipMfaPolicy.split(config.get(EmailCodeAuthenticatorFactory.SKIP_MFA_CLIENTS)),
+				SkipMfaPolicy.split(config.get(EmailCodeAuthenticatorFactory.SKIP_MFA_CLIENT_SCOPES)), SkipMfaPolicy.split(config.get(EmailCodeAuthenticatorFactory.SKIP_MFA_ROLES)));
+		return new EmailCodeAuthenticatorConfig(Collections.unmodifiableMap(new HashMap<>(config)), length, loginCount, ttl, maxAttempts, resendCooldown, asyncSend, skipMfaPolicy, List.copyOf(errors));
+	}
+
+	/**
+	 * @param config raw configuration
+	 * @return true - this configuration was parsed from the same values / otherwise false
+	 */
+	public boolean isParsedFrom(final Map<String, String> config) {
+		return source.equals(config);
+	}
+
+	/**
+	 * @return the number of digits of the code
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of logins at which the code is checked
+	 */
+	public int getLoginCount() {
+		return loginCount;
+	}
+
+	/**
+	 * @return the time to live of the code in seconds
+	 */
+	public int getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @return the number of attempts to enter the code
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return the time in seconds after which the code may be sent again
+	 */
+	public int getResendCooldown() {
+		return resendCooldown;
+	}
+
+	/**
+	 * @return true - the email is sent in the background / otherwise false
+	 */
+	public boolean isAsyncSend() {
+		return asyncSend;
+	}
+
+	/**
+	 * @return policy of the logins skipping the second factor
+	 */
+	public SkipMfaPolicy getSkipMfaPolicy() {
+		return skipMfaPolicy;
+	}
+
+	/**
+	 * @return true - all values are valid / otherwise false
+	 */
+	public boolean isValid() {
+		return errors.isEmpty();
+	}
+
+	/**
+	 * @return validation errors, empty if the configuration is valid
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	private static int parseInt(final Map<String, String> config, final String key, final int defaultValue, final int min, final int max, final List<String> errors) {
+		final String value = config.get(key);
+		if (value == null || value.isBlank()) {
+			return defaultValue;
+		}
+		try {
+			final int parsed = Integer.parseInt(value.trim());
+			if (parsed >= min && parsed <= max) {
+				return parsed;
+			}
+		} catch (final NumberFormatException e) {
+			// reported below
+		}
+		errors.add(String.format("%s must be a number between %d and %d, was '%s'", key, min, max, value));
+		return defaultValue;
+	}
+}
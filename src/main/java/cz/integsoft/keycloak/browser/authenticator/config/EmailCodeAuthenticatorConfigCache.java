@@ -0,0 +1,51 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.AuthenticatorConfigModel;
+
+/**
+ * Cache of parsed authenticator configurations per {@link AuthenticatorConfigModel} id. A cached configuration is reused as long as the raw values are the same, a changed configuration is parsed and
+ * validated again.
+ *
+ * @author integsoft
+ */
+public class EmailCodeAuthenticatorConfigCache {
+
+	private static Logger logger = Logger.getLogger(EmailCodeAuthenticatorConfigCache.class);
+
+	private static final int MAX_ENTRIES = 1024;
+
+	private final Map<String, EmailCodeAuthenticatorConfig> configs = new ConcurrentHashMap<>();
+
+	/**
+	 * Get parsed configuration.
+	 *
+	 * @param model authenticator configuration, may be null
+	 * @return parsed configuration
+	 */
+	public EmailCodeAuthenticatorConfig get(final AuthenticatorConfigModel model) {
+		if (model == null || model.getConfig() == null) {
+			return EmailCodeAuthenticatorConfig.DEFAULT;
+		}
+		final EmailCodeAuthenticatorConfig cached = configs.get(model.getId());
+		if (cached != null && cached.isParsedFrom(model.getConfig())) {
+			return cached;
+		}
+
+		final EmailCodeAuthenticatorConfig parsed = EmailCodeAuthenticatorConfig.of(model.getConfig());
+		if (!parsed.getErrors().isEmpty()) {
+			logger.errorf("Authenticator config %s is invalid, logins through it fail until it is fixed: %s", model.getAlias(), parsed.getErrors());
+		}
+		if (model.getId() != null) {
+			if (configs.size() >= MAX_ENTRIES) {
+				// configurations of removed executions are dropped here
+				configs.clear();
+			}
+			configs.put(model.getId(), parsed);
+		}
+		return parsed;
+	}
+}
@@ -0,0 +1,156 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.Constants;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Policy deciding which logins skip the second factor. The second factor is skipped for clients matching a client id or a pattern with the * wildcard, for clients with one of the client scopes and for
+ * users with one of the roles. Client ids are compared case insensitively, exact ids are looked up in a hash set, all patterns are compiled into one regular expression.
+ *
+ * @author integsoft
+ */
+public final class SkipMfaPolicy {
+
+	/**
+	 * Policy skipping nothing.
+	 */
+	public static final SkipMfaPolicy NONE = new SkipMfaPolicy(Set.of(), null, Set.of(), Set.of());
+
+	private static final Pattern VALUE_DELIMITER = Pattern.compile(Constants.CFG_DELIMITER + "|,");
+
+	private final Set<String> clientIds;
+
+	private final Pattern clientPattern;
+
+	private final Set<String> clientScopes;
+
+	private final Set<String> roles;
+
+	private SkipMfaPolicy(final Set<String> clientIds, final Pattern clientPattern, final Set<String> clientScopes, final Set<String> roles) {
+		this.clientIds = clientIds;
+		this.clientPattern = clientPattern;
+		this.clientScopes = clientScopes;
+		this.roles = roles;
+	}
+
+	/**
+	 * Compile policy.
+	 *
+	 * @param clients client ids or patterns with the * wildcard
+	 * @param clientScopes client scope names
+	 * @param roles role names, client roles as clientId.role
+	 * @return policy
+	 */
+	public static SkipMfaPolicy of(final Collection<String> clients, final Collection<String> clientScopes, final Collection<String> roles) {
+		final Set<String> ids = new HashSet<>();
+		final List<String> patterns = new ArrayList<>();
+		for (final String client : clients) {
+			final String lowerCase = client.toLowerCase(Locale.ROOT);
+			if (lowerCase.indexOf('*') < 0) {
+				ids.add(lowerCase);
+			} else {
+				patterns.add(toRegex(lowerCase));
+			}
+		}
+		final Pattern pattern = patterns.isEmpty() ? null : Pattern.compile(String.join("|", patterns));
+		if (ids.isEmpty() && pattern == null && clientScopes.isEmpty() && roles.isEmpty()) {
+			return NONE;
+		}
+		return new SkipMfaPolicy(Set.copyOf(ids), pattern, Set.copyOf(clientScopes), Set.copyOf(roles));
+	}
+
+	/**
+	 * Split configuration value separated by commas or by the multivalued config delimiter.
+	 *
+	 * @param value configuration value, may be null
+	 * @return trimmed non empty values
+	 */
+	public static List<String> split(final String value) {
+		if (value == null || value.isBlank()) {
+			return List.of();
+		}
+		return VALUE_DELIMITER.splitAsStream(value).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return true - the policy skips nothing / otherwise false
+	 */
+	public boolean isEmpty() {
+		return this == NONE;
+	}
+
+	/**
+	 * @param clientId client id
+	 * @return true - the client skips the second factor / otherwise false
+	 */
+	public boolean matchesClient(final String clientId) {
+		if (clientId == null || (clientIds.isEmpty() && clientPattern == null)) {
+			return false;
+		}
+		final String lowerCase = clientId.toLowerCase(Locale.ROOT);
+		return clientIds.contains(lowerCase) || (clientPattern != null && clientPattern.matcher(lowerCase).matches());
+	}
+
+	/**
+	 * @param realm realm
+	 * @param client client of the login
+	 * @param user user of the login
+	 * @return true - the login skips the second factor / otherwise false
+	 */
+	public boolean matches(final RealmModel realm, final ClientModel client, final UserModel user) {
+		if (isEmpty()) {
+			return false;
+		}
+		if (matchesClient(client.getClientId())) {
+			return true;
+		}
+		if (!clientScopes.isEmpty() && (hasClientScope(client, true) || hasClientScope(client, false))) {
+			return true;
+		}
+		for (final String roleName : roles) {
+			final RoleModel role = KeycloakModelUtils.getRoleFromString(realm, roleName);
+			if (role != null && user.hasRole(role)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "clients=" + clientIds + (clientPattern == null ? "" : ", patterns=" + clientPattern) + ", clientScopes=" + clientScopes + ", roles=" + roles;
+	}
+
+	private boolean hasClientScope(final ClientModel client, final boolean defaultScope) {
+		return client.getClientScopes(defaultScope).keySet().stream().anyMatch(clientScopes::contains);
+	}
+
+	private static String toRegex(final String pattern) {
+		final StringBuilder regex = new StringBuilder();
+		int start = 0;
+		for (int i = pattern.indexOf('*'); i >= 0; i = pattern.indexOf('*', start)) {
+			if (i > start) {
+				regex.append(Pattern.quote(pattern.substring(start, i)));
+			}
+			regex.append(".*");
+			start = i + 1;
+		}
+		if (start < pattern.length()) {
+			regex.append(Pattern.quote(pattern.substring(start)));
+		}
+		return "(?:" + regex + ")";
+	}
+}
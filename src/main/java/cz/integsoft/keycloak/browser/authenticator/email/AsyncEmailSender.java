@@ -0,0 +1,190 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+
+/**
+ * Sends emails outside of the login request thread. Emails are sent by virtual threads where the JVM supports them, otherwise by a small thread pool. The number of pending emails is bounded, failed sends are
+ * retried and the final failure is stored as a note of the authentication session.
+ *
+ * @author integsoft
+ */
+public class AsyncEmailSender {
+
+	private static Logger logger = Logger.getLogger(AsyncEmailSender.class);
+
+	public static final String SEND_FAILED_NOTE = "emailCodeSendFailed";
+
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long RETRY_DELAY_MILLIS = 1000L;
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+	private static final StepTimer SEND_SUCCESS_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_EMAIL_SEND, "mode", "async", AuthenticatorMetrics.TAG_OUTCOME, "success");
+	private static final StepTimer SEND_FAILURE_TIMER = AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.OTP_EMAIL_SEND, "mode", "async", AuthenticatorMetrics.TAG_OUTCOME, "failure");
+
+	private final EmailSender sender;
+
+	private final ExecutorService executor;
+
+	private final Semaphore permits;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sender sender of the emails
+	 * @param threads number of sender threads when virtual threads are not available
+	 * @param maxPending maximum number of emails waiting or being sent
+	 */
+	public AsyncEmailSender(final EmailSender sender, final int threads, final int maxPending) {
+		this.sender = sender;
+		this.executor = createExecutor(threads, maxPending);
+		this.permits = new Semaphore(maxPending);
+	}
+
+	/**
+	 * Send email in the background.
+	 *
+	 * @param context {@link AuthenticationFlowContext}
+	 * @param user recipient
+	 * @param template email
+	 * @return true - the email was accepted / false - too many pending emails, the caller should send it synchronously
+	 */
+	public boolean submit(final AuthenticationFlowContext context, final UserModel user, final EmailTemplate template) {
+		if (!permits.tryAcquire()) {
+			logger.warn("Too many pending emails, sending synchronously");
+			return false;
+		}
+
+		// everything the background thread needs is read here, the request session is closed when the email is sent
+		final KeycloakSessionFactory sessionFactory = context.getSession().getKeycloakSessionFactory();
+		final String realmId = context.getRealm().getId();
+		final Map<String, String> smtpConfig = new HashMap<>(context.getRealm().getSmtpConfig());
+		final String address = user.getEmail();
+		final AuthenticationSessionModel authSession = context.getAuthenticationSession();
+		final String rootSessionId = authSession.getParentSession().getId();
+		final String clientId = authSession.getClient().getId();
+		final String tabId = authSession.getTabId();
+
+		try {
+			executor.execute(() -> {
+				try {
+					if (!send(sessionFactory, realmId, smtpConfig, address, template)) {
+						markFailed(sessionFactory, realmId, rootSessionId, clientId, tabId);
+					}
+				} finally {
+					permits.release();
+				}
+			});
+			return true;
+		} catch (final RejectedExecutionException e) {
+			permits.release();
+			logger.warn("Email sender rejected the email, sending synchronously");
+			return false;
+		}
+	}
+
+	private boolean send(final KeycloakSessionFactory sessionFactory, final String realmId, final Map<String, String> smtpConfig, final String address, final EmailTemplate template) {
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			final EmailException error = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+				session.getContext().setRealm(session.realms().getRealm(realmId));
+				final long start = System.nanoTime();
+				try {
+					sender.send(session, smtpConfig, address, template);
+					SEND_SUCCESS_TIMER.stop(start);
+					return null;
+				} catch (final EmailException e) {
+					SEND_FAILURE_TIMER.stop(start);
+					return e;
+				}
+			});
+			if (error == null) {
+				return true;
+			}
+			logger.warnf(error, "Error send email (attempt %d of %d)", attempt, MAX_ATTEMPTS);
+			if (attempt < MAX_ATTEMPTS) {
+				try {
+					Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void markFailed(final KeycloakSessionFactory sessionFactory, final String realmId, final String rootSessionId, final String clientId, final String tabId) {
+		try {
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				final RealmModel realm = session.realms().getRealm(realmId);
+				final RootAuthenticationSessionModel rootSession = session.authenticationSessions().getRootAuthenticationSession(realm, rootSessionId);
+				final ClientModel client = realm.getClientById(clientId);
+				if (rootSession == null || client == null) {
+					return;
+				}
+				final AuthenticationSessionModel authSession = rootSession.getAuthenticationSession(client, tabId);
+				if (authSession != null) {
+					authSession.setAuthNote(SEND_FAILED_NOTE, "true");
+				}
+			});
+		} catch (final RuntimeException e) {
+			logger.error("Unable to store email send failure in the authentication session", e);
+		}
+	}
+
+	/**
+	 * Stop the sender, pending emails are given a short time to finish.
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static ExecutorService createExecutor(final int threads, final int maxPending) {
+		try {
+			// Java 21+
+			final Method virtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			logger.info("Email sender uses virtual threads");
+			return (ExecutorService) virtualThreadExecutor.invoke(null);
+		} catch (final ReflectiveOperationException e) {
+			logger.infof("Email sender uses %d platform threads", threads);
+			final AtomicInteger threadNumber = new AtomicInteger();
+			return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxPending), r -> {
+				final Thread thread = new Thread(r, "mbta-email-sender-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+}
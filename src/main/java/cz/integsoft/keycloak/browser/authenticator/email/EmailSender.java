@@ -0,0 +1,32 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.util.Map;
+
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSession;
+
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+
+/**
+ * Sender of the code emails.
+ *
+ * @author integsoft
+ */
+public interface EmailSender {
+
+	/**
+	 * Send email.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param smtpConfig realm SMTP configuration
+	 * @param address recipient address
+	 * @param template email
+	 * @throws EmailException send email problem
+	 */
+	void send(KeycloakSession session, Map<String, String> smtpConfig, String address, EmailTemplate template) throws EmailException;
+
+	/**
+	 * Release resources of the sender.
+	 */
+	void close();
+}
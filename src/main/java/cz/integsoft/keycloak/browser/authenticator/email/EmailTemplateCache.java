@@ -0,0 +1,101 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+
+/**
+ * Cache of rendered code emails per realm, email theme and locale. Templates are rendered once with a placeholder instead of the code, every further email only substitutes the code. The key contains a
+ * fingerprint of the realm localization texts, so a change of the texts renders the email again.
+ *
+ * @author integsoft
+ */
+public class EmailTemplateCache {
+
+	private static Logger logger = Logger.getLogger(EmailTemplateCache.class);
+
+	public static final String CODE_PLACEHOLDER = "MBTAEMAILCODEPLACEHOLDER";
+
+	private static final int MAX_ENTRIES = 512;
+
+	private final Map<String, EmailTemplate> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * Create cache key.
+	 *
+	 * @param realmId realm id
+	 * @param themeName email theme name
+	 * @param locale locale
+	 * @param localizationTexts realm localization texts for the locale
+	 * @return cache key
+	 */
+	public static String key(final String realmId, final String themeName, final Locale locale, final Map<String, String> localizationTexts) {
+		return realmId + '/' + themeName + '/' + locale.toLanguageTag() + '/' + (localizationTexts == null ? 0 : localizationTexts.hashCode());
+	}
+
+	/**
+	 * Get rendered email with the code.
+	 *
+	 * @param key cache key
+	 * @param code code
+	 * @return email or null if the email is not cached
+	 */
+	public EmailTemplate get(final String key, final String code) {
+		final EmailTemplate template = templates.get(key);
+		if (template == null) {
+			return null;
+		}
+		return substitute(template, code);
+	}
+
+	/**
+	 * Store email rendered with {@link #CODE_PLACEHOLDER}. Emails with a body not containing the placeholder are not cached, the template probably transforms the code.
+	 *
+	 * @param key cache key
+	 * @param template email rendered with the placeholder
+	 * @return true - the email was cached / otherwise false
+	 */
+	public boolean put(final String key, final EmailTemplate template) {
+		if (!printsCode(template.getTextBody()) || !printsCode(template.getHtmlBody())) {
+			logger.warnf("Email template %s does not print the code as it is, the email is not cached", key);
+			return false;
+		}
+		if (templates.size() >= MAX_ENTRIES) {
+			// stale keys of changed localization texts are dropped here
+			templates.clear();
+		}
+		templates.put(key, template);
+		return true;
+	}
+
+	/**
+	 * Remove all cached emails.
+	 */
+	public void clear() {
+		templates.clear();
+	}
+
+	/**
+	 * Replace the placeholder with the code.
+	 *
+	 * @param template email rendered with the placeholder
+	 * @param code code
+	 * @return email with the code
+	 */
+	public static EmailTemplate substitute(final EmailTemplate template, final String code) {
+		return new EmailTemplate(replace(template.getSubject(), code), replace(template.getTextBody(), code), replace(template.getHtmlBody(), code));
+	}
+
+	// a missing body is not substituted, every present body has to print the code
+	private static boolean printsCode(final String body) {
+		return body == null || body.contains(CODE_PLACEHOLDER);
+	}
+
+	private static String replace(final String body, final String code) {
+		return body == null ? null : body.replace(CODE_PLACEHOLDER, code);
+	}
+}
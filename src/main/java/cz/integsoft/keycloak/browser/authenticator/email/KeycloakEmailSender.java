@@ -0,0 +1,27 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.util.Map;
+
+import org.keycloak.email.EmailException;
+import org.keycloak.email.EmailSenderProvider;
+import org.keycloak.models.KeycloakSession;
+
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+
+/**
+ * Sends emails by the Keycloak {@link EmailSenderProvider}, every email opens a new SMTP connection.
+ *
+ * @author integsoft
+ */
+public class KeycloakEmailSender implements EmailSender {
+
+	@Override
+	public void send(final KeycloakSession session, final Map<String, String> smtpConfig, final String address, final EmailTemplate template) throws EmailException {
+		session.getProvider(EmailSenderProvider.class).send(smtpConfig, address, template.getSubject(), template.getTextBody(), template.getHtmlBody());
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
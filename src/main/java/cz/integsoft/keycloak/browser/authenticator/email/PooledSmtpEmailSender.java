@@ -0,0 +1,416 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.jboss.logging.Logger;
+import org.keycloak.common.enums.HostnameVerificationPolicy;
+import org.keycloak.email.DefaultEmailAuthenticator;
+import org.keycloak.email.EmailAuthenticator;
+import org.keycloak.email.EmailException;
+import org.keycloak.email.PasswordAuthEmailAuthenticator;
+import org.keycloak.email.TokenAuthEmailAuthenticator;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.truststore.JSSETruststoreConfigurator;
+
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.internet.MimeUtility;
+
+/**
+ * Sends emails by pooled SMTP connections. Connections are authenticated once and kept per realm SMTP configuration, so the following emails skip the connect, STARTTLS and AUTH. Idle connections are closed
+ * after the idle timeout, connections idle for more than a few seconds are checked by NOOP before they are used. The mail properties and the message are built the same way as by the Keycloak email sender.
+ *
+ * @author integsoft
+ */
+public class PooledSmtpEmailSender implements EmailSender {
+
+	private static Logger logger = Logger.getLogger(PooledSmtpEmailSender.class);
+
+	private static final long HEALTH_CHECK_AFTER_MILLIS = 5000L;
+	private static final long MIN_EVICTION_PERIOD_MILLIS = 1000L;
+	private static final String TIMEOUT_MILLIS = "10000";
+	private static final String SUPPORTED_SSL_PROTOCOLS = getSupportedSslProtocols();
+
+	private final int maxIdlePerConfig;
+
+	private final long idleTimeoutMillis;
+
+	private final Map<Map<String, String>, Pool> pools = new ConcurrentHashMap<>();
+
+	private final Map<EmailAuthenticator.AuthenticatorType, EmailAuthenticator> authenticators = Map.of(EmailAuthenticator.AuthenticatorType.NONE, new DefaultEmailAuthenticator(),
+			EmailAuthenticator.AuthenticatorType.BASIC, new PasswordAuthEmailAuthenticator(), EmailAuthenticator.AuthenticatorType.TOKEN, new TokenAuthEmailAuthenticator());
+
+	private final ScheduledExecutorService evictor;
+
+	private final SmtpPoolStatistics statistics = new SmtpPoolStatistics();
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxIdlePerConfig maximum number of idle connections kept per SMTP configuration
+	 * @param idleTimeoutMillis time after which an idle connection is closed
+	 */
+	public PooledSmtpEmailSender(final int maxIdlePerConfig, final long idleTimeoutMillis) {
+		this.maxIdlePerConfig = maxIdlePerConfig;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "mbta-smtp-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long period = Math.max(MIN_EVICTION_PERIOD_MILLIS, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void send(final KeycloakSession session, final Map<String, String> smtpConfig, final String address, final EmailTemplate template) throws EmailException {
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			final Pool pool = pools.computeIfAbsent(new TreeMap<>(smtpConfig), config -> new Pool(session, config));
+			final Message message = pool.createMessage(address, template);
+			final Address[] recipients = { toInternetAddress(address, null) };
+
+			PooledTransport transport = pool.borrow(session);
+			try {
+				transport.getTransport().sendMessage(message, recipients);
+			} catch (final MessagingException e) {
+				pool.discard(transport);
+				if (!transport.isReused()) {
+					throw e;
+				}
+				// the server may have dropped the pooled connection, try once more with a new one
+				logger.debugf("Pooled SMTP connection failed, reconnecting: %s", e.getMessage());
+				transport = pool.connect(session);
+				try {
+					transport.getTransport().sendMessage(message, recipients);
+				} catch (final MessagingException retryError) {
+					pool.discard(transport);
+					throw retryError;
+				}
+			}
+			pool.release(transport);
+			success = true;
+		} catch (final MessagingException | UnsupportedEncodingException e) {
+			throw new EmailException("Error when attempting to send the email to the server", e);
+		} finally {
+			statistics.recordSend(System.nanoTime() - start, success);
+			logger.debugf("SMTP pool statistics: %s", statistics);
+		}
+	}
+
+	/**
+	 * @return pool statistics
+	 */
+	public SmtpPoolStatistics getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		evictor.shutdownNow();
+		for (final Pool pool : pools.values()) {
+			pool.close();
+		}
+		pools.clear();
+		logger.infof("SMTP pool closed, statistics: %s", statistics);
+	}
+
+	private void evictIdle() {
+		final long now = System.currentTimeMillis();
+		for (final Map.Entry<Map<String, String>, Pool> pool : pools.entrySet()) {
+			if (pool.getValue().evictIdle(now)) {
+				// unused configuration, e.g. the realm SMTP settings were changed
+				pools.remove(pool.getKey(), pool.getValue());
+			}
+		}
+	}
+
+	private static void closeQuietly(final Transport transport) {
+		try {
+			transport.close();
+		} catch (final MessagingException e) {
+			logger.debugf("Error close SMTP connection: %s", e.getMessage());
+		}
+	}
+
+	private static InternetAddress toInternetAddress(final String email, final String displayName) throws UnsupportedEncodingException, MessagingException {
+		if (displayName == null || displayName.isBlank()) {
+			return new InternetAddress(email);
+		}
+		return new InternetAddress(email, displayName, StandardCharsets.UTF_8.name());
+	}
+
+	private static boolean isEnabled(final Map<String, String> config, final String key) {
+		return "true".equals(config.get(key));
+	}
+
+	private static String getSupportedSslProtocols() {
+		try {
+			return String.join(" ", SSLContext.getDefault().getSupportedSSLParameters().getProtocols());
+		} catch (final NoSuchAlgorithmException e) {
+			logger.warn("Failed to get list of supported SSL protocols", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Idle connections of one SMTP configuration.
+	 */
+	private class Pool {
+
+		private final Map<String, String> config;
+
+		private final Session mailSession;
+
+		private final EmailAuthenticator authenticator;
+
+		private final Deque<PooledTransport> idle = new ArrayDeque<>();
+
+		private long lastUsed = System.currentTimeMillis();
+
+		private boolean retired;
+
+		Pool(final KeycloakSession session, final Map<String, String> config) {
+			this.config = config;
+			this.mailSession = Session.getInstance(createProperties(session, config));
+			this.authenticator = selectAuthenticator(config);
+		}
+
+		PooledTransport borrow(final KeycloakSession session) throws MessagingException, EmailException {
+			while (true) {
+				final PooledTransport transport;
+				synchronized (this) {
+					lastUsed = System.currentTimeMillis();
+					transport = idle.pollFirst();
+				}
+				if (transport == null) {
+					return connect(session);
+				}
+				final long idleMillis = System.currentTimeMillis() - transport.getLastUsed();
+				if (idleMillis > idleTimeoutMillis || (idleMillis > HEALTH_CHECK_AFTER_MILLIS && !transport.getTransport().isConnected())) {
+					// isConnected() sends NOOP to the server
+					discard(transport);
+					continue;
+				}
+				statistics.recordHit();
+				return transport;
+			}
+		}
+
+		PooledTransport connect(final KeycloakSession session) throws MessagingException, EmailException {
+			statistics.recordMiss();
+			final Transport transport = mailSession.getTransport("smtp");
+			authenticator.connect(session, config, transport);
+			return new PooledTransport(transport);
+		}
+
+		void release(final PooledTransport transport) {
+			synchronized (this) {
+				if (!closed && !retired && idle.size() < maxIdlePerConfig) {
+					transport.markReturned();
+					idle.addFirst(transport);
+					return;
+				}
+			}
+			closeQuietly(transport.getTransport());
+		}
+
+		void discard(final PooledTransport transport) {
+			statistics.recordEviction();
+			closeQuietly(transport.getTransport());
+		}
+
+		/**
+		 * Close connections idle for longer than the idle timeout.
+		 *
+		 * @param now current time in millis
+		 * @return true - the pool is empty and unused, it was retired / otherwise false
+		 */
+		boolean evictIdle(final long now) {
+			final Deque<PooledTransport> expired = new ArrayDeque<>();
+			synchronized (this) {
+				// the oldest connections are at the end
+				final Iterator<PooledTransport> iterator = idle.descendingIterator();
+				while (iterator.hasNext()) {
+					final PooledTransport transport = iterator.next();
+					if (now - transport.getLastUsed() <= idleTimeoutMillis) {
+						break;
+					}
+					iterator.remove();
+					expired.add(transport);
+				}
+				retired = idle.isEmpty() && now - lastUsed > idleTimeoutMillis;
+			}
+			for (final PooledTransport transport : expired) {
+				discard(transport);
+			}
+			return retired;
+		}
+
+		void close() {
+			synchronized (this) {
+				retired = true;
+				for (final PooledTransport transport : idle) {
+					closeQuietly(transport.getTransport());
+				}
+				idle.clear();
+			}
+		}
+
+		Message createMessage(final String address, final EmailTemplate template) throws MessagingException, UnsupportedEncodingException {
+			final Multipart multipart = new MimeMultipart("alternative");
+			if (template.getTextBody() != null) {
+				final MimeBodyPart textPart = new MimeBodyPart();
+				textPart.setText(template.getTextBody(), StandardCharsets.UTF_8.name());
+				multipart.addBodyPart(textPart);
+			}
+			if (template.getHtmlBody() != null) {
+				final MimeBodyPart htmlPart = new MimeBodyPart();
+				htmlPart.setContent(template.getHtmlBody(), "text/html; charset=UTF-8");
+				multipart.addBodyPart(htmlPart);
+			}
+
+			final Message message = new MimeMessage(mailSession);
+			message.setFrom(toInternetAddress(config.get("from"), config.get("fromDisplayName")));
+			final String replyTo = config.get("replyTo");
+			if (replyTo != null && !replyTo.isBlank()) {
+				message.setReplyTo(new Address[] { toInternetAddress(replyTo, config.get("replyToDisplayName")) });
+			}
+			message.setHeader("To", address);
+			message.setSubject(MimeUtility.encodeText(template.getSubject(), StandardCharsets.UTF_8.name(), null));
+			message.setContent(multipart);
+			message.saveChanges();
+			message.setSentDate(new Date());
+			return message;
+		}
+
+		private EmailAuthenticator selectAuthenticator(final Map<String, String> smtpConfig) {
+			if (!isEnabled(smtpConfig, "auth")) {
+				return authenticators.get(EmailAuthenticator.AuthenticatorType.NONE);
+			}
+			return authenticators.get(EmailAuthenticator.AuthenticatorType.valueOf(smtpConfig.getOrDefault("authType", "basic").toUpperCase()));
+		}
+
+		private Properties createProperties(final KeycloakSession session, final Map<String, String> smtpConfig) {
+			final Properties props = new Properties();
+			if (smtpConfig.containsKey("host")) {
+				props.setProperty("mail.smtp.host", smtpConfig.get("host"));
+			}
+			if (smtpConfig.get("port") != null) {
+				props.setProperty("mail.smtp.port", smtpConfig.get("port"));
+			}
+			final boolean auth = isEnabled(smtpConfig, "auth");
+			if (auth) {
+				props.setProperty("mail.smtp.auth", "true");
+			}
+			if ("token".equals(smtpConfig.get("authType"))) {
+				props.setProperty("mail.smtp.auth.mechanisms", "XOAUTH2");
+			}
+			if (isEnabled(smtpConfig, "debug")) {
+				props.setProperty("mail.debug", "true");
+			}
+			final boolean ssl = isEnabled(smtpConfig, "ssl");
+			if (ssl) {
+				props.setProperty("mail.smtp.ssl.enable", "true");
+			}
+			final boolean starttls = isEnabled(smtpConfig, "starttls");
+			if (starttls) {
+				props.setProperty("mail.smtp.starttls.enable", "true");
+			}
+			if ((ssl || starttls || auth) && SUPPORTED_SSL_PROTOCOLS != null) {
+				props.setProperty("mail.smtp.ssl.protocols", SUPPORTED_SSL_PROTOCOLS);
+				setupTruststore(session, props);
+			}
+			props.setProperty("mail.smtp.timeout", TIMEOUT_MILLIS);
+			props.setProperty("mail.smtp.connectiontimeout", TIMEOUT_MILLIS);
+			props.setProperty("mail.smtp.writetimeout", TIMEOUT_MILLIS);
+			final String envelopeFrom = smtpConfig.get("envelopeFrom");
+			if (envelopeFrom != null && !envelopeFrom.isBlank()) {
+				props.setProperty("mail.smtp.from", envelopeFrom);
+			}
+			if (isEnabled(smtpConfig, "allowutf8")) {
+				props.setProperty("mail.mime.allowutf8", "true");
+			}
+			if (smtpConfig.get("from") != null) {
+				props.setProperty("mail.from", smtpConfig.get("from"));
+			}
+			return props;
+		}
+
+		private void setupTruststore(final KeycloakSession session, final Properties props) {
+			final JSSETruststoreConfigurator configurator = new JSSETruststoreConfigurator(session);
+			final SSLSocketFactory factory = configurator.getSSLSocketFactory();
+			if (factory != null) {
+				props.put("mail.smtp.ssl.socketFactory", factory);
+				if (configurator.getProvider().getPolicy() == HostnameVerificationPolicy.ANY) {
+					props.setProperty("mail.smtp.ssl.trust", "*");
+					props.setProperty("mail.smtp.ssl.checkserveridentity", "false");
+				} else {
+					props.setProperty("mail.smtp.ssl.checkserveridentity", "true");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pooled SMTP connection.
+	 */
+	private static class PooledTransport {
+
+		private final Transport transport;
+
+		private long lastUsed;
+
+		private boolean reused;
+
+		PooledTransport(final Transport transport) {
+			this.transport = transport;
+		}
+
+		Transport getTransport() {
+			return transport;
+		}
+
+		long getLastUsed() {
+			return lastUsed;
+		}
+
+		boolean isReused() {
+			return reused;
+		}
+
+		void markReturned() {
+			lastUsed = System.currentTimeMillis();
+			reused = true;
+		}
+	}
+}
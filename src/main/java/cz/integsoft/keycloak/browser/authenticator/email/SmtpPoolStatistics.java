@@ -0,0 +1,107 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the SMTP connection pool.
+ *
+ * @author integsoft
+ */
+public class SmtpPoolStatistics {
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder sends = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder sendNanos = new LongAdder();
+	private final LongAccumulator maxSendNanos = new LongAccumulator(Math::max, 0);
+
+	void recordHit() {
+		hits.increment();
+	}
+
+	void recordMiss() {
+		misses.increment();
+	}
+
+	void recordEviction() {
+		evictions.increment();
+	}
+
+	void recordSend(final long nanos, final boolean success) {
+		sends.increment();
+		if (!success) {
+			failures.increment();
+		}
+		sendNanos.add(nanos);
+		maxSendNanos.accumulate(nanos);
+	}
+
+	/**
+	 * @return number of emails sent by a pooled connection
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of new connections
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of connections closed because they were idle or broken
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return number of sent emails
+	 */
+	public long getSendCount() {
+		return sends.sum();
+	}
+
+	/**
+	 * @return number of emails not sent
+	 */
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return share of emails sent by a pooled connection, 0 - 1
+	 */
+	public double getHitRatio() {
+		final long hitCount = hits.sum();
+		final long total = hitCount + misses.sum();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/**
+	 * @return average send time in millis including the connect
+	 */
+	public double getAverageSendMillis() {
+		final long count = sends.sum();
+		return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(sendNanos.sum()) / count / 1000;
+	}
+
+	/**
+	 * @return max send time in millis including the connect
+	 */
+	public long getMaxSendMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxSendNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("sends=%d, failures=%d, hitRatio=%.2f, evictions=%d, avgSend=%.1fms, maxSend=%dms", getSendCount(), getFailureCount(), getHitRatio(), getEvictionCount(), getAverageSendMillis(),
+				getMaxSendMillis());
+	}
+}
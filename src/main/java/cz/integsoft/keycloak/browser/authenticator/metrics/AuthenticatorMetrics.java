@@ -0,0 +1,135 @@
+package cz.integsoft.keycloak.browser.authenticator.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Timers of the authenticator steps shared by all providers. Timers are created once per name and tags and kept in constants of the instrumented classes, recording does not allocate. After
+ * {@link #register()} every timer is also published to the Micrometer global registry, so the steps are exposed by the Keycloak metrics endpoint.
+ *
+ * @author integsoft
+ */
+public final class AuthenticatorMetrics {
+
+	private static Logger logger = Logger.getLogger(AuthenticatorMetrics.class);
+
+	public static final String PASSWORD_VERIFY = "mbta.password.verify";
+	public static final String PASSWORD_LEGACY_QUEUE = "mbta.password.legacy.queue";
+	public static final String OTP_GENERATE = "mbta.otp.generate";
+	public static final String OTP_TEMPLATE_RENDER = "mbta.otp.template.render";
+	public static final String OTP_EMAIL_SEND = "mbta.otp.email.send";
+	public static final String OTP_VERIFY = "mbta.otp.verify";
+	public static final String REGISTRATION_VALIDATE = "mbta.registration.validate";
+	public static final String QUEUE_PUBLISH = "mbta.queue.publish";
+	public static final String LOGIN_THROTTLE = "mbta.login.throttle";
+
+	public static final String TAG_OUTCOME = "outcome";
+	public static final String TAG_SCOPE = "scope";
+
+	private static final AuthenticatorMetrics INSTANCE = new AuthenticatorMetrics();
+
+	private final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<>();
+
+	private MicrometerBinder binder;
+
+	private AuthenticatorMetrics() {
+	}
+
+	/**
+	 * @return metrics of this server
+	 */
+	public static AuthenticatorMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get or create timer.
+	 *
+	 * @param name metric name
+	 * @param tags tag names and values
+	 * @return timer
+	 */
+	public StepTimer timer(final String name, final String... tags) {
+		if (tags.length % 2 != 0) {
+			throw new IllegalArgumentException("Tags of " + name + " are not name value pairs");
+		}
+		final String key = name + '|' + String.join(",", tags);
+		Meter meter = meters.get(key);
+		if (meter == null) {
+			synchronized (this) {
+				meter = meters.get(key);
+				if (meter == null) {
+					meter = new Meter(name, tags.clone(), new StepTimer());
+					meters.put(key, meter);
+					if (binder != null) {
+						binder.bind(meter.name, meter.tags, meter.timer);
+					}
+				}
+			}
+		}
+		return meter.timer;
+	}
+
+	/**
+	 * Publish all timers to the Micrometer global registry. Called from postInit of the factories, the timers are published once.
+	 */
+	public synchronized void register() {
+		if (binder != null) {
+			return;
+		}
+		binder = MicrometerBinder.create();
+		if (binder == null) {
+			logger.info("Micrometer is not available, authenticator metrics are not exposed");
+			return;
+		}
+		for (final Meter meter : meters.values()) {
+			binder.bind(meter.name, meter.tags, meter.timer);
+		}
+		logger.infof("Authenticator metrics registered, %d timers", meters.size());
+	}
+
+	/**
+	 * @return timers by name and tags
+	 */
+	public Map<String, StepTimer> getTimers() {
+		final Map<String, StepTimer> timers = new TreeMap<>();
+		meters.forEach((key, meter) -> timers.put(meter.toString(), meter.timer));
+		return timers;
+	}
+
+	@Override
+	public String toString() {
+		return getTimers().toString();
+	}
+
+	/**
+	 * Timer with its name and tags.
+	 */
+	private static final class Meter {
+
+		private final String name;
+
+		private final String[] tags;
+
+		private final StepTimer timer;
+
+		Meter(final String name, final String[] tags, final StepTimer timer) {
+			this.name = name;
+			this.tags = tags;
+			this.timer = timer;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder id = new StringBuilder(name);
+			for (int i = 0; i < tags.length; i += 2) {
+				id.append(i == 0 ? '{' : ',').append(tags[i]).append('=').append(tags[i + 1]);
+			}
+			return tags.length == 0 ? id.toString() : id.append('}').toString();
+		}
+	}
+}
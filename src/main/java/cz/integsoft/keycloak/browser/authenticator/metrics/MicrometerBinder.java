@@ -0,0 +1,72 @@
+package cz.integsoft.keycloak.browser.authenticator.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Publishes timers to the Micrometer global registry of the Keycloak server. Micrometer is provided by the server only when metrics are enabled and it is not a build dependency of the plugin, so the
+ * registry is looked up by reflection. Every timer is published as a function timer reading the counters of {@link StepTimer}.
+ *
+ * @author integsoft
+ */
+final class MicrometerBinder {
+
+	private static Logger logger = Logger.getLogger(MicrometerBinder.class);
+
+	private static final String METRICS_CLASS = "io.micrometer.core.instrument.Metrics";
+	private static final String REGISTRY_CLASS = "io.micrometer.core.instrument.MeterRegistry";
+	private static final String FUNCTION_TIMER_CLASS = "io.micrometer.core.instrument.FunctionTimer";
+
+	private static final ToLongFunction<StepTimer> COUNT = StepTimer::getCount;
+	private static final ToDoubleFunction<StepTimer> TOTAL_NANOS = StepTimer::getTotalNanos;
+
+	private final Object registry;
+
+	private final Class<?> registryClass;
+
+	private final Method builder;
+
+	private MicrometerBinder(final Object registry, final Class<?> registryClass, final Method builder) {
+		this.registry = registry;
+		this.registryClass = registryClass;
+		this.builder = builder;
+	}
+
+	/**
+	 * @return binder or null if Micrometer is not on the class path
+	 */
+	static MicrometerBinder create() {
+		final ClassLoader classLoader = MicrometerBinder.class.getClassLoader();
+		try {
+			final Object registry = Class.forName(METRICS_CLASS, true, classLoader).getField("globalRegistry").get(null);
+			final Class<?> registryClass = Class.forName(REGISTRY_CLASS, false, classLoader);
+			final Method builder = Class.forName(FUNCTION_TIMER_CLASS, false, classLoader).getMethod("builder", String.class, Object.class, ToLongFunction.class, ToDoubleFunction.class,
+					TimeUnit.class);
+			return new MicrometerBinder(registry, registryClass, builder);
+		} catch (final ReflectiveOperationException | LinkageError e) {
+			logger.debugf("Micrometer not found: %s", e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Publish timer, errors are logged.
+	 *
+	 * @param name metric name
+	 * @param tags tag names and values
+	 * @param timer timer
+	 */
+	void bind(final String name, final String[] tags, final StepTimer timer) {
+		try {
+			final Object timerBuilder = builder.invoke(null, name, timer, COUNT, TOTAL_NANOS, TimeUnit.NANOSECONDS);
+			final Object taggedBuilder = timerBuilder.getClass().getMethod("tags", String[].class).invoke(timerBuilder, (Object) tags);
+			taggedBuilder.getClass().getMethod("register", registryClass).invoke(taggedBuilder, registry);
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			logger.warnf(e, "Unable to register metric %s", name);
+		}
+	}
+}
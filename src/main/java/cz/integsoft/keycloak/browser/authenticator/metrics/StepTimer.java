@@ -0,0 +1,71 @@
+package cz.integsoft.keycloak.browser.authenticator.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number and duration of the executions of one authenticator step with one outcome.
+ *
+ * @author integsoft
+ */
+public class StepTimer {
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record one execution.
+	 *
+	 * @param startNanos {@link System#nanoTime()} at the start of the step
+	 */
+	public void stop(final long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Record one execution.
+	 *
+	 * @param nanos duration of the step
+	 */
+	public void record(final long nanos) {
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * @return number of executions
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return total duration of the executions in nanos
+	 */
+	public double getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * @return average duration in millis
+	 */
+	public double getAverageMillis() {
+		final long executions = count.sum();
+		return executions == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalNanos.sum()) / executions / 1000;
+	}
+
+	/**
+	 * @return max duration in millis
+	 */
+	public long getMaxMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d, avg=%.2fms, max=%dms", getCount(), getAverageMillis(), getMaxMillis());
+	}
+}
@@ -1,6 +1,8 @@
 package cz.integsoft.keycloak.browser.authenticator.model.cache;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 /**
  * Model vygenerovaneho kodu ulozeneho v cache.
@@ -15,6 +17,8 @@ public class CachedCode implements Serializable {
 
 	private int accessCount;
 
+	private long expiresAt;
+
 	/**
 	 * Konstruktor.
 	 */
@@ -33,6 +37,54 @@ public class CachedCode implements Serializable {
 		this.accessCount = 0;
 	}
 
+	/**
+	 * Konstruktor.
+	 *
+	 * @param code kod
+	 * @param accessCount pocet pristupu ke kodu
+	 * @param expiresAt cas expirace kodu v ms
+	 */
+	public CachedCode(final String code, final int accessCount, final long expiresAt) {
+		super();
+		this.code = code;
+		this.accessCount = accessCount;
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Prevede kod z textove podoby ulozene v cache.
+	 *
+	 * @param value textova podoba kodu
+	 * @return kod
+	 */
+	public static CachedCode parse(final String value) {
+		final int accessCountEnd = value.indexOf(':');
+		final int expiresAtEnd = value.indexOf(':', accessCountEnd + 1);
+		return new CachedCode(value.substring(expiresAtEnd + 1), Integer.parseInt(value.substring(0, accessCountEnd)), Long.parseLong(value.substring(accessCountEnd + 1, expiresAtEnd)));
+	}
+
+	/**
+	 * Textova podoba kodu pro ulozeni v cache, retezce nepotrebuji v clusteru zadne dalsi schema pro serializaci.
+	 *
+	 * @return textova podoba kodu
+	 */
+	public String format() {
+		return accessCount + ":" + expiresAt + ":" + code;
+	}
+
+	/**
+	 * Porovna zadany kod s kodem v konstantnim case, doba porovnani nezavisi na shode prvnich znaku.
+	 *
+	 * @param enteredCode zadany kod, muze byt null
+	 * @return true - kod souhlasi / jinak false
+	 */
+	public boolean matches(final String enteredCode) {
+		if (code == null || enteredCode == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(code.getBytes(StandardCharsets.UTF_8), enteredCode.getBytes(StandardCharsets.UTF_8));
+	}
+
 	/**
 	 * Zvysi hodnotu pristupu ke kodu.
 	 *
@@ -63,4 +115,18 @@ public class CachedCode implements Serializable {
 	public int getAccessCount() {
 		return accessCount;
 	}
+
+	/**
+	 * @return the expiresAt
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * @param expiresAt the expiresAt to set
+	 */
+	public void setExpiresAt(final long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
 }
@@ -0,0 +1,83 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+/**
+ * BCrypt password hashes as Keycloak credentials. The legacy hashes of the password attribute are stored verbatim, the cost is kept as the hash iterations, the salt is a part of the hash.
+ *
+ * @author integsoft
+ */
+public class BCryptPasswordHashProvider implements PasswordHashProvider {
+
+	public static final String ID = "bcrypt";
+
+	public static final int DEFAULT_COST = 10;
+
+	private static final Pattern HASH = Pattern.compile("\\$2[aby]\\$(\\d{2})\\$[./A-Za-z0-9]{53}");
+
+	private static final byte[] NO_SALT = new byte[0];
+
+	@Override
+	public boolean policyCheck(final PasswordPolicy policy, final PasswordCredentialModel credential) {
+		final int policyCost = policy == null ? -1 : policy.getHashIterations();
+		return ID.equals(credential.getPasswordCredentialData().getAlgorithm()) && credential.getPasswordCredentialData().getHashIterations() == (policyCost == -1 ? DEFAULT_COST : policyCost);
+	}
+
+	@Override
+	public PasswordCredentialModel encodedCredential(final String rawPassword, final int iterations) {
+		final int cost = iterations == -1 ? DEFAULT_COST : iterations;
+		return PasswordCredentialModel.createFromValues(ID, NO_SALT, cost, BCrypt.hashpw(rawPassword, BCrypt.gensalt(cost)));
+	}
+
+	@Override
+	public boolean verify(final String rawPassword, final PasswordCredentialModel credential) {
+		try {
+			return BCrypt.checkpw(rawPassword, normalize(credential.getPasswordSecretData().getValue()));
+		} catch (final IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+	/**
+	 * @param hash legacy hash
+	 * @return true - the hash is a BCrypt hash
+	 */
+	public static boolean isHash(final String hash) {
+		return hash != null && HASH.matcher(hash).matches();
+	}
+
+	/**
+	 * Credential with the legacy hash.
+	 *
+	 * @param hash legacy BCrypt hash, see {@link #isHash(String)}
+	 * @return credential
+	 */
+	public static PasswordCredentialModel credentialOf(final String hash) {
+		final Matcher matcher = HASH.matcher(hash);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("Not a BCrypt hash");
+		}
+		return PasswordCredentialModel.createFromValues(ID, NO_SALT, Integer.parseInt(matcher.group(1)), hash);
+	}
+
+	/**
+	 * The PHP $2y$ hashes are the same as $2a$.
+	 *
+	 * @param hash BCrypt hash
+	 * @return hash accepted by {@link BCrypt}
+	 */
+	public static String normalize(final String hash) {
+		return hash.startsWith("$2y$") ? "$2a$" + hash.substring(4) : hash;
+	}
+}
@@ -0,0 +1,42 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import org.keycloak.Config;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.credential.hash.PasswordHashProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Factory for BCrypt password hashes.
+ *
+ * @author integsoft
+ */
+public class BCryptPasswordHashProviderFactory implements PasswordHashProviderFactory {
+
+	private static final BCryptPasswordHashProvider SINGLETON = new BCryptPasswordHashProvider();
+
+	@Override
+	public PasswordHashProvider create(final KeycloakSession session) {
+		return SINGLETON;
+	}
+
+	@Override
+	public void init(final Config.Scope config) {
+
+	}
+
+	@Override
+	public void postInit(final KeycloakSessionFactory factory) {
+
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+	@Override
+	public String getId() {
+		return BCryptPasswordHashProvider.ID;
+	}
+}
@@ -0,0 +1,99 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import org.jboss.logging.Logger;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Re-hash of the BCrypt credentials with the hash algorithm of the realm password policy. The password is hashed by the verifier threads after the login transaction is committed, so the login does
+ * not wait for the second hash. A busy verifier skips the re-hash, the password is re-hashed at one of the next logins.
+ *
+ * @author integsoft
+ */
+public class BCryptRehash {
+
+	private static Logger logger = Logger.getLogger(BCryptRehash.class);
+
+	private final LegacyPasswordVerifier verifier;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param verifier verifier running the re-hash
+	 */
+	public BCryptRehash(final LegacyPasswordVerifier verifier) {
+		this.verifier = verifier;
+	}
+
+	/**
+	 * Re-hash the verified password after the login.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param user logged in user
+	 * @param password verified password
+	 * @param hash BCrypt hash of the credential
+	 */
+	public void schedule(final KeycloakSession session, final UserModel user, final String password, final String hash) {
+		final KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+		final String realmId = session.getContext().getRealm().getId();
+		final String userId = user.getId();
+		session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+
+			@Override
+			protected void commitImpl() {
+				if (!verifier.execute(() -> rehash(sessionFactory, realmId, userId, password, hash))) {
+					logger.debugf("Password verifier is busy, password of user %s is not re-hashed", userId);
+				}
+			}
+
+			@Override
+			protected void rollbackImpl() {
+
+			}
+		});
+	}
+
+	private void rehash(final KeycloakSessionFactory sessionFactory, final String realmId, final String userId, final String password, final String hash) {
+		try {
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				final RealmModel realm = session.realms().getRealm(realmId);
+				session.getContext().setRealm(realm);
+				final UserModel user = session.users().getUserById(realm, userId);
+				if (user == null) {
+					return;
+				}
+				final CredentialModel stored = user.credentialManager().getStoredCredentialsByTypeStream(PasswordCredentialModel.TYPE).findFirst().orElse(null);
+				if (stored == null) {
+					return;
+				}
+				final PasswordCredentialModel credential = PasswordCredentialModel.createFromCredentialModel(stored);
+				// the password was changed meanwhile
+				if (!BCryptPasswordHashProvider.ID.equals(credential.getPasswordCredentialData().getAlgorithm()) || !hash.equals(credential.getPasswordSecretData().getValue())) {
+					return;
+				}
+				final PasswordPolicy policy = realm.getPasswordPolicy();
+				final PasswordHashProvider hashProvider = policy.getHashAlgorithm() == null ? session.getProvider(PasswordHashProvider.class)
+						: session.getProvider(PasswordHashProvider.class, policy.getHashAlgorithm());
+				if (hashProvider == null || hashProvider.policyCheck(policy, credential)) {
+					return;
+				}
+				final PasswordCredentialModel rehashed = hashProvider.encodedCredential(password, policy.getHashIterations());
+				rehashed.setId(credential.getId());
+				rehashed.setCreatedDate(credential.getCreatedDate());
+				rehashed.setUserLabel(credential.getUserLabel());
+				user.credentialManager().updateStoredCredential(rehashed);
+				logger.debugf("Password of user %s re-hashed with %s", userId, rehashed.getPasswordCredentialData().getAlgorithm());
+			});
+		} catch (final RuntimeException e) {
+			logger.warnf(e, "Unable to re-hash password of user %s", userId);
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.representations.idm.CredentialRepresentation;
+
+/**
+ * Migration of the legacy BCrypt hashes of the password user attribute to Keycloak credentials of one realm. Only users with the attribute are read, in pages ordered by user id, each page in its own
+ * transaction, by a few threads limited to the given number of users per second. A page is read after the last id of the previous page, so reading a page costs the same at the end of the realm as at
+ * its start. The hashes are stored verbatim as {@link BCryptPasswordHashProvider} credentials, nothing is hashed again. The last user id of the processed pages is stored in the realm attribute, a
+ * stopped or failed migration continues after it.
+ *
+ * @author integsoft
+ */
+public class LegacyPasswordMigration {
+
+	private static Logger logger = Logger.getLogger(LegacyPasswordMigration.class);
+
+	public static final String CHECKPOINT_ATTRIBUTE = "mbtaPasswordMigrationCheckpoint";
+
+	private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final long STOP_TIMEOUT_SECONDS = 30L;
+
+	// users with the legacy password attribute after the given id, the attribute is removed by the migration, so the set shrinks as the migration goes
+	private static final String PAGE_QUERY = "select distinct a.user.id from UserAttributeEntity a where a.name = :name and a.user.realmId = :realmId and a.user.id > :lastId order by a.user.id";
+
+	/**
+	 * State of the migration.
+	 */
+	public enum State {
+		RUNNING, STOPPED, FINISHED, FAILED
+	}
+
+	private final KeycloakSessionFactory sessionFactory;
+
+	private final String realmId;
+
+	private final int pageSize;
+
+	private final int threads;
+
+	private final long nanosPerPage;
+
+	private final ExecutorService executor;
+
+	private final Object readLock = new Object();
+
+	private final AtomicInteger runningWorkers = new AtomicInteger();
+
+	// last user id by number of the pages completed out of order
+	private final TreeMap<Integer, String> completedPages = new TreeMap<>();
+
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder migrated = new LongAdder();
+	private final LongAdder alreadyMigrated = new LongAdder();
+	private final LongAdder invalid = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	private String startAfter;
+
+	// reading state, guarded by readLock
+	private int nextPage;
+
+	private String lastReadId;
+
+	private int checkpointPage;
+
+	private String checkpointId;
+
+	private long checkpointSavedNanos;
+
+	private long nextPageNanos;
+
+	private volatile boolean stopRequested;
+
+	private volatile State state = State.RUNNING;
+
+	private volatile String error;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sessionFactory {@link KeycloakSessionFactory}
+	 * @param realmId realm id
+	 * @param pageSize number of users read in one transaction
+	 * @param threads number of migrating threads
+	 * @param usersPerSecond maximum number of users read per second
+	 */
+	public LegacyPasswordMigration(final KeycloakSessionFactory sessionFactory, final String realmId, final int pageSize, final int threads, final int usersPerSecond) {
+		this.sessionFactory = sessionFactory;
+		this.realmId = realmId;
+		this.pageSize = pageSize;
+		this.threads = threads;
+		this.nanosPerPage = TimeUnit.SECONDS.toNanos(pageSize) / usersPerSecond;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			final Thread thread = new Thread(r, "mbta-password-migration-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start the migration from the stored checkpoint.
+	 */
+	public void start() {
+		final String checkpoint = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> session.realms().getRealm(realmId).getAttribute(CHECKPOINT_ATTRIBUTE));
+		startAfter = checkpoint == null ? "" : checkpoint;
+		checkpointId = startAfter;
+		lastReadId = startAfter;
+		checkpointSavedNanos = System.nanoTime();
+		logger.infof("Legacy password migration of realm %s started after user '%s', %d threads, page %d", realmId, startAfter, threads, pageSize);
+		runningWorkers.set(threads);
+		for (int i = 0; i < threads; i++) {
+			executor.execute(this::migratePages);
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Stop the migration after the pages being migrated, the checkpoint is stored.
+	 */
+	public void stop() {
+		stopRequested = true;
+		try {
+			if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				logger.warnf("Legacy password migration of realm %s did not stop in %d s", realmId, STOP_TIMEOUT_SECONDS);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true - the migration is running
+	 */
+	public boolean isRunning() {
+		return state == State.RUNNING;
+	}
+
+	/**
+	 * @return state and progress of the migration
+	 */
+	public synchronized Map<String, Object> getStatus() {
+		final Map<String, Object> status = new LinkedHashMap<>();
+		status.put("state", state);
+		status.put("startAfter", startAfter);
+		status.put("checkpoint", checkpointId);
+		status.put("scanned", scanned.sum());
+		status.put("migrated", migrated.sum());
+		status.put("alreadyMigrated", alreadyMigrated.sum());
+		status.put("invalid", invalid.sum());
+		status.put("failed", failed.sum());
+		if (error != null) {
+			status.put("error", error);
+		}
+		return status;
+	}
+
+	private void migratePages() {
+		try {
+			while (!stopRequested && !Thread.currentThread().isInterrupted()) {
+				throttle();
+				final Page page = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, this::migratePage);
+				if (page == null) {
+					break;
+				}
+				completePage(page);
+			}
+		} catch (final RuntimeException e) {
+			logger.errorf(e, "Legacy password migration of realm %s failed", realmId);
+			error = e.toString();
+			stopRequested = true;
+		} finally {
+			if (runningWorkers.decrementAndGet() == 0) {
+				finish();
+			}
+		}
+	}
+
+	/**
+	 * @return migrated page, null - no users left
+	 */
+	private Page migratePage(final KeycloakSession session) {
+		final RealmModel realm = session.realms().getRealm(realmId);
+		session.getContext().setRealm(realm);
+		final Page page = readPage(session);
+		if (page == null) {
+			return null;
+		}
+		for (final String userId : page.userIds) {
+			scanned.increment();
+			final UserModel user = session.users().getUserById(realm, userId);
+			final String hash = user == null ? null : user.getFirstAttribute(CredentialRepresentation.PASSWORD);
+			if (hash != null) {
+				migrateUser(user, hash);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Read ids of the next page, the pages are read one by one, each after the last id of the previous one, the users of the pages are migrated in parallel.
+	 */
+	private Page readPage(final KeycloakSession session) {
+		synchronized (readLock) {
+			final List<String> userIds = session.getProvider(JpaConnectionProvider.class).getEntityManager().createQuery(PAGE_QUERY, String.class).setParameter("name", CredentialRepresentation.PASSWORD)
+					.setParameter("realmId", realmId).setParameter("lastId", lastReadId).setMaxResults(pageSize).getResultList();
+			if (userIds.isEmpty()) {
+				return null;
+			}
+			lastReadId = userIds.get(userIds.size() - 1);
+			return new Page(nextPage++, userIds);
+		}
+	}
+
+	private void migrateUser(final UserModel user, final String hash) {
+		try {
+			if (user.credentialManager().isConfiguredFor(CredentialRepresentation.PASSWORD)) {
+				user.removeAttribute(CredentialRepresentation.PASSWORD);
+				alreadyMigrated.increment();
+				return;
+			}
+			if (!BCryptPasswordHashProvider.isHash(hash)) {
+				logger.warnf("User %s has an unknown legacy password hash, not migrated", user.getId());
+				invalid.increment();
+				return;
+			}
+			user.credentialManager().createStoredCredential(BCryptPasswordHashProvider.credentialOf(hash));
+			user.removeAttribute(CredentialRepresentation.PASSWORD);
+			migrated.increment();
+		} catch (final ModelException e) {
+			logger.warnf(e, "Unable to migrate legacy password of user %s", user.getId());
+			failed.increment();
+		}
+	}
+
+	private void throttle() {
+		final long wait;
+		synchronized (this) {
+			final long now = System.nanoTime();
+			nextPageNanos = Math.max(nextPageNanos, now) + nanosPerPage;
+			wait = nextPageNanos - nanosPerPage - now;
+		}
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void completePage(final Page page) {
+		final String checkpoint;
+		synchronized (this) {
+			completedPages.put(page.number, page.userIds.get(page.userIds.size() - 1));
+			String lastId;
+			while ((lastId = completedPages.remove(checkpointPage)) != null) {
+				checkpointId = lastId;
+				checkpointPage++;
+			}
+			final long now = System.nanoTime();
+			if (now - checkpointSavedNanos < CHECKPOINT_INTERVAL_NANOS) {
+				return;
+			}
+			checkpointSavedNanos = now;
+			checkpoint = checkpointId;
+		}
+		saveCheckpoint(checkpoint);
+	}
+
+	private void finish() {
+		final boolean finished = !stopRequested;
+		final String checkpoint;
+		synchronized (this) {
+			checkpoint = checkpointId;
+			state = error != null ? State.FAILED : finished ? State.FINISHED : State.STOPPED;
+		}
+		// the next migration of a finished realm starts again from the first user
+		saveCheckpoint(finished || checkpoint.isEmpty() ? null : checkpoint);
+		logger.infof("Legacy password migration of realm %s %s: %s", realmId, state, getStatus());
+	}
+
+	private void saveCheckpoint(final String checkpoint) {
+		try {
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				final RealmModel realm = session.realms().getRealm(realmId);
+				if (checkpoint == null) {
+					realm.removeAttribute(CHECKPOINT_ATTRIBUTE);
+				} else {
+					realm.setAttribute(CHECKPOINT_ATTRIBUTE, checkpoint);
+				}
+			});
+		} catch (final RuntimeException e) {
+			logger.warnf(e, "Unable to store legacy password migration checkpoint of realm %s", realmId);
+		}
+	}
+
+	/**
+	 * Page of user ids in the reading order.
+	 */
+	private static final class Page {
+
+		private final int number;
+
+		private final List<String> userIds;
+
+		Page(final int number, final List<String> userIds) {
+			this.number = number;
+			this.userIds = userIds;
+		}
+	}
+}
\ No newline at end of file
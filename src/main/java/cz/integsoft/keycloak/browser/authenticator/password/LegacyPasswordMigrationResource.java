@@ -0,0 +1,119 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Admin REST resource of the legacy password migration of the realm. POST starts the migration, GET returns its progress, DELETE stops it. Requires the manage users permission, the view users
+ * permission for the progress.
+ *
+ * @author integsoft
+ */
+public class LegacyPasswordMigrationResource {
+
+	private static final int MAX_PAGE_SIZE = 5000;
+	private static final int MAX_THREADS = 16;
+
+	private final KeycloakSession session;
+
+	private final RealmModel realm;
+
+	private final AdminPermissionEvaluator auth;
+
+	private final AdminEventBuilder adminEvent;
+
+	private final ConcurrentMap<String, LegacyPasswordMigration> migrations;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param realm realm
+	 * @param auth {@link AdminPermissionEvaluator}
+	 * @param adminEvent {@link AdminEventBuilder}
+	 * @param migrations migrations of this server by realm id
+	 */
+	public LegacyPasswordMigrationResource(final KeycloakSession session, final RealmModel realm, final AdminPermissionEvaluator auth, final AdminEventBuilder adminEvent,
+			final ConcurrentMap<String, LegacyPasswordMigration> migrations) {
+		this.session = session;
+		this.realm = realm;
+		this.auth = auth;
+		this.adminEvent = adminEvent;
+		this.migrations = migrations;
+	}
+
+	/**
+	 * Start the migration.
+	 *
+	 * @param pageSize number of users read in one transaction
+	 * @param threads number of migrating threads
+	 * @param usersPerSecond maximum number of users read per second
+	 * @return 202 with the progress, 409 if the migration is running
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response start(@QueryParam("pageSize") @DefaultValue("500") final int pageSize, @QueryParam("threads") @DefaultValue("2") final int threads,
+			@QueryParam("usersPerSecond") @DefaultValue("500") final int usersPerSecond) {
+		auth.users().requireManage();
+		if (pageSize < 1 || pageSize > MAX_PAGE_SIZE || threads < 1 || threads > MAX_THREADS || usersPerSecond < 1) {
+			return Response.status(Response.Status.BAD_REQUEST).entity(Map.of("error", "pageSize 1-" + MAX_PAGE_SIZE + ", threads 1-" + MAX_THREADS + ", usersPerSecond > 0")).build();
+		}
+
+		final LegacyPasswordMigration migration = new LegacyPasswordMigration(session.getKeycloakSessionFactory(), realm.getId(), pageSize, threads, usersPerSecond);
+		final LegacyPasswordMigration running = migrations.compute(realm.getId(), (realmId, current) -> current != null && current.isRunning() ? current : migration);
+		if (running != migration) {
+			return Response.status(Response.Status.CONFLICT).entity(running.getStatus()).build();
+		}
+		migration.start();
+		adminEvent.operation(OperationType.ACTION).resourcePath(session.getContext().getUri()).detail("pageSize", Integer.toString(pageSize)).detail("threads", Integer.toString(threads))
+				.detail("usersPerSecond", Integer.toString(usersPerSecond)).success();
+		return Response.accepted(migration.getStatus()).build();
+	}
+
+	/**
+	 * @return progress of the last migration on this server, 404 if none
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response status() {
+		auth.users().requireView();
+		final LegacyPasswordMigration migration = migrations.get(realm.getId());
+		if (migration == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(migration.getStatus()).build();
+	}
+
+	/**
+	 * Stop the migration.
+	 *
+	 * @return progress of the stopped migration, 404 if none
+	 */
+	@DELETE
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response stop() {
+		auth.users().requireManage();
+		final LegacyPasswordMigration migration = migrations.get(realm.getId());
+		if (migration == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		migration.stop();
+		adminEvent.operation(OperationType.ACTION).resourcePath(session.getContext().getUri()).detail("stop", "true").success();
+		return Response.ok(migration.getStatus()).build();
+	}
+}
@@ -0,0 +1,61 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProviderFactory;
+import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+
+/**
+ * Admin REST endpoint /admin/realms/{realm}/mbta-password-migration of the legacy password migration.
+ *
+ * @author integsoft
+ */
+public class LegacyPasswordMigrationResourceProviderFactory implements AdminRealmResourceProviderFactory {
+
+	public static final String PROVIDER_ID = "mbta-password-migration";
+
+	private final ConcurrentMap<String, LegacyPasswordMigration> migrations = new ConcurrentHashMap<>();
+
+	@Override
+	public AdminRealmResourceProvider create(final KeycloakSession session) {
+		return new AdminRealmResourceProvider() {
+
+			@Override
+			public Object getResource(final KeycloakSession requestSession, final RealmModel realm, final AdminPermissionEvaluator auth, final AdminEventBuilder adminEvent) {
+				return new LegacyPasswordMigrationResource(requestSession, realm, auth, adminEvent, migrations);
+			}
+
+			@Override
+			public void close() {
+
+			}
+		};
+	}
+
+	@Override
+	public void init(final Config.Scope config) {
+
+	}
+
+	@Override
+	public void postInit(final KeycloakSessionFactory factory) {
+
+	}
+
+	@Override
+	public void close() {
+		migrations.values().stream().filter(LegacyPasswordMigration::isRunning).forEach(LegacyPasswordMigration::stop);
+	}
+
+	@Override
+	public String getId() {
+		return PROVIDER_ID;
+	}
+}
@@ -0,0 +1,144 @@
+package cz.integsoft.keycloak.browser.authenticator.password;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
+
+/**
+ * Verifies passwords against the legacy BCrypt hashes of the user attribute and of the migrated credentials. BCrypt costs tens to hundreds of millis of CPU, so the hashes are checked by a small
+ * pool of dedicated threads with a bounded queue. A login arriving when the queue is full, or waiting longer than the timeout, is rejected at once instead of taking a request thread for the whole
+ * burst.
+ *
+ * @author integsoft
+ */
+public class LegacyPasswordVerifier {
+
+	private static Logger logger = Logger.getLogger(LegacyPasswordVerifier.class);
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+	private static final StepTimer EXECUTED_TIMER = poolTimer("executed");
+	private static final StepTimer REJECTED_TIMER = poolTimer("rejected");
+	private static final StepTimer TIMEOUT_TIMER = poolTimer("timeout");
+
+	/**
+	 * Result of the verification.
+	 */
+	public enum Result {
+		VALID, INVALID, BUSY
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	private final long timeoutMillis;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threads number of verifying threads
+	 * @param maxQueued maximum number of passwords waiting for a thread
+	 * @param timeoutMillis maximum time of the verification including the wait in the queue
+	 */
+	public LegacyPasswordVerifier(final int threads, final int maxQueued, final long timeoutMillis) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueued), r -> {
+			final Thread thread = new Thread(r, "mbta-bcrypt-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timeoutMillis = timeoutMillis;
+		logger.infof("Legacy password verifier uses %d threads, queue %d, timeout %d ms", threads, maxQueued, timeoutMillis);
+	}
+
+	/**
+	 * Verify password.
+	 *
+	 * @param password entered password
+	 * @param hash BCrypt hash
+	 * @return {@link Result}
+	 */
+	public Result verify(final String password, final String hash) {
+		final long start = System.nanoTime();
+		final Future<Boolean> check;
+		try {
+			check = executor.submit(() -> {
+				EXECUTED_TIMER.stop(start);
+				return BCrypt.checkpw(password, BCryptPasswordHashProvider.normalize(hash));
+			});
+		} catch (final RejectedExecutionException e) {
+			REJECTED_TIMER.stop(start);
+			logger.warnf("Legacy password verifier is busy, %d passwords queued", executor.getQueue().size());
+			return Result.BUSY;
+		}
+
+		try {
+			return check.get(timeoutMillis, TimeUnit.MILLISECONDS) ? Result.VALID : Result.INVALID;
+		} catch (final TimeoutException e) {
+			check.cancel(true);
+			TIMEOUT_TIMER.stop(start);
+			logger.warnf("Legacy password verification timed out after %d ms", timeoutMillis);
+			return Result.BUSY;
+		} catch (final InterruptedException e) {
+			check.cancel(true);
+			Thread.currentThread().interrupt();
+			return Result.BUSY;
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Legacy password verification failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Run password hashing task by the verifying threads, e.g. re-hash of a verified password.
+	 *
+	 * @param task task
+	 * @return true - the task was accepted / false - the queue is full
+	 */
+	public boolean execute(final Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (final RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return number of passwords waiting for a thread
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Stop the verifying threads.
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static StepTimer poolTimer(final String outcome) {
+		return AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.PASSWORD_LEGACY_QUEUE, AuthenticatorMetrics.TAG_OUTCOME, outcome);
+	}
+}
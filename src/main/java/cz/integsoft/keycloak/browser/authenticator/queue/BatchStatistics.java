@@ -0,0 +1,86 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of batches sent by {@link QueueBatcher}.
+ *
+ * @author integsoft
+ */
+public class BatchStatistics {
+
+	private final int maxBatchMessages;
+
+	private final LongAdder batches = new LongAdder();
+
+	private final LongAdder messages = new LongAdder();
+
+	private final LongAdder lingerMillis = new LongAdder();
+
+	private final LongAccumulator maxLingerMillis = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBatchMessages maximum number of messages in a batch
+	 */
+	public BatchStatistics(final int maxBatchMessages) {
+		this.maxBatchMessages = maxBatchMessages;
+	}
+
+	/**
+	 * Record a sent batch.
+	 *
+	 * @param size number of messages in the batch
+	 * @param linger time the oldest message of the batch waited in millis
+	 */
+	void record(final int size, final long linger) {
+		batches.increment();
+		messages.add(size);
+		lingerMillis.add(linger);
+		maxLingerMillis.accumulate(linger);
+	}
+
+	/**
+	 * @return number of sent batches
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return number of sent messages
+	 */
+	public long getMessageCount() {
+		return messages.sum();
+	}
+
+	/**
+	 * @return average number of messages in a batch divided by the maximum batch size
+	 */
+	public double getFillRatio() {
+		final long count = batches.sum();
+		return count == 0 ? 0 : (double) messages.sum() / (count * maxBatchMessages);
+	}
+
+	/**
+	 * @return average time the oldest message of a batch waited in millis
+	 */
+	public double getAverageLingerMillis() {
+		final long count = batches.sum();
+		return count == 0 ? 0 : (double) lingerMillis.sum() / count;
+	}
+
+	/**
+	 * @return maximum time the oldest message of a batch waited in millis
+	 */
+	public long getMaxLingerMillis() {
+		return maxLingerMillis.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("batches=%d, messages=%d, fillRatio=%.2f, avgLingerMillis=%.1f, maxLingerMillis=%d", getBatchCount(), getMessageCount(), getFillRatio(), getAverageLingerMillis(), getMaxLingerMillis());
+	}
+}
@@ -0,0 +1,372 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Local append-only journal of messages waiting for delivery. Every record is forced to disk before {@link #append(String)} returns, the generation of the current journal segment and the offset of the
+ * last delivered record in it are kept in a checkpoint file next to the journal. Record format is one line per message: {@code <crc32>\t<created millis>\t<payload>}. On recovery a record with a wrong
+ * checksum is skipped and a record without the new line, left by a crash during append, is removed.
+ * <p>
+ * Once the delivered part of the segment passes the compaction threshold, the undelivered records are copied to the segment of the next generation and the checkpoint is replaced by the new generation
+ * with offset 0. The replacement of the checkpoint is the only commit point, a crash before it recovers from the old segment, a crash after it from the new one, the segment which is not referenced by
+ * the checkpoint is removed on recovery.
+ *
+ * @author integsoft
+ */
+public class OutboxJournal implements Closeable {
+
+	private static Logger logger = Logger.getLogger(OutboxJournal.class);
+
+	private static final long DEFAULT_COMPACT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+	private static final int READ_BUFFER_SIZE = 65536;
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final char SEPARATOR = '\t';
+	private static final byte NEW_LINE = '\n';
+	private static final int RADIX = 16;
+
+	private final Path journalFile;
+
+	private final Path checkpointFile;
+
+	private final long compactThresholdBytes;
+
+	private final Deque<Entry> pending = new ArrayDeque<>();
+
+	private FileChannel channel;
+
+	private long generation;
+
+	/**
+	 * Constructor. Opens the journal and loads records not yet delivered.
+	 *
+	 * @param journalFile journal file
+	 * @throws IOException journal cannot be opened
+	 */
+	public OutboxJournal(final Path journalFile) throws IOException {
+		this(journalFile, DEFAULT_COMPACT_THRESHOLD_BYTES);
+	}
+
+	/**
+	 * Constructor. Opens the journal and loads records not yet delivered.
+	 *
+	 * @param journalFile journal file
+	 * @param compactThresholdBytes size of the delivered records after which the segment is compacted
+	 * @throws IOException journal cannot be opened
+	 */
+	OutboxJournal(final Path journalFile, final long compactThresholdBytes) throws IOException {
+		this.journalFile = journalFile;
+		this.checkpointFile = journalFile.resolveSibling(journalFile.getFileName() + CHECKPOINT_SUFFIX);
+		this.compactThresholdBytes = compactThresholdBytes;
+		if (journalFile.getParent() != null) {
+			Files.createDirectories(journalFile.getParent());
+		}
+		recover();
+	}
+
+	/**
+	 * Append a message to the journal.
+	 *
+	 * @param payload message
+	 * @return journal entry
+	 * @throws IOException write error
+	 */
+	public synchronized Entry append(final String payload) throws IOException {
+		final long created = System.currentTimeMillis();
+		final String record = created + String.valueOf(SEPARATOR) + payload;
+		final String line = Long.toHexString(crc(record)) + SEPARATOR + record + (char) NEW_LINE;
+		final ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+
+		long position = channel.size();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		channel.force(false);
+
+		final Entry entry = new Entry(payload, created, position);
+		pending.addLast(entry);
+		return entry;
+	}
+
+	/**
+	 * @return the oldest undelivered entry or null
+	 */
+	public synchronized Entry peek() {
+		return pending.peekFirst();
+	}
+
+	/**
+	 * @param max maximum number of entries
+	 * @return the oldest undelivered entries
+	 */
+	public synchronized List<Entry> peek(final int max) {
+		final List<Entry> entries = new ArrayList<>(Math.min(max, pending.size()));
+		for (final Entry entry : pending) {
+			if (entries.size() >= max) {
+				break;
+			}
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+	/**
+	 * Mark the entry and all older entries as delivered. The segment is compacted once the delivered records pass the compaction threshold.
+	 *
+	 * @param entry last delivered entry
+	 * @throws IOException write error
+	 */
+	public synchronized void acknowledge(final Entry entry) throws IOException {
+		if (!pending.contains(entry)) {
+			return;
+		}
+		while (pending.pollFirst() != entry) {
+			// drop older entries
+		}
+		if (entry.endOffset >= compactThresholdBytes) {
+			compact(entry.endOffset);
+		} else {
+			writeCheckpoint(generation, entry.endOffset);
+		}
+	}
+
+	/**
+	 * @return number of undelivered entries
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * @return size of the current segment in bytes
+	 * @throws IOException read error
+	 */
+	synchronized long segmentSize() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Copy the undelivered records to the segment of the next generation and switch to it.
+	 *
+	 * @param delivered offset of the end of the last delivered record
+	 */
+	private void compact(final long delivered) throws IOException {
+		final long next = generation + 1;
+		final Path segment = segment(next);
+		final Path tmp = segment.resolveSibling(segment.getFileName() + TMP_SUFFIX);
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final long size = channel.size();
+			long position = delivered;
+			while (position < size) {
+				position += channel.transferTo(position, size - position, out);
+			}
+			out.force(false);
+		}
+		Files.move(tmp, segment, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		// commit point, the old segment is not used from here on
+		writeCheckpoint(next, 0);
+
+		final Path old = segment(generation);
+		channel.close();
+		channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		generation = next;
+		for (final Entry pendingEntry : pending) {
+			pendingEntry.endOffset -= delivered;
+		}
+		Files.deleteIfExists(old);
+		logger.debugf("Outbox journal %s - compacted %d delivered bytes, %d messages pending", journalFile, delivered, pending.size());
+	}
+
+	private void recover() throws IOException {
+		final long[] checkpoint = readCheckpoint();
+		generation = checkpoint[0];
+		removeStraySegments();
+		channel = FileChannel.open(segment(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		final long size = channel.size();
+		long offset = checkpoint[1];
+		if (offset > size) {
+			logger.warnf("Outbox journal %s - checkpoint %d is beyond the end of the journal, replaying the whole journal", journalFile, offset);
+			offset = 0;
+		}
+
+		// records are read one by one, the journal is never loaded as a whole
+		long complete = offset;
+		int corrupted = 0;
+		final InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(offset)), READ_BUFFER_SIZE);
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long position = offset;
+		int b;
+		while ((b = in.read()) >= 0) {
+			position++;
+			if (b != NEW_LINE) {
+				line.write(b);
+				continue;
+			}
+			final Entry entry = parse(line.toString(StandardCharsets.UTF_8), position);
+			if (entry == null) {
+				corrupted++;
+			} else {
+				pending.addLast(entry);
+			}
+			complete = position;
+			line.reset();
+		}
+
+		if (corrupted > 0) {
+			logger.errorf("Outbox journal %s - skipped %d corrupted records", journalFile, corrupted);
+		}
+		if (complete < size) {
+			// the new line is written last, so a crash during append leaves a record without it
+			logger.warnf("Outbox journal %s - dropping %d bytes of an incomplete record", journalFile, size - complete);
+			channel.truncate(complete);
+			channel.force(false);
+		}
+		if (!pending.isEmpty()) {
+			logger.infof("Outbox journal %s - recovered %d undelivered messages", journalFile, pending.size());
+		}
+	}
+
+	/**
+	 * Remove segments of other generations and temporary files left by a crash during compaction.
+	 */
+	private void removeStraySegments() throws IOException {
+		final Path current = segment(generation);
+		final Path directory = journalFile.toAbsolutePath().getParent();
+		final String prefix = journalFile.getFileName() + ".";
+		try (Stream<Path> files = Files.list(directory)) {
+			for (final Path file : (Iterable<Path>) files::iterator) {
+				final String name = file.getFileName().toString();
+				if (!name.startsWith(prefix) || file.toAbsolutePath().equals(current.toAbsolutePath())) {
+					continue;
+				}
+				final String suffix = name.substring(prefix.length());
+				if (suffix.endsWith(TMP_SUFFIX) || suffix.chars().allMatch(Character::isDigit)) {
+					logger.infof("Outbox journal %s - removing stale segment %s", journalFile, file);
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+		if (generation > 0) {
+			Files.deleteIfExists(journalFile);
+		}
+	}
+
+	private Path segment(final long segmentGeneration) {
+		// the first generation is the journal file itself, so journals written before the compaction was introduced are recovered
+		return segmentGeneration == 0 ? journalFile : journalFile.resolveSibling(journalFile.getFileName() + "." + segmentGeneration);
+	}
+
+	private Entry parse(final String line, final long endOffset) {
+		final int crcEnd = line.indexOf(SEPARATOR);
+		final int createdEnd = crcEnd < 0 ? -1 : line.indexOf(SEPARATOR, crcEnd + 1);
+		if (createdEnd < 0) {
+			return null;
+		}
+		try {
+			final String record = line.substring(crcEnd + 1);
+			if (Long.parseLong(line.substring(0, crcEnd), RADIX) != crc(record)) {
+				return null;
+			}
+			return new Entry(line.substring(createdEnd + 1), Long.parseLong(line.substring(crcEnd + 1, createdEnd)), endOffset);
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return generation and offset, a checkpoint of a single number is the offset in the first generation
+	 */
+	private long[] readCheckpoint() throws IOException {
+		if (!Files.exists(checkpointFile)) {
+			return new long[] { 0, 0 };
+		}
+		final String value = Files.readString(checkpointFile, StandardCharsets.UTF_8).trim();
+		try {
+			final int space = value.indexOf(' ');
+			if (space < 0) {
+				return new long[] { 0, Long.parseLong(value) };
+			}
+			return new long[] { Long.parseLong(value.substring(0, space)), Long.parseLong(value.substring(space + 1)) };
+		} catch (final NumberFormatException e) {
+			logger.warnf("Outbox journal %s - invalid checkpoint, replaying the whole journal", journalFile);
+			return new long[] { 0, 0 };
+		}
+	}
+
+	private void writeCheckpoint(final long checkpointGeneration, final long offset) throws IOException {
+		final Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + TMP_SUFFIX);
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.wrap((checkpointGeneration + " " + offset).getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(false);
+		}
+		Files.move(tmp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static long crc(final String record) {
+		final CRC32 crc = new CRC32();
+		crc.update(record.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+	/**
+	 * Journal record.
+	 */
+	public static final class Entry {
+
+		private final String payload;
+
+		private final long created;
+
+		// end of the record in the current segment, moved by the compaction
+		private long endOffset;
+
+		private Entry(final String payload, final long created, final long endOffset) {
+			this.payload = payload;
+			this.created = created;
+			this.endOffset = endOffset;
+		}
+
+		/**
+		 * @return the payload
+		 */
+		public String getPayload() {
+			return payload;
+		}
+
+		/**
+		 * @return the time of append in millis
+		 */
+		public long getCreated() {
+			return created;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.integsoft.keycloak.browser.authenticator.model.ProfileUpdateEvent;
+
+/**
+ * Merges pending {@link ProfileUpdateEvent}s of the same user into one event. Events are keyed by the Keycloak user id, or by the MBTA uuid when the id is missing. Updates are applied in order, so the last
+ * written value of an attribute wins.
+ *
+ * @author integsoft
+ */
+public class ProfileUpdateCoalescer {
+
+	private final long windowMillis;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param windowMillis time an event waits for further updates of the same user, 0 - coalescing disabled
+	 */
+	public ProfileUpdateCoalescer(final long windowMillis) {
+		this.windowMillis = Math.max(0, windowMillis);
+	}
+
+	/**
+	 * @return true - coalescing is enabled / otherwise false
+	 */
+	public boolean isEnabled() {
+		return windowMillis > 0;
+	}
+
+	/**
+	 * Time to wait before an event may be sent.
+	 *
+	 * @param created creation time of the event in millis
+	 * @return delay in millis, 0 - send now
+	 */
+	public long getSendDelay(final long created) {
+		return Math.max(0, created + windowMillis - System.currentTimeMillis());
+	}
+
+	/**
+	 * @param oldestCreated creation time of the oldest pending event in millis
+	 * @param created creation time of the event in millis
+	 * @return true - the event was created within the window of the oldest event and is sent with it
+	 */
+	public boolean isInWindow(final long oldestCreated, final long created) {
+		return created < oldestCreated + windowMillis;
+	}
+
+	/**
+	 * Merge events of the same user. Merged events keep the position of the first event of the user.
+	 *
+	 * @param events events in the order of creation
+	 * @return merged events
+	 */
+	public List<ProfileUpdateEvent> coalesce(final List<ProfileUpdateEvent> events) {
+		final Map<String, ProfileUpdateEvent> merged = new LinkedHashMap<>();
+		final List<ProfileUpdateEvent> result = new ArrayList<>(events.size());
+		for (final ProfileUpdateEvent event : events) {
+			final String key = event.getId() != null ? event.getId() : event.getMbtaUuid();
+			if (key == null) {
+				result.add(event);
+				continue;
+			}
+			ProfileUpdateEvent pending = merged.get(key);
+			if (pending == null) {
+				pending = new ProfileUpdateEvent(event.getMbtaUuid(), new LinkedHashMap<>(), event.getId());
+				merged.put(key, pending);
+				result.add(pending);
+			}
+			if (event.getUpdates() != null) {
+				pending.getUpdates().putAll(event.getUpdates());
+			}
+			if (event.getMbtaUuid() != null) {
+				pending.setMbtaUuid(event.getMbtaUuid());
+			}
+		}
+		return result;
+	}
+}
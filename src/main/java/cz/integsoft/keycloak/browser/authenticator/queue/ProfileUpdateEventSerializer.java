@@ -0,0 +1,92 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.Base64;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+import cz.integsoft.keycloak.browser.authenticator.model.ProfileUpdateEvent;
+
+/**
+ * Serializer of {@link ProfileUpdateEvent}s. Uses shared, thread safe Jackson readers and writers bound to the event type. Queues whose consumers support it may receive the compact CBOR encoding, sent as
+ * Base64 text because SQS message bodies are text.
+ *
+ * @author integsoft
+ */
+public class ProfileUpdateEventSerializer {
+
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	private static final ObjectWriter JSON_WRITER = JSON_MAPPER.writerFor(ProfileUpdateEvent.class);
+	private static final ObjectReader JSON_READER = JSON_MAPPER.readerFor(ProfileUpdateEvent.class);
+	private static final ObjectWriter CBOR_WRITER = new CBORMapper().writerFor(ProfileUpdateEvent.class);
+
+	/**
+	 * Message encoding.
+	 */
+	public enum Encoding {
+		JSON, CBOR
+	}
+
+	private final Set<String> cborQueues;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cborQueues names of queues receiving the CBOR encoding
+	 */
+	public ProfileUpdateEventSerializer(final Set<String> cborQueues) {
+		this.cborQueues = Set.copyOf(cborQueues);
+	}
+
+	/**
+	 * @param queueName queue name
+	 * @return encoding of messages sent to the queue
+	 */
+	public Encoding getEncoding(final String queueName) {
+		return cborQueues.contains(queueName) ? Encoding.CBOR : Encoding.JSON;
+	}
+
+	/**
+	 * @return true - some queue receives the CBOR encoding / otherwise false
+	 */
+	public boolean hasBinaryQueues() {
+		return !cborQueues.isEmpty();
+	}
+
+	/**
+	 * Serialize event to JSON.
+	 *
+	 * @param event event
+	 * @return JSON
+	 * @throws JsonProcessingException serialization error
+	 */
+	public String toJson(final ProfileUpdateEvent event) throws JsonProcessingException {
+		return JSON_WRITER.writeValueAsString(event);
+	}
+
+	/**
+	 * Deserialize event from JSON.
+	 *
+	 * @param json JSON
+	 * @return event
+	 * @throws JsonProcessingException deserialization error
+	 */
+	public ProfileUpdateEvent fromJson(final String json) throws JsonProcessingException {
+		return JSON_READER.readValue(json);
+	}
+
+	/**
+	 * Serialize event to Base64 encoded CBOR.
+	 *
+	 * @param event event
+	 * @return Base64 encoded CBOR
+	 * @throws JsonProcessingException serialization error
+	 */
+	public String toCbor(final ProfileUpdateEvent event) throws JsonProcessingException {
+		return Base64.getEncoder().encodeToString(CBOR_WRITER.writeValueAsBytes(event));
+	}
+}
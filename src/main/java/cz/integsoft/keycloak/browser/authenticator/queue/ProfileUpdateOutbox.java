@@ -0,0 +1,310 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import cz.integsoft.keycloak.browser.authenticator.exception.QueueException;
+import cz.integsoft.keycloak.browser.authenticator.model.ProfileUpdateEvent;
+import cz.integsoft.keycloak.browser.authenticator.queue.ProfileUpdateEventSerializer.Encoding;
+
+/**
+ * Outbox of {@link ProfileUpdateEvent}s. Events are written to the local {@link OutboxJournal} within the request and delivered to all queues by a background sender through the {@link QueueBatcher}, failed
+ * deliveries are retried with an exponential backoff. Events of the same user may be merged by the {@link ProfileUpdateCoalescer} before sending. Delivery is at-least-once, a message may be sent again to a queue after a failure or a node restart.
+ *
+ * @author integsoft
+ */
+public class ProfileUpdateOutbox {
+
+	private static Logger logger = Logger.getLogger(ProfileUpdateOutbox.class);
+
+	private static final int MAX_CHUNK_SIZE = QueueBatcher.MAX_BATCH_MESSAGES * 10;
+	private static final long INITIAL_BACKOFF_MILLIS = 1000L;
+	private static final long MAX_BACKOFF_MILLIS = 300000L;
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+	private final OutboxJournal journal;
+
+	private final QueuePublisher publisher;
+
+	private final QueueBatcher batcher;
+
+	private final ProfileUpdateCoalescer coalescer;
+
+	private final ProfileUpdateEventSerializer serializer;
+
+	private final ScheduledExecutorService executor;
+
+	// delivery state, accessed by the sender thread only
+	private List<OutboxJournal.Entry> chunk;
+	private Map<Encoding, List<String>> chunkBodies;
+	private final Set<String> delivered = new HashSet<>();
+	private ScheduledFuture<?> scheduledDrain;
+	private boolean backingOff;
+	private int failedAttempts;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param journal outbox journal
+	 * @param publisher queue publisher
+	 * @param batcher batching stage in front of the publisher
+	 * @param coalescer merges events of the same user before sending
+	 * @param serializer event serializer
+	 */
+	public ProfileUpdateOutbox(final OutboxJournal journal, final QueuePublisher publisher, final QueueBatcher batcher, final ProfileUpdateCoalescer coalescer, final ProfileUpdateEventSerializer serializer) {
+		this.journal = journal;
+		this.publisher = publisher;
+		this.batcher = batcher;
+		this.coalescer = coalescer;
+		this.serializer = serializer;
+		final ScheduledThreadPoolExecutor sender = new ScheduledThreadPoolExecutor(1, r -> {
+			final Thread thread = new Thread(r, "mbta-profile-update-outbox");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// pending linger and backoff timers are dropped on close, the events stay in the journal
+		sender.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.executor = sender;
+	}
+
+	/**
+	 * Start delivery of events recovered from the journal.
+	 */
+	public void start() {
+		wakeUp();
+	}
+
+	/**
+	 * Store the event for delivery.
+	 *
+	 * @param event profile update event
+	 * @throws QueueException the event cannot be stored or it is over the message size limit
+	 */
+	public void add(final ProfileUpdateEvent event) throws QueueException {
+		try {
+			final String payload = serializer.toJson(event);
+			if (!QueueBatcher.isWithinLimit(payload)) {
+				throw new QueueException(String.format("Profile update event %s is over the message size limit of %d bytes", event.getId(), QueueBatcher.MAX_BATCH_BYTES));
+			}
+			journal.append(payload);
+		} catch (final JsonProcessingException e) {
+			throw new QueueException("Unable to serialize profile update event", e);
+		} catch (final IOException e) {
+			throw new QueueException("Unable to write profile update event to the outbox journal", e);
+		}
+		wakeUp();
+	}
+
+	/**
+	 * @return number of events waiting for delivery
+	 */
+	public int getPendingCount() {
+		return journal.size();
+	}
+
+	/**
+	 * @return batch statistics
+	 */
+	public BatchStatistics getBatchStatistics() {
+		return batcher.getStatistics();
+	}
+
+	/**
+	 * Stop the sender. Undelivered events stay in the journal.
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		batcher.close();
+		try {
+			journal.close();
+		} catch (final IOException e) {
+			logger.warn("Unable to close outbox journal", e);
+		}
+	}
+
+	private void wakeUp() {
+		try {
+			executor.execute(this::onWakeUp);
+		} catch (final RejectedExecutionException e) {
+			logger.debug("Outbox is closed, event stays in the journal");
+		}
+	}
+
+	private void onWakeUp() {
+		if (backingOff) {
+			return;
+		}
+		if (scheduledDrain != null && !scheduledDrain.isDone()) {
+			if (journal.size() < QueueBatcher.MAX_BATCH_MESSAGES) {
+				// the scheduled drain sends it when the linger time elapses
+				return;
+			}
+			scheduledDrain.cancel(false);
+		}
+		drain();
+	}
+
+	private void retry() {
+		backingOff = false;
+		drain();
+	}
+
+	private void drain() {
+		scheduledDrain = null;
+		while (!executor.isShutdown()) {
+			if (chunk == null) {
+				final OutboxJournal.Entry oldest = journal.peek();
+				if (oldest == null) {
+					return;
+				}
+				final long delay = Math.max(batcher.getSendDelay(journal.size(), oldest.getCreated()), coalescer.getSendDelay(oldest.getCreated()));
+				if (delay > 0) {
+					schedule(this::drain, delay);
+					return;
+				}
+				final List<OutboxJournal.Entry> entries = readyEntries();
+				final Map<Encoding, List<String>> bodies;
+				try {
+					bodies = toBodies(entries);
+				} catch (final RuntimeException e) {
+					// the chunk is set together with its bodies only, the next drain starts over
+					logger.errorf(e, "Unable to serialize %d profile update events, retry in %d ms", entries.size(), MAX_BACKOFF_MILLIS);
+					backingOff = true;
+					schedule(this::retry, MAX_BACKOFF_MILLIS);
+					return;
+				}
+				chunk = entries;
+				chunkBodies = bodies;
+				delivered.clear();
+			}
+			try {
+				deliver(chunk);
+				journal.acknowledge(chunk.get(chunk.size() - 1));
+				chunk = null;
+				chunkBodies = null;
+				failedAttempts = 0;
+			} catch (final QueueException | IOException e) {
+				final long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failedAttempts, Integer.SIZE - 2));
+				failedAttempts++;
+				logger.warnf("Profile update delivery failed (attempt %d, %d pending), retry in %d ms: %s", failedAttempts, journal.size(), backoff, e.getMessage());
+				backingOff = true;
+				schedule(this::retry, backoff);
+				return;
+			}
+		}
+	}
+
+	private void schedule(final Runnable task, final long delayMillis) {
+		try {
+			scheduledDrain = executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			logger.debug("Outbox is closed, events stay in the journal");
+		}
+	}
+
+	/**
+	 * @return the oldest entry, which is past the coalescing window, with all entries created within its window, so a burst of updates is coalesced into one chunk
+	 */
+	private List<OutboxJournal.Entry> readyEntries() {
+		final List<OutboxJournal.Entry> entries = journal.peek(MAX_CHUNK_SIZE);
+		if (!coalescer.isEnabled()) {
+			return entries;
+		}
+		final long oldestCreated = entries.get(0).getCreated();
+		int ready = 1;
+		while (ready < entries.size() && coalescer.isInWindow(oldestCreated, entries.get(ready).getCreated())) {
+			ready++;
+		}
+		return entries.subList(0, ready);
+	}
+
+	/**
+	 * Serialize the entries once for every encoding in use, the messages are reused for all queues with the same encoding. An entry which cannot be parsed is sent as it is to the JSON queues and
+	 * dropped for the binary queues, an event which cannot be serialized is dropped for that encoding, both with an error log.
+	 */
+	private Map<Encoding, List<String>> toBodies(final List<OutboxJournal.Entry> entries) {
+		final Map<Encoding, List<String>> bodies = new EnumMap<>(Encoding.class);
+		final List<String> json = new ArrayList<>(entries.size());
+		bodies.put(Encoding.JSON, json);
+		if (!coalescer.isEnabled() && !serializer.hasBinaryQueues()) {
+			for (final OutboxJournal.Entry entry : entries) {
+				json.add(entry.getPayload());
+			}
+			return bodies;
+		}
+
+		final List<String> cbor = serializer.hasBinaryQueues() ? new ArrayList<>(entries.size()) : null;
+		if (cbor != null) {
+			bodies.put(Encoding.CBOR, cbor);
+		}
+		List<ProfileUpdateEvent> events = new ArrayList<>(entries.size());
+		for (final OutboxJournal.Entry entry : entries) {
+			try {
+				events.add(serializer.fromJson(entry.getPayload()));
+			} catch (final JsonProcessingException e) {
+				// not a profile update event, the JSON queues get it as it is, it has no binary form
+				logger.errorf("Outbox entry cannot be parsed, sent to the JSON queues only: %s", e.getMessage());
+				json.add(entry.getPayload());
+			}
+		}
+		if (coalescer.isEnabled()) {
+			events = coalescer.coalesce(events);
+			logger.debugf("Coalesced %d profile update events into %d messages", entries.size(), events.size());
+		}
+		for (final ProfileUpdateEvent event : events) {
+			try {
+				json.add(serializer.toJson(event));
+			} catch (final JsonProcessingException e) {
+				logger.errorf(e, "Profile update event %s cannot be serialized to JSON, dropped", event.getId());
+			}
+			if (cbor != null) {
+				try {
+					cbor.add(serializer.toCbor(event));
+				} catch (final JsonProcessingException e) {
+					logger.errorf(e, "Profile update event %s cannot be serialized to CBOR, dropped", event.getId());
+				}
+			}
+		}
+		return bodies;
+	}
+
+	private void deliver(final List<OutboxJournal.Entry> entries) throws QueueException {
+		final List<String> queueNames = new ArrayList<>(publisher.getQueueNames());
+		queueNames.removeAll(delivered);
+		if (queueNames.isEmpty()) {
+			return;
+		}
+		final Map<String, List<String>> bodiesByQueue = new LinkedHashMap<>();
+		for (final String queueName : queueNames) {
+			bodiesByQueue.put(queueName, chunkBodies.get(serializer.getEncoding(queueName)));
+		}
+		final Set<String> sent = batcher.send(bodiesByQueue, entries.get(0).getCreated());
+		delivered.addAll(sent);
+		if (sent.size() < queueNames.size()) {
+			throw new QueueException(String.format("%d of %d queues failed", queueNames.size() - sent.size(), queueNames.size()));
+		}
+	}
+}
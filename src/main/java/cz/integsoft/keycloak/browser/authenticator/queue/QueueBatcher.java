@@ -0,0 +1,168 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+import cz.integsoft.keycloak.browser.authenticator.exception.QueueException;
+
+/**
+ * Batching stage in front of the {@link QueuePublisher}. Messages are split into batch requests within the SQS limits (10 messages, 256 KB), batches for different queues are sent in parallel. Messages are
+ * held back until the batch is full or the oldest message waited for the max linger time.
+ *
+ * @author integsoft
+ */
+public class QueueBatcher {
+
+	private static Logger logger = Logger.getLogger(QueueBatcher.class);
+
+	public static final int MAX_BATCH_MESSAGES = 10;
+	public static final int MAX_BATCH_BYTES = 262144;
+
+	private final QueuePublisher publisher;
+
+	private final long maxLingerMillis;
+
+	private final ExecutorService executor;
+
+	private final BatchStatistics statistics = new BatchStatistics(MAX_BATCH_MESSAGES);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param publisher queue publisher
+	 * @param maxLingerMillis maximum time a message waits for the batch to fill up
+	 */
+	public QueueBatcher(final QueuePublisher publisher, final long maxLingerMillis) {
+		this.publisher = publisher;
+		this.maxLingerMillis = maxLingerMillis;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(Math.max(1, publisher.getQueueNames().size()), r -> {
+			final Thread thread = new Thread(r, "mbta-queue-batcher-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Time to wait before the pending messages should be sent.
+	 *
+	 * @param pending number of pending messages
+	 * @param oldestCreated creation time of the oldest pending message in millis
+	 * @return delay in millis, 0 - send now
+	 */
+	public long getSendDelay(final int pending, final long oldestCreated) {
+		if (pending >= MAX_BATCH_MESSAGES) {
+			return 0;
+		}
+		return Math.max(0, oldestCreated + maxLingerMillis - System.currentTimeMillis());
+	}
+
+	/**
+	 * Send messages to the queues.
+	 *
+	 * @param bodiesByQueue message bodies by destination queue
+	 * @param oldestCreated creation time of the oldest message in millis
+	 * @return queues all messages were delivered to
+	 */
+	public Set<String> send(final Map<String, List<String>> bodiesByQueue, final long oldestCreated) {
+		final Map<List<String>, List<List<String>>> batchesByBodies = new IdentityHashMap<>();
+		final Map<String, Future<?>> futures = new LinkedHashMap<>();
+		for (final Map.Entry<String, List<String>> bodies : bodiesByQueue.entrySet()) {
+			final String queueName = bodies.getKey();
+			// queues sharing the same bodies share the batches too
+			final List<List<String>> batches = batchesByBodies.computeIfAbsent(bodies.getValue(), QueueBatcher::split);
+			try {
+				futures.put(queueName, executor.submit(() -> {
+					for (final List<String> batch : batches) {
+						publisher.sendBatch(queueName, batch);
+						statistics.record(batch.size(), System.currentTimeMillis() - oldestCreated);
+					}
+					return null;
+				}));
+			} catch (final RejectedExecutionException e) {
+				logger.debugf("Batcher is closed, queue %s skipped", queueName);
+			}
+		}
+
+		final Set<String> delivered = new HashSet<>();
+		for (final Map.Entry<String, Future<?>> future : futures.entrySet()) {
+			try {
+				future.getValue().get();
+				delivered.add(future.getKey());
+			} catch (final ExecutionException e) {
+				logger.warnf("Queue %s - batch send failed: %s", future.getKey(), e.getCause() instanceof QueueException ? e.getCause().getMessage() : e.getCause());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		logger.debugf("Queue batch statistics: %s", statistics);
+		return delivered;
+	}
+
+	/**
+	 * @param body message body
+	 * @return true - the body fits into a batch request / otherwise false, SQS rejects such a message on every attempt
+	 */
+	public static boolean isWithinLimit(final String body) {
+		return body.getBytes(StandardCharsets.UTF_8).length <= MAX_BATCH_BYTES;
+	}
+
+	/**
+	 * Split messages into batches within the SQS limits. A message over the size limit is dropped with an error log, otherwise it would be retried forever and block all messages behind it.
+	 *
+	 * @param bodies message bodies
+	 * @return batches
+	 */
+	static List<List<String>> split(final List<String> bodies) {
+		final List<List<String>> batches = new ArrayList<>();
+		List<String> batch = new ArrayList<>(MAX_BATCH_MESSAGES);
+		int batchBytes = 0;
+		for (final String body : bodies) {
+			final int bytes = body.getBytes(StandardCharsets.UTF_8).length;
+			if (bytes > MAX_BATCH_BYTES) {
+				logger.errorf("Message of %d bytes is over the SQS limit of %d bytes, dropped", bytes, MAX_BATCH_BYTES);
+				continue;
+			}
+			if (!batch.isEmpty() && (batch.size() >= MAX_BATCH_MESSAGES || batchBytes + bytes > MAX_BATCH_BYTES)) {
+				batches.add(batch);
+				batch = new ArrayList<>(MAX_BATCH_MESSAGES);
+				batchBytes = 0;
+			}
+			batch.add(body);
+			batchBytes += bytes;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	/**
+	 * @return batch statistics
+	 */
+	public BatchStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Stop the sender threads.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+}
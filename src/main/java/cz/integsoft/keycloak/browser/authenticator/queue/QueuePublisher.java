@@ -0,0 +1,53 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.List;
+
+import cz.integsoft.keycloak.browser.authenticator.exception.QueueException;
+
+/**
+ * Long-lived publisher of messages to the configured queues.
+ *
+ * @author integsoft
+ */
+public interface QueuePublisher {
+
+	/**
+	 * @return names of the configured destination queues
+	 */
+	List<String> getQueueNames();
+
+	/**
+	 * Open the connection to the queue service.
+	 *
+	 * @throws QueueException connection error
+	 */
+	void connect() throws QueueException;
+
+	/**
+	 * Send message to the queue.
+	 *
+	 * @param queueName destination queue name
+	 * @param body message body
+	 * @throws QueueException send error
+	 */
+	void send(String queueName, String body) throws QueueException;
+
+	/**
+	 * Send messages to the queue in one request. The caller keeps the batch within the limits of the queue service.
+	 *
+	 * @param queueName destination queue name
+	 * @param bodies message bodies
+	 * @throws QueueException send error, some of the messages may have been delivered
+	 */
+	void sendBatch(String queueName, List<String> bodies) throws QueueException;
+
+	/**
+	 * @return true - the last communication with the queue service succeeded / otherwise false
+	 */
+	boolean isHealthy();
+
+	/**
+	 * Release all resources held by the publisher.
+	 */
+	void close();
+}
@@ -0,0 +1,246 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.logging.Logger;
+
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
+import com.amazon.sqs.javamessaging.SQSConnection;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+
+import cz.integsoft.keycloak.browser.authenticator.exception.QueueException;
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
+
+/**
+ * Amazon SQS publisher keeping one JMS connection and one producer per queue for the whole lifetime of the server. A broken connection is dropped and reopened on the next send.
+ *
+ * @author integsoft
+ */
+public class SqsQueuePublisher implements QueuePublisher {
+
+	private static Logger logger = Logger.getLogger(SqsQueuePublisher.class);
+
+	private static final StepTimer PUBLISH_SUCCESS_TIMER = publishTimer("single", "success");
+	private static final StepTimer PUBLISH_FAILURE_TIMER = publishTimer("single", "failure");
+	private static final StepTimer PUBLISH_BATCH_SUCCESS_TIMER = publishTimer("batch", "success");
+	private static final StepTimer PUBLISH_BATCH_FAILURE_TIMER = publishTimer("batch", "failure");
+
+	private final String region;
+
+	private final List<String> queueNames;
+
+	private final Map<String, MessageProducer> producers = new HashMap<>();
+
+	private final Map<String, String> queueUrls = new HashMap<>();
+
+	private SQSConnection connection;
+
+	private Session session;
+
+	private volatile boolean healthy;
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param region AWS region
+	 * @param queueNames destination queue names
+	 */
+	public SqsQueuePublisher(final String region, final List<String> queueNames) {
+		this.region = region;
+		this.queueNames = List.copyOf(queueNames);
+	}
+
+	/**
+	 * Open the connection and create producers for all configured queues.
+	 *
+	 * @throws QueueException connection error
+	 */
+	@Override
+	public synchronized void connect() throws QueueException {
+		try {
+			ensureConnected();
+			for (final String queueName : queueNames) {
+				getProducer(queueName);
+			}
+		} catch (final JMSException | SdkClientException e) {
+			disconnect();
+			throw new QueueException("Unable to connect to SQS", e);
+		}
+	}
+
+	@Override
+	public void send(final String queueName, final String body) throws QueueException {
+		final long start = System.nanoTime();
+		boolean sent = false;
+		try {
+			sendWithReconnect(queueName, body);
+			sent = true;
+		} finally {
+			(sent ? PUBLISH_SUCCESS_TIMER : PUBLISH_FAILURE_TIMER).stop(start);
+		}
+	}
+
+	private synchronized void sendWithReconnect(final String queueName, final String body) throws QueueException {
+		if (closed) {
+			throw new QueueException("Queue publisher is closed");
+		}
+		try {
+			doSend(queueName, body);
+		} catch (final JMSException | SdkClientException e) {
+			// the connection may be stale, reconnect and try once more
+			logger.warnf("SQS queue %s send failed, reconnecting: %s", queueName, e.getMessage());
+			disconnect();
+			try {
+				doSend(queueName, body);
+			} catch (final JMSException | SdkClientException e2) {
+				disconnect();
+				throw new QueueException(e2);
+			}
+		}
+	}
+
+	@Override
+	public void sendBatch(final String queueName, final List<String> bodies) throws QueueException {
+		final long start = System.nanoTime();
+		boolean sent = false;
+		try {
+			sendBatchRequest(queueName, bodies);
+			sent = true;
+		} finally {
+			(sent ? PUBLISH_BATCH_SUCCESS_TIMER : PUBLISH_BATCH_FAILURE_TIMER).stop(start);
+		}
+	}
+
+	private void sendBatchRequest(final String queueName, final List<String> bodies) throws QueueException {
+		if (closed) {
+			throw new QueueException("Queue publisher is closed");
+		}
+		final AmazonSQS client;
+		final String queueUrl;
+		synchronized (this) {
+			try {
+				ensureConnected();
+				client = connection.getAmazonSQSClient();
+				queueUrl = getQueueUrl(queueName);
+			} catch (final JMSException | SdkClientException e) {
+				disconnect();
+				throw new QueueException(e);
+			}
+		}
+
+		final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(bodies.size());
+		for (int i = 0; i < bodies.size(); i++) {
+			entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), bodies.get(i)));
+		}
+		// the SQS client is thread safe, batches for different queues are sent in parallel
+		final SendMessageBatchResult result;
+		try {
+			result = client.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+		} catch (final SdkClientException e) {
+			healthy = false;
+			throw new QueueException(e);
+		}
+		healthy = true;
+		if (!result.getFailed().isEmpty()) {
+			final BatchResultErrorEntry failed = result.getFailed().get(0);
+			throw new QueueException(String.format("SQS queue %s - %d of %d messages failed: %s %s", queueName, result.getFailed().size(), bodies.size(), failed.getCode(), failed.getMessage()));
+		}
+		logger.infof("SQS Queue %s, batch of %d messages", queueName, bodies.size());
+	}
+
+	private static StepTimer publishTimer(final String mode, final String outcome) {
+		return AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.QUEUE_PUBLISH, "mode", mode, AuthenticatorMetrics.TAG_OUTCOME, outcome);
+	}
+
+	private String getQueueUrl(final String queueName) throws JMSException {
+		String queueUrl = queueUrls.get(queueName);
+		if (queueUrl == null) {
+			queueUrl = connection.getWrappedAmazonSQSClient().getQueueUrl(queueName).getQueueUrl();
+			queueUrls.put(queueName, queueUrl);
+		}
+		return queueUrl;
+	}
+
+	private void doSend(final String queueName, final String body) throws JMSException {
+		final MessageProducer producer = getProducer(queueName);
+		final TextMessage message = session.createTextMessage(body);
+		producer.send(message);
+		healthy = true;
+		logger.infof("SQS Queue %s, JMS Message %s", queueName, message.getJMSMessageID());
+	}
+
+	private MessageProducer getProducer(final String queueName) throws JMSException {
+		ensureConnected();
+		MessageProducer producer = producers.get(queueName);
+		if (producer == null) {
+			producer = session.createProducer(session.createQueue(queueName));
+			producers.put(queueName, producer);
+		}
+		return producer;
+	}
+
+	private void ensureConnected() throws JMSException {
+		if (connection != null) {
+			return;
+		}
+		logger.infof("Opening SQS connection, region %s", region);
+		final SQSConnectionFactory connectionFactory = new SQSConnectionFactory(new ProviderConfiguration(), AmazonSQSClientBuilder.standard().withRegion(region));
+		connection = connectionFactory.createConnection();
+		connection.setExceptionListener(e -> {
+			logger.warn("SQS connection problem reported", e);
+			healthy = false;
+		});
+		// nontransacted session with AUTO_ACKNOWLEDGE mode
+		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		healthy = true;
+	}
+
+	private void disconnect() {
+		healthy = false;
+		producers.clear();
+		queueUrls.clear();
+		session = null;
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (final JMSException | RuntimeException e) {
+				logger.debug("Unable to close SQS connection", e);
+			}
+			connection = null;
+		}
+	}
+
+	@Override
+	public List<String> getQueueNames() {
+		return queueNames;
+	}
+
+	@Override
+	public boolean isHealthy() {
+		return healthy && !closed;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		disconnect();
+	}
+}
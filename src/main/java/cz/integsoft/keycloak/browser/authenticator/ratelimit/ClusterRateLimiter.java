@@ -0,0 +1,36 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import org.keycloak.models.KeycloakSession;
+
+import cz.integsoft.keycloak.browser.authenticator.store.ExpiringStore;
+
+/**
+ * Rate limiter keeping the buckets in a distributed Infinispan cache, so the limits apply to the whole cluster. A bucket entry expires when the bucket is full again.
+ *
+ * @author integsoft
+ */
+public class ClusterRateLimiter implements RateLimiter {
+
+	public static final String CACHE_NAME = "mbtaRateLimits";
+
+	private final ExpiringStore<Long> buckets = new ExpiringStore<>(CACHE_NAME);
+
+	@Override
+	public long tryAcquire(final KeycloakSession session, final String key, final RateLimit limit) {
+		if (!limit.isEnabled()) {
+			return 0;
+		}
+		while (true) {
+			final long now = System.currentTimeMillis();
+			final Long fullAt = buckets.get(session, key);
+			final long next = limit.take(fullAt == null ? 0 : fullAt, now);
+			if (next < 0) {
+				return -next;
+			}
+			final boolean stored = fullAt == null ? buckets.putIfAbsent(session, key, next, next - now) : buckets.replace(session, key, fullAt, next, next - now);
+			if (stored) {
+				return 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * IPv4 or IPv6 address range given by CIDR notation, e.g. 10.0.0.0/8, or by a single address.
+ *
+ * @author integsoft
+ */
+public final class IpRange {
+
+	private static final int IPV4_LENGTH = 4;
+
+	private final byte[] network;
+
+	private final int prefix;
+
+	private IpRange(final byte[] network, final int prefix) {
+		this.network = network;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Parse range.
+	 *
+	 * @param cidr address or address/prefix
+	 * @return range
+	 * @throws IllegalArgumentException if the range is not an IP address literal with a valid prefix
+	 */
+	public static IpRange parse(final String cidr) {
+		final int slash = cidr.indexOf('/');
+		final byte[] address = parseAddress(slash < 0 ? cidr.trim() : cidr.substring(0, slash).trim());
+		if (address == null) {
+			throw new IllegalArgumentException("Invalid IP range " + cidr);
+		}
+		final int bits = address.length * Byte.SIZE;
+		final int prefix;
+		try {
+			prefix = slash < 0 ? bits : Integer.parseInt(cidr.substring(slash + 1).trim());
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid IP range " + cidr, e);
+		}
+		if (prefix < 0 || prefix > bits) {
+			throw new IllegalArgumentException("Invalid IP range " + cidr);
+		}
+		return new IpRange(mask(address, prefix), prefix);
+	}
+
+	/**
+	 * Parse IP address literal, host names are not resolved.
+	 *
+	 * @param ip IPv4 or IPv6 address literal
+	 * @return 4 or 16 bytes of the address, null if the text is not an address literal
+	 */
+	public static byte[] parseAddress(final String ip) {
+		if (ip == null || ip.isEmpty()) {
+			return null;
+		}
+		if (ip.indexOf(':') < 0) {
+			return parseIpv4(ip);
+		}
+		// a host name never contains a colon, so nothing is resolved
+		try {
+			return InetAddress.getByName(ip).getAddress();
+		} catch (final UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param address address bytes
+	 * @param prefix number of network bits
+	 * @return copy of the address with the host bits cleared
+	 */
+	public static byte[] mask(final byte[] address, final int prefix) {
+		final byte[] masked = Arrays.copyOf(address, address.length);
+		for (int i = 0; i < masked.length; i++) {
+			final int bits = prefix - i * Byte.SIZE;
+			if (bits <= 0) {
+				masked[i] = 0;
+			} else if (bits < Byte.SIZE) {
+				masked[i] &= (byte) (0xFF << (Byte.SIZE - bits));
+			}
+		}
+		return masked;
+	}
+
+	/**
+	 * @param address address bytes
+	 * @return true - the address is in the range
+	 */
+	public boolean contains(final byte[] address) {
+		if (address.length != network.length) {
+			return false;
+		}
+		for (int i = 0; i < network.length; i++) {
+			final int bits = prefix - i * Byte.SIZE;
+			if (bits <= 0) {
+				return true;
+			}
+			final int mask = bits < Byte.SIZE ? 0xFF << (Byte.SIZE - bits) & 0xFF : 0xFF;
+			if ((address[i] & mask) != (network[i] & 0xFF)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] parseIpv4(final String ip) {
+		final byte[] address = new byte[IPV4_LENGTH];
+		int octet = 0;
+		int value = -1;
+		for (int i = 0; i < ip.length(); i++) {
+			final char c = ip.charAt(i);
+			if (c == '.') {
+				if (value < 0 || octet == IPV4_LENGTH - 1) {
+					return null;
+				}
+				address[octet++] = (byte) value;
+				value = -1;
+			} else if (c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if (value > 0xFF) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+		}
+		if (value < 0 || octet != IPV4_LENGTH - 1) {
+			return null;
+		}
+		address[octet] = (byte) value;
+		return address;
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return InetAddress.getByAddress(network).getHostAddress() + '/' + prefix;
+		} catch (final UnknownHostException e) {
+			return Arrays.toString(network) + '/' + prefix;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Rate limiter keeping the buckets in memory of the node. Buckets are looked up in a concurrent map striped by key and updated by compare and set without locks. Full buckets are dropped when the map grows, the map is scanned again only after it grows to twice the buckets left, so
+ * many clients do not cause a scan per new key.
+ *
+ * @author integsoft
+ */
+public class LocalRateLimiter implements RateLimiter {
+
+	private static final int PURGE_THRESHOLD = 10000;
+
+	private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	private volatile int purgeThreshold = PURGE_THRESHOLD;
+
+	@Override
+	public long tryAcquire(final KeycloakSession session, final String key, final RateLimit limit) {
+		if (!limit.isEnabled()) {
+			return 0;
+		}
+		AtomicLong bucket = buckets.get(key);
+		if (bucket == null) {
+			purge();
+			bucket = buckets.computeIfAbsent(key, k -> new AtomicLong());
+		}
+		while (true) {
+			final long now = System.currentTimeMillis();
+			final long fullAt = bucket.get();
+			final long next = limit.take(fullAt, now);
+			if (next < 0) {
+				return -next;
+			}
+			if (bucket.compareAndSet(fullAt, next)) {
+				return 0;
+			}
+		}
+	}
+
+	private void purge() {
+		if (buckets.size() >= purgeThreshold) {
+			synchronized (this) {
+				if (buckets.size() >= purgeThreshold) {
+					final long now = System.currentTimeMillis();
+					buckets.values().removeIf(bucket -> bucket.get() <= now);
+					purgeThreshold = Math.max(PURGE_THRESHOLD, buckets.size() * 2);
+				}
+			}
+		}
+	}
+}
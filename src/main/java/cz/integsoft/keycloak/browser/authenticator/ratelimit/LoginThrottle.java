@@ -0,0 +1,131 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
+import cz.integsoft.keycloak.browser.authenticator.metrics.StepTimer;
+
+/**
+ * Limits the number of login attempts per client IP, per subnet of the client IP and per attempted username before the user is looked up and the password is hashed, so a credential stuffing wave
+ * is rejected without database and hashing work. Clients from the allow-list, e.g. health checks or partner gateways, are not limited. The username bucket is kept per subnet of the client, so
+ * attempts from other networks cannot keep the account of a known username blocked, the lockout of a username across networks is left to the brute force protection of the realm.
+ *
+ * @author integsoft
+ */
+public class LoginThrottle {
+
+	private static Logger logger = Logger.getLogger(LoginThrottle.class);
+
+	private static final int IPV4_LENGTH = 4;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final StepTimer PASSED_TIMER = throttleTimer("passed", "none");
+	private static final StepTimer ALLOW_LISTED_TIMER = throttleTimer("allow_listed", "none");
+	private static final StepTimer REJECTED_IP_TIMER = throttleTimer("rejected", "ip");
+	private static final StepTimer REJECTED_SUBNET_TIMER = throttleTimer("rejected", "subnet");
+	private static final StepTimer REJECTED_USERNAME_TIMER = throttleTimer("rejected", "username");
+
+	private final RateLimiter limiter;
+
+	private final RateLimit ipLimit;
+
+	private final RateLimit subnetLimit;
+
+	private final RateLimit usernameLimit;
+
+	private final int ipv4SubnetPrefix;
+
+	private final int ipv6SubnetPrefix;
+
+	private final List<IpRange> allowList;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param limiter rate limiter
+	 * @param ipLimit limit per client IP
+	 * @param subnetLimit limit per subnet of the client IP
+	 * @param usernameLimit limit per attempted username of the realm and subnet of the client IP
+	 * @param ipv4SubnetPrefix prefix of the IPv4 subnets
+	 * @param ipv6SubnetPrefix prefix of the IPv6 subnets
+	 * @param allowList client IP ranges which are not limited
+	 */
+	public LoginThrottle(final RateLimiter limiter, final RateLimit ipLimit, final RateLimit subnetLimit, final RateLimit usernameLimit, final int ipv4SubnetPrefix, final int ipv6SubnetPrefix,
+			final List<IpRange> allowList) {
+		this.limiter = limiter;
+		this.ipLimit = ipLimit;
+		this.subnetLimit = subnetLimit;
+		this.usernameLimit = usernameLimit;
+		this.ipv4SubnetPrefix = ipv4SubnetPrefix;
+		this.ipv6SubnetPrefix = ipv6SubnetPrefix;
+		this.allowList = List.copyOf(allowList);
+		logger.infof("Login limits - IP: %s, subnet /%d /%d: %s, username: %s, allow-list: %s", ipLimit, ipv4SubnetPrefix, ipv6SubnetPrefix, subnetLimit, usernameLimit, this.allowList);
+	}
+
+	/**
+	 * Take a token for a login attempt. The limits are checked from the IP to the username, a rejected attempt does not take tokens of the following limits.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param realmId realm id
+	 * @param username attempted username, may be null
+	 * @param ip client IP, may be null
+	 * @return 0 - the attempt may continue / otherwise millis to wait
+	 */
+	public long tryAcquire(final KeycloakSession session, final String realmId, final String username, final String ip) {
+		final long start = System.nanoTime();
+		final byte[] address = IpRange.parseAddress(ip);
+		String subnet = "unknown";
+		if (address != null) {
+			for (final IpRange range : allowList) {
+				if (range.contains(address)) {
+					ALLOW_LISTED_TIMER.stop(start);
+					return 0;
+				}
+			}
+			subnet = subnet(address);
+			long wait = limiter.tryAcquire(session, "login-ip:" + ip, ipLimit);
+			if (wait > 0) {
+				REJECTED_IP_TIMER.stop(start);
+				logger.debugf("Login limit of IP %s reached, wait %d ms", ip, wait);
+				return wait;
+			}
+			if (subnetLimit.isEnabled()) {
+				wait = limiter.tryAcquire(session, "login-subnet:" + subnet, subnetLimit);
+				if (wait > 0) {
+					REJECTED_SUBNET_TIMER.stop(start);
+					logger.debugf("Login limit of subnet %s reached, IP %s, wait %d ms", subnet, ip, wait);
+					return wait;
+				}
+			}
+		}
+		if (username != null && usernameLimit.isEnabled()) {
+			final long wait = limiter.tryAcquire(session, "login-user:" + realmId + ':' + subnet + ':' + username.trim().toLowerCase(Locale.ROOT), usernameLimit);
+			if (wait > 0) {
+				REJECTED_USERNAME_TIMER.stop(start);
+				logger.debugf("Login limit of username %s reached, IP %s, wait %d ms", username, ip, wait);
+				return wait;
+			}
+		}
+		PASSED_TIMER.stop(start);
+		return 0;
+	}
+
+	private String subnet(final byte[] address) {
+		final int prefix = address.length == IPV4_LENGTH ? ipv4SubnetPrefix : ipv6SubnetPrefix;
+		final byte[] network = IpRange.mask(address, prefix);
+		final StringBuilder subnet = new StringBuilder(network.length * 2 + 4);
+		for (final byte b : network) {
+			subnet.append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+		}
+		return subnet.append('/').append(prefix).toString();
+	}
+
+	private static StepTimer throttleTimer(final String outcome, final String scope) {
+		return AuthenticatorMetrics.getInstance().timer(AuthenticatorMetrics.LOGIN_THROTTLE, AuthenticatorMetrics.TAG_OUTCOME, outcome, AuthenticatorMetrics.TAG_SCOPE, scope);
+	}
+}
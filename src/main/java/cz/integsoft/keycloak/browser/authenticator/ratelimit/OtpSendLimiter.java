@@ -0,0 +1,63 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import java.util.Locale;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Limits the number of code emails per client IP, per email address and per user.
+ *
+ * @author integsoft
+ */
+public class OtpSendLimiter {
+
+	private static Logger logger = Logger.getLogger(OtpSendLimiter.class);
+
+	private final RateLimiter limiter;
+
+	private final RateLimit userLimit;
+
+	private final RateLimit emailLimit;
+
+	private final RateLimit ipLimit;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param limiter rate limiter
+	 * @param userLimit limit per user
+	 * @param emailLimit limit per email address
+	 * @param ipLimit limit per client IP
+	 */
+	public OtpSendLimiter(final RateLimiter limiter, final RateLimit userLimit, final RateLimit emailLimit, final RateLimit ipLimit) {
+		this.limiter = limiter;
+		this.userLimit = userLimit;
+		this.emailLimit = emailLimit;
+		this.ipLimit = ipLimit;
+		logger.infof("Code email limits - user: %s, email: %s, IP: %s", userLimit, emailLimit, ipLimit);
+	}
+
+	/**
+	 * Take a token for a code email. The limits are checked from the IP to the user, a rejected request does not take tokens of the following limits.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param userId user id
+	 * @param email email address
+	 * @param ip client IP, may be null
+	 * @return 0 - the email may be sent / otherwise millis to wait
+	 */
+	public long tryAcquire(final KeycloakSession session, final String userId, final String email, final String ip) {
+		long wait = ip == null ? 0 : limiter.tryAcquire(session, "ip:" + ip, ipLimit);
+		if (wait == 0) {
+			wait = limiter.tryAcquire(session, "email:" + email.toLowerCase(Locale.ROOT), emailLimit);
+		}
+		if (wait == 0) {
+			wait = limiter.tryAcquire(session, "user:" + userId, userLimit);
+		}
+		if (wait > 0) {
+			logger.warnf("Code email limit reached - user %s, email %s, IP %s, wait %d ms", userId, email, ip, wait);
+		}
+		return wait;
+	}
+}
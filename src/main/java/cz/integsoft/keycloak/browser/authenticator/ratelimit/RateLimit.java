@@ -0,0 +1,81 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limit. The bucket holds up to capacity tokens and is refilled by one token per interval.
+ *
+ * @author integsoft
+ */
+public final class RateLimit {
+
+	/**
+	 * No limit.
+	 */
+	public static final RateLimit NONE = new RateLimit(0, 0);
+
+	private final int capacity;
+
+	private final long intervalMillis;
+
+	private RateLimit(final int capacity, final long intervalMillis) {
+		this.capacity = capacity;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Create limit.
+	 *
+	 * @param capacity bucket capacity, 0 - no limit
+	 * @param perHour number of tokens added per hour
+	 * @return limit
+	 */
+	public static RateLimit of(final int capacity, final int perHour) {
+		if (capacity <= 0 || perHour <= 0) {
+			return NONE;
+		}
+		return new RateLimit(capacity, Math.max(1, TimeUnit.HOURS.toMillis(1) / perHour));
+	}
+
+	/**
+	 * @return true - the limit applies / otherwise false
+	 */
+	public boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	/**
+	 * @return bucket capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return time to add one token in millis
+	 */
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	/**
+	 * Take a token from the bucket. The bucket is stored as the time at which it is full again, so the state is a single number.
+	 *
+	 * @param fullAt time at which the bucket is full in millis, 0 - the bucket is full
+	 * @param now current time in millis
+	 * @return new time at which the bucket is full, or a negative number of millis to wait if the bucket is empty
+	 */
+	long take(final long fullAt, final long now) {
+		final long start = Math.max(fullAt, now);
+		final long burst = (capacity - 1) * intervalMillis;
+		if (start - now > burst) {
+			return -(start - now - burst);
+		}
+		return start + intervalMillis;
+	}
+
+	@Override
+	public String toString() {
+		return isEnabled() ? capacity + " per " + intervalMillis + "ms" : "none";
+	}
+}
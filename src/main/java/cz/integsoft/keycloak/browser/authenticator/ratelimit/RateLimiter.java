@@ -0,0 +1,21 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Token bucket rate limiter.
+ *
+ * @author integsoft
+ */
+public interface RateLimiter {
+
+	/**
+	 * Take a token from the bucket of the key.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param key bucket key
+	 * @param limit limit of the bucket
+	 * @return 0 - a token was taken / otherwise millis to wait for the next token
+	 */
+	long tryAcquire(KeycloakSession session, String key, RateLimit limit);
+}
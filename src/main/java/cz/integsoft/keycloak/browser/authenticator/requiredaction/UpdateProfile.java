@@ -1,5 +1,7 @@
 package cz.integsoft.keycloak.browser.authenticator.requiredaction;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -8,12 +10,7 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-
-import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.Queue;
-import javax.jms.Session;
-import javax.jms.TextMessage;
+import java.util.stream.Collectors;
 
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
@@ -41,21 +38,23 @@ import org.keycloak.services.Urls;
 import org.keycloak.services.validation.Validation;
 import org.keycloak.sessions.AuthenticationSessionCompoundId;
 import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.tracing.TracingProvider;
 import org.keycloak.userprofile.UserProfile;
 import org.keycloak.userprofile.UserProfileContext;
 import org.keycloak.userprofile.UserProfileProvider;
 import org.keycloak.userprofile.ValidationException;
 
-import com.amazon.sqs.javamessaging.ProviderConfiguration;
-import com.amazon.sqs.javamessaging.SQSConnection;
-import com.amazon.sqs.javamessaging.SQSConnectionFactory;
-import com.amazonaws.SdkClientException;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import cz.integsoft.keycloak.browser.authenticator.exception.QueueException;
+import cz.integsoft.keycloak.browser.authenticator.metrics.AuthenticatorMetrics;
 import cz.integsoft.keycloak.browser.authenticator.model.ProfileUpdateEvent;
+import cz.integsoft.keycloak.browser.authenticator.queue.OutboxJournal;
+import cz.integsoft.keycloak.browser.authenticator.queue.ProfileUpdateCoalescer;
+import cz.integsoft.keycloak.browser.authenticator.queue.ProfileUpdateEventSerializer;
+import cz.integsoft.keycloak.browser.authenticator.queue.ProfileUpdateOutbox;
+import cz.integsoft.keycloak.browser.authenticator.queue.QueueBatcher;
+import cz.integsoft.keycloak.browser.authenticator.queue.QueuePublisher;
+import cz.integsoft.keycloak.browser.authenticator.queue.SqsQueuePublisher;
+import cz.integsoft.keycloak.browser.authenticator.tracing.LoginTracing;
 import cz.integsoft.keycloak.browser.authenticator.userprofile.EventAuditingAttributeChangeListener;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
@@ -78,6 +77,20 @@ public class UpdateProfile implements RequiredActionProvider, RequiredActionFact
 	private static final String REGISTRATION_FORM_NAME_MOBILE_PHONE = "user.attributes.phone_number";
 	private static final String REGISTRATION_FORM_NAME_MOBILE_AREA_CODE = "user.attributes.areacode";
 	private static final String REGISTRATION_BAD_MOBILE_FORMAT = "registration.bad.format.phone_number";
+	private static final String AWS_JMS_QUEUES = "awsJmsQueues";
+	private static final String AWS_REGION = "awsRegion";
+
+	private static final String OUTBOX_DIR = "profileUpdateOutboxDir";
+	private static final String OUTBOX_JOURNAL_FILE = "mbta-profile-update-outbox.journal";
+	private static final String SERVER_DATA_DIR = "jboss.server.data.dir";
+	private static final String BATCH_LINGER_MILLIS = "profileUpdateBatchLingerMillis";
+	private static final long DEFAULT_BATCH_LINGER_MILLIS = 200L;
+	private static final String COALESCE_WINDOW_MILLIS = "profileUpdateCoalesceWindowMillis";
+	private static final String CBOR_QUEUES = "profileUpdateCborQueues";
+
+	private QueuePublisher publisher;
+
+	private ProfileUpdateOutbox outbox;
 
 	@Override
 	public InitiatedActionSupport initiatedActionSupport() {
@@ -147,7 +160,7 @@ public class UpdateProfile implements RequiredActionProvider, RequiredActionFact
 			}
 
 			if (!updatedUserData.isEmpty()) {
-				sendMessageToQueue(new ProfileUpdateEvent(user.getFirstAttribute("mbta_uuid"), updatedUserData, user.getId()));
+				sendMessageToQueue(context.getSession(), new ProfileUpdateEvent(user.getFirstAttribute("mbta_uuid"), updatedUserData, user.getId()));
 			}
 
 			context.success();
@@ -195,55 +208,27 @@ public class UpdateProfile implements RequiredActionProvider, RequiredActionFact
 	}
 
 	/**
-	 * Send updated user data to Queue.
+	 * Store updated user data in the outbox, the data are sent to the queue in the background.
 	 *
+	 * @param session {@link KeycloakSession}
 	 * @param event updated user data
 	 * @throws QueueException error
 	 */
-	private void sendMessageToQueue(final ProfileUpdateEvent event) throws QueueException {
-		try {
-			final String awsJmsQueues = System.getProperty("awsJmsQueues");
-			logger.infof("System property awsJmsQueues %s", awsJmsQueues);
-			final String awsRegion = System.getProperty("awsRegion");
-			logger.infof("System property awsRegion %s", awsRegion);
-
-			if (awsJmsQueues == null || awsJmsQueues.isBlank() || awsRegion == null || awsRegion.isBlank()) {
-				logger.error("Queue configuration was not recognized");
-				throw new QueueException("Queue configuration was not recognized");
-			}
-
-			final List<String> queueNames = Arrays.asList(awsJmsQueues.split(","));
-
-			final ObjectMapper mapper = new ObjectMapper();
-
-			// Create the connection factory based on the config
-			final SQSConnectionFactory connectionFactory = new SQSConnectionFactory(new ProviderConfiguration(), AmazonSQSClientBuilder.standard().withRegion(awsRegion));
-
-			// Create the connection
-			final SQSConnection connection = connectionFactory.createConnection();
-
-			// Create the nontransacted session with AUTO_ACKNOWLEDGE mode
-			final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-
-			for (final String queueName : queueNames) {
-				logger.infof("Queue name %s", queueName.toString());
-
-				// Create a queue identity and specify the queue name to the session
-				final Queue queue = session.createQueue(queueName.toString());
-
-				// Create a producer for the 'MyQueue'
-				final MessageProducer producer = session.createProducer(queue);
-
-				// Create the text message
-				final TextMessage message = session.createTextMessage(mapper.writeValueAsString(event));
+	private void sendMessageToQueue(final KeycloakSession session, final ProfileUpdateEvent event) throws QueueException {
+		if (outbox == null) {
+			logger.error("Queue configuration was not recognized");
+			throw new QueueException("Queue configuration was not recognized");
+		}
 
-				// Send the message
-				producer.send(message);
-				logger.infof("SQS Queue %s, JMS Message %s", queueName, message.getJMSMessageID());
-			}
-		} catch (final JMSException | JsonProcessingException | SdkClientException e) {
+		final TracingProvider tracing = LoginTracing.start(session, LoginTracing.SEND_TO_QUEUE);
+		try {
+			outbox.add(event);
+		} catch (final QueueException e) {
 			logger.error("Queue problem catched ", e);
-			throw new QueueException(e);
+			LoginTracing.error(tracing, e);
+			throw e;
+		} finally {
+			LoginTracing.end(tracing);
 		}
 	}
 
@@ -267,7 +252,12 @@ public class UpdateProfile implements RequiredActionProvider, RequiredActionFact
 
 	@Override
 	public void close() {
-
+		if (outbox != null) {
+			outbox.close();
+		}
+		if (publisher != null) {
+			publisher.close();
+		}
 	}
 
 	@Override
@@ -277,12 +267,73 @@ public class UpdateProfile implements RequiredActionProvider, RequiredActionFact
 
 	@Override
 	public void init(final Config.Scope config) {
+		final String awsJmsQueues = config.get(AWS_JMS_QUEUES, System.getProperty(AWS_JMS_QUEUES));
+		logger.infof("Queue configuration awsJmsQueues %s", awsJmsQueues);
+		final String awsRegion = config.get(AWS_REGION, System.getProperty(AWS_REGION));
+		logger.infof("Queue configuration awsRegion %s", awsRegion);
+
+		if (awsJmsQueues == null || awsJmsQueues.isBlank() || awsRegion == null || awsRegion.isBlank()) {
+			logger.error("Queue configuration was not recognized");
+			return;
+		}
+
+		final List<String> queueNames = Arrays.stream(awsJmsQueues.split(",")).map(String::trim).filter(q -> !q.isEmpty()).toList();
+		publisher = createPublisher(awsRegion, queueNames);
 
+		final long lingerMillis = config.getLong(BATCH_LINGER_MILLIS, Long.getLong(BATCH_LINGER_MILLIS, DEFAULT_BATCH_LINGER_MILLIS));
+		final long coalesceMillis = config.getLong(COALESCE_WINDOW_MILLIS, Long.getLong(COALESCE_WINDOW_MILLIS, 0L));
+		final String cborQueues = config.get(CBOR_QUEUES, System.getProperty(CBOR_QUEUES, ""));
+		final ProfileUpdateEventSerializer serializer = new ProfileUpdateEventSerializer(Arrays.stream(cborQueues.split(",")).map(String::trim).filter(queueNames::contains).collect(Collectors.toSet()));
+		final String outboxDir = config.get(OUTBOX_DIR, System.getProperty(OUTBOX_DIR, System.getProperty(SERVER_DATA_DIR, System.getProperty("java.io.tmpdir"))));
+		final Path journalFile = Path.of(outboxDir, OUTBOX_JOURNAL_FILE);
+		try {
+			outbox = new ProfileUpdateOutbox(new OutboxJournal(journalFile), publisher, new QueueBatcher(publisher, lingerMillis), new ProfileUpdateCoalescer(coalesceMillis), serializer);
+			logger.infof("Profile update outbox journal %s, batch linger %d ms, coalescing window %d ms", journalFile, lingerMillis, coalesceMillis);
+		} catch (final IOException e) {
+			logger.errorf(e, "Unable to open profile update outbox journal %s", journalFile);
+		}
+	}
+
+	/**
+	 * Create the publisher of the profile update events.
+	 *
+	 * @param awsRegion AWS region
+	 * @param queueNames destination queue names
+	 * @return queue publisher
+	 */
+	protected QueuePublisher createPublisher(final String awsRegion, final List<String> queueNames) {
+		return new SqsQueuePublisher(awsRegion, queueNames);
 	}
 
 	@Override
 	public void postInit(final KeycloakSessionFactory factory) {
+		AuthenticatorMetrics.getInstance().register();
+		if (publisher == null) {
+			return;
+		}
+		try {
+			publisher.connect();
+		} catch (final QueueException e) {
+			// the publisher reconnects on the first send
+			logger.warn("Unable to connect to the queue on startup", e);
+		}
+		if (outbox != null) {
+			outbox.start();
+		}
+	}
 
+	/**
+	 * @return the queue publisher or null if the queue is not configured
+	 */
+	public QueuePublisher getPublisher() {
+		return publisher;
+	}
+
+	/**
+	 * @return the profile update outbox or null if the queue is not configured
+	 */
+	public ProfileUpdateOutbox getOutbox() {
+		return outbox;
 	}
 
 	@Override
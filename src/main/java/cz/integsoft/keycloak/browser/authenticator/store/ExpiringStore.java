@@ -0,0 +1,204 @@
+package cz.integsoft.keycloak.browser.authenticator.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.Cache;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Key value store with expiring entries. Entries are kept in a distributed Infinispan cache, see {@link InfinispanCaches}. Without Infinispan the entries are kept in memory of the node. Conditional
+ * operations are atomic, values are compared by equals.
+ *
+ * @param <V> value type, has to be marshallable by the cluster, e.g. a String or a number
+ * @author integsoft
+ */
+public class ExpiringStore<V> {
+
+	private static Logger logger = Logger.getLogger(ExpiringStore.class);
+
+	private static final int LOCAL_PURGE_THRESHOLD = 10000;
+
+	private final String cacheName;
+
+	private final ConcurrentMap<String, LocalEntry<V>> localEntries = new ConcurrentHashMap<>();
+
+	private volatile Cache<String, V> cache;
+
+	private volatile boolean local;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cacheName Infinispan cache name
+	 */
+	public ExpiringStore(final String cacheName) {
+		this.cacheName = cacheName;
+	}
+
+	/**
+	 * @param session {@link KeycloakSession}
+	 * @param key key
+	 * @return value or null if the entry does not exist or expired
+	 */
+	public V get(final KeycloakSession session, final String key) {
+		final Cache<String, V> distributed = getCache(session);
+		if (distributed != null) {
+			return distributed.get(key);
+		}
+		final LocalEntry<V> entry = getLocal(key);
+		return entry == null ? null : entry.value;
+	}
+
+	/**
+	 * @param session {@link KeycloakSession}
+	 * @param key key
+	 * @param value value
+	 * @param lifespanMillis lifespan of the entry
+	 */
+	public void put(final KeycloakSession session, final String key, final V value, final long lifespanMillis) {
+		final Cache<String, V> distributed = getCache(session);
+		if (distributed != null) {
+			distributed.put(key, value, lifespanMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		purgeLocal();
+		localEntries.put(key, new LocalEntry<>(value, lifespanMillis));
+	}
+
+	/**
+	 * @param session {@link KeycloakSession}
+	 * @param key key
+	 * @param value value
+	 * @param lifespanMillis lifespan of the entry
+	 * @return true - the value was stored / false - the entry exists
+	 */
+	public boolean putIfAbsent(final KeycloakSession session, final String key, final V value, final long lifespanMillis) {
+		final Cache<String, V> distributed = getCache(session);
+		if (distributed != null) {
+			return distributed.putIfAbsent(key, value, lifespanMillis, TimeUnit.MILLISECONDS) == null;
+		}
+		purgeLocal();
+		final LocalEntry<V> entry = new LocalEntry<>(value, lifespanMillis);
+		while (true) {
+			final LocalEntry<V> current = localEntries.putIfAbsent(key, entry);
+			if (current == null) {
+				return true;
+			}
+			if (!current.isExpired()) {
+				return false;
+			}
+			// expired entry, replace it
+			if (localEntries.replace(key, current, entry)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param session {@link KeycloakSession}
+	 * @param key key
+	 * @param oldValue expected value
+	 * @param newValue new value
+	 * @param lifespanMillis lifespan of the entry
+	 * @return true - the value was replaced / false - the entry does not exist or has another value
+	 */
+	public boolean replace(final KeycloakSession session, final String key, final V oldValue, final V newValue, final long lifespanMillis) {
+		final Cache<String, V> distributed = getCache(session);
+		if (distributed != null) {
+			return distributed.replace(key, oldValue, newValue, lifespanMillis, TimeUnit.MILLISECONDS);
+		}
+		final LocalEntry<V> current = getLocal(key);
+		return current != null && current.value.equals(oldValue) && localEntries.replace(key, current, new LocalEntry<>(newValue, lifespanMillis));
+	}
+
+	/**
+	 * @param session {@link KeycloakSession}
+	 * @param key key
+	 */
+	public void remove(final KeycloakSession session, final String key) {
+		final Cache<String, V> distributed = getCache(session);
+		if (distributed != null) {
+			distributed.remove(key);
+			return;
+		}
+		localEntries.remove(key);
+	}
+
+	/**
+	 * @param session {@link KeycloakSession}
+	 * @param key key
+	 * @param value expected value
+	 * @return true - the entry was removed / false - the entry does not exist or has another value
+	 */
+	public boolean remove(final KeycloakSession session, final String key, final V value) {
+		final Cache<String, V> distributed = getCache(session);
+		if (distributed != null) {
+			return distributed.remove(key, value);
+		}
+		final LocalEntry<V> current = getLocal(key);
+		return current != null && current.value.equals(value) && localEntries.remove(key, current);
+	}
+
+	private LocalEntry<V> getLocal(final String key) {
+		final LocalEntry<V> entry = localEntries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.isExpired()) {
+			localEntries.remove(key, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	private void purgeLocal() {
+		if (localEntries.size() >= LOCAL_PURGE_THRESHOLD) {
+			localEntries.values().removeIf(LocalEntry::isExpired);
+		}
+	}
+
+	private Cache<String, V> getCache(final KeycloakSession session) {
+		Cache<String, V> distributed = cache;
+		if (distributed == null && !local) {
+			synchronized (this) {
+				if (cache == null && !local) {
+					try {
+						cache = InfinispanCaches.getCache(session, cacheName);
+					} catch (final RuntimeException e) {
+						logger.errorf(e, "Unable to create cache %s", cacheName);
+					}
+					if (cache == null) {
+						logger.warnf("Infinispan is not available, entries of %s are kept in memory of the node", cacheName);
+						local = true;
+					}
+				}
+				distributed = cache;
+			}
+		}
+		return distributed;
+	}
+
+	/**
+	 * Entry kept in memory of the node.
+	 *
+	 * @param <V> value type
+	 */
+	private static final class LocalEntry<V> {
+
+		private final V value;
+
+		private final long expiresAt;
+
+		LocalEntry(final V value, final long lifespanMillis) {
+			this.value = value;
+			this.expiresAt = System.currentTimeMillis() + lifespanMillis;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expiresAt;
+		}
+	}
+}
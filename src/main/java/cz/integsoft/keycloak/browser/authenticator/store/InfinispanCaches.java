@@ -0,0 +1,58 @@
+package cz.integsoft.keycloak.browser.authenticator.store;
+
+import org.infinispan.Cache;
+import org.infinispan.commons.api.CacheContainerAdmin;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Access to the Infinispan caches of the authenticators. The caches are not part of the Keycloak cache configuration, they are created on first use with the settings of the Keycloak action token cache,
+ * i.e. distributed across the cluster with expiring entries.
+ *
+ * @author integsoft
+ */
+public final class InfinispanCaches {
+
+	private static Logger logger = Logger.getLogger(InfinispanCaches.class);
+
+	private static final int DEFAULT_OWNERS = 2;
+
+	private InfinispanCaches() {
+	}
+
+	/**
+	 * Get cache, the cache is created if it does not exist.
+	 *
+	 * @param <K> key type
+	 * @param <V> value type
+	 * @param session {@link KeycloakSession}
+	 * @param name cache name
+	 * @return cache or null if Infinispan is not available
+	 */
+	public static <K, V> Cache<K, V> getCache(final KeycloakSession session, final String name) {
+		final InfinispanConnectionProvider provider = session.getProvider(InfinispanConnectionProvider.class);
+		if (provider == null) {
+			return null;
+		}
+		final EmbeddedCacheManager cacheManager = provider.getCache(InfinispanConnectionProvider.WORK_CACHE_NAME).getCacheManager();
+		if (cacheManager.cacheExists(name)) {
+			return cacheManager.getCache(name);
+		}
+
+		final ConfigurationBuilder builder = new ConfigurationBuilder();
+		final Configuration template = cacheManager.getCacheConfiguration(InfinispanConnectionProvider.ACTION_TOKEN_CACHE);
+		if (template != null) {
+			builder.read(template);
+		} else if (cacheManager.getCacheManagerConfiguration().isClustered()) {
+			builder.clustering().cacheMode(CacheMode.DIST_SYNC).hash().numOwners(DEFAULT_OWNERS);
+		}
+		logger.infof("Creating cache %s", name);
+		// volatile - every node defines the cache on first use, nothing is stored in the global state
+		return cacheManager.administration().withFlags(CacheContainerAdmin.AdminFlag.VOLATILE).getOrCreateCache(name, builder.build());
+	}
+}
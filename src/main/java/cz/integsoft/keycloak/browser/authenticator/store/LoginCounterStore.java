@@ -0,0 +1,75 @@
+package cz.integsoft.keycloak.browser.authenticator.store;
+
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Store of the number of logins since the last code check. Counters are kept in a distributed Infinispan cache keyed by realm and user id, counting a login does not write the user, so it neither touches the
+ * database nor invalidates the user cache. Counters expire after the lifespan. The cache is volatile, a counter which is missing, i.e. expired or lost with the cache, requires the code check, so losing
+ * the cache never skips a code check.
+ *
+ * @author integsoft
+ */
+public class LoginCounterStore {
+
+	public static final String CACHE_NAME = "mbtaLoginCounters";
+
+	private final long lifespanMillis;
+
+	private final ExpiringStore<Integer> counters = new ExpiringStore<>(CACHE_NAME);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param lifespanSeconds lifespan of a counter
+	 */
+	public LoginCounterStore(final long lifespanSeconds) {
+		this.lifespanMillis = TimeUnit.SECONDS.toMillis(lifespanSeconds);
+	}
+
+	/**
+	 * Count the login unless the login reaches the limit.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param realm realm
+	 * @param user user
+	 * @param limit number of logins at which the code is checked
+	 * @return true - the login was counted, the code check may be skipped / false - the login reaches the limit or the user has no counter, the code has to be checked
+	 */
+	public boolean tryCount(final KeycloakSession session, final RealmModel realm, final UserModel user, final int limit) {
+		final String key = key(realm, user);
+		while (true) {
+			final Integer current = counters.get(session, key);
+			if (current == null) {
+				// no code check is known since the counter expired or was lost
+				return false;
+			}
+			final int next = current + 1;
+			if (next >= limit) {
+				return false;
+			}
+			// conditional operations are atomic on the owner of the key, retry when another node counted a login in between
+			if (counters.replace(session, key, current, next, lifespanMillis)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Start counting again after a successful code check.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param realm realm
+	 * @param user user
+	 */
+	public void reset(final KeycloakSession session, final RealmModel realm, final UserModel user) {
+		counters.put(session, key(realm, user), 0, lifespanMillis);
+	}
+
+	private static String key(final RealmModel realm, final UserModel user) {
+		return realm.getId() + ':' + user.getId();
+	}
+}
@@ -0,0 +1,116 @@
+package cz.integsoft.keycloak.browser.authenticator.store;
+
+import org.keycloak.models.KeycloakSession;
+
+import cz.integsoft.keycloak.browser.authenticator.model.cache.CachedCode;
+
+/**
+ * Distributed store of the generated codes. Codes are kept in an Infinispan cache with the lifespan of the code, so any node can verify a code and an expired code is evicted by the cache. Every verification
+ * counts an attempt before the codes are compared in constant time, the code is removed when the attempts reach the limit.
+ *
+ * @author integsoft
+ */
+public class OtpCodeStore {
+
+	public static final String CACHE_NAME = "mbtaOtpCodes";
+
+	/**
+	 * Result of a code verification.
+	 */
+	public enum Result {
+		/** the code is correct */
+		VALID,
+		/** the code is not correct */
+		INVALID,
+		/** the code does not exist or expired */
+		EXPIRED,
+		/** too many attempts, the code was removed */
+		LOCKED
+	}
+
+	private final ExpiringStore<String> codes = new ExpiringStore<>(CACHE_NAME);
+
+	/**
+	 * Store new code, the previous code under the key is replaced.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param key code key
+	 * @param code code
+	 * @param ttlMillis time to live of the code
+	 */
+	public void put(final KeycloakSession session, final String key, final String code, final long ttlMillis) {
+		codes.put(session, key, new CachedCode(code, 0, System.currentTimeMillis() + ttlMillis).format(), ttlMillis);
+	}
+
+	/**
+	 * Get the code if it can still be entered.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param key code key
+	 * @param maxAttempts maximum number of attempts
+	 * @return code or null if the code does not exist, expired or has no attempts left
+	 */
+	public CachedCode get(final KeycloakSession session, final String key, final int maxAttempts) {
+		final String stored = codes.get(session, key);
+		if (stored == null) {
+			return null;
+		}
+		final CachedCode cachedCode = CachedCode.parse(stored);
+		if (cachedCode.getExpiresAt() <= System.currentTimeMillis() || cachedCode.getAccessCount() >= maxAttempts) {
+			return null;
+		}
+		return cachedCode;
+	}
+
+	/**
+	 * Verify the entered code and count the attempt.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param key code key
+	 * @param enteredCode entered code
+	 * @param maxAttempts maximum number of attempts
+	 * @return result
+	 */
+	public Result verify(final KeycloakSession session, final String key, final String enteredCode, final int maxAttempts) {
+		while (true) {
+			final String stored = codes.get(session, key);
+			if (stored == null) {
+				return Result.EXPIRED;
+			}
+			final CachedCode cachedCode = CachedCode.parse(stored);
+			final long remainingMillis = cachedCode.getExpiresAt() - System.currentTimeMillis();
+			if (remainingMillis <= 0) {
+				return Result.EXPIRED;
+			}
+			if (cachedCode.getAccessCount() >= maxAttempts) {
+				codes.remove(session, key, stored);
+				return Result.LOCKED;
+			}
+
+			final int attempts = cachedCode.increaseAccessCount();
+			// the attempt is counted before the code is compared, a concurrent attempt has to retry
+			if (!codes.replace(session, key, stored, cachedCode.format(), remainingMillis)) {
+				continue;
+			}
+			if (cachedCode.matches(enteredCode)) {
+				codes.remove(session, key);
+				return Result.VALID;
+			}
+			if (attempts >= maxAttempts) {
+				codes.remove(session, key);
+				return Result.LOCKED;
+			}
+			return Result.INVALID;
+		}
+	}
+
+	/**
+	 * Remove the code.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param key code key
+	 */
+	public void remove(final KeycloakSession session, final String key) {
+		codes.remove(session, key);
+	}
+}
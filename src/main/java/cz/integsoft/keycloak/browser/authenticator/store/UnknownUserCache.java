@@ -0,0 +1,117 @@
+package cz.integsoft.keycloak.browser.authenticator.store;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.keycloak.models.RealmModel;
+
+/**
+ * Cache of the usernames and emails which do not belong to any user of the realm. Credential stuffing tries mostly unknown usernames, each of them costs a username and an email query and the lookups of
+ * the user federation. The cache is kept in memory of the node, the entries are keyed by realm id and lower case username, they expire after the lifespan. When the cache is full the expired entries
+ * are removed, then arbitrary entries are evicted down to nine tenths of the size, so the full cache is not scanned for every new entry. Entries are removed when a user is registered, created or
+ * updated on this node, other nodes of the cluster find the new user after the lifespan at the latest.
+ *
+ * @author integsoft
+ */
+public class UnknownUserCache {
+
+	private static final int EVICTED_PART = 10;
+
+	private final int maxSize;
+
+	private final long lifespanMillis;
+
+	private final ConcurrentMap<String, Long> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxSize maximum number of cached usernames
+	 * @param lifespanMillis lifespan of an entry
+	 */
+	public UnknownUserCache(final int maxSize, final long lifespanMillis) {
+		this.maxSize = maxSize;
+		this.lifespanMillis = lifespanMillis;
+	}
+
+	/**
+	 * @param realm realm
+	 * @param username username or email
+	 * @return true - no user of the realm had the username or email within the lifespan
+	 */
+	public boolean isUnknown(final RealmModel realm, final String username) {
+		final String key = key(realm.getId(), username);
+		final Long expiresAt = entries.get(key);
+		if (expiresAt == null) {
+			return false;
+		}
+		if (System.currentTimeMillis() >= expiresAt) {
+			entries.remove(key, expiresAt);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Remember the username or email that no user of the realm has.
+	 *
+	 * @param realm realm
+	 * @param username username or email
+	 */
+	public void putUnknown(final RealmModel realm, final String username) {
+		if (entries.size() >= maxSize) {
+			evict();
+		}
+		entries.put(key(realm.getId(), username), System.currentTimeMillis() + lifespanMillis);
+	}
+
+	/**
+	 * Remove the username or email, e.g. of a new user.
+	 *
+	 * @param realmId realm id
+	 * @param username username or email, may be null
+	 */
+	public void remove(final String realmId, final String username) {
+		if (username != null) {
+			entries.remove(key(realmId, username));
+		}
+	}
+
+	/**
+	 * Remove all entries of the realm, e.g. when the username of a user might have changed.
+	 *
+	 * @param realmId realm id
+	 */
+	public void removeRealm(final String realmId) {
+		final String prefix = realmId + ':';
+		entries.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * @return number of cached usernames
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private synchronized void evict() {
+		if (entries.size() < maxSize) {
+			// evicted by another thread
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		entries.values().removeIf(expiresAt -> now >= expiresAt);
+		final int target = maxSize - Math.max(1, maxSize / EVICTED_PART);
+		final Iterator<String> keys = entries.keySet().iterator();
+		while (entries.size() > target && keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	private static String key(final String realmId, final String username) {
+		return realmId + ':' + username.toLowerCase(Locale.ROOT);
+	}
+}
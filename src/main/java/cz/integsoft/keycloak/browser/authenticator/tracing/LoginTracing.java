@@ -0,0 +1,79 @@
+package cz.integsoft.keycloak.browser.authenticator.tracing;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.tracing.TracingAttributes;
+import org.keycloak.tracing.TracingProvider;
+
+import io.opentelemetry.api.trace.Span;
+
+/**
+ * Spans of the authenticator steps created by the Keycloak tracing provider, exported by the server when tracing is enabled. A span is started only as a child of a recorded span, so nothing is
+ * created nor allocated when tracing is disabled or the trace was dropped by the sampler. Spans carry the realm and the client only, never usernames, passwords or codes.
+ *
+ * @author integsoft
+ */
+public final class LoginTracing {
+
+	public static final String TRACER = "cz.integsoft.keycloak.browser.authenticator";
+
+	public static final String VALIDATE_PASSWORD = "UsernamePasswordForm.validatePassword";
+	public static final String FIND_USER = "KeycloakModelUtils.findUserByNameOrEmail";
+	public static final String BCRYPT_CHECK = "BCrypt.checkpw";
+	public static final String PROCESS_TEMPLATE = "EmailCodeAuthenticator.processTemplate";
+	public static final String SEND_EMAIL = "EmailCodeAuthenticator.send";
+	public static final String SEND_TO_QUEUE = "UpdateProfile.sendMessageToQueue";
+
+	private LoginTracing() {
+	}
+
+	/**
+	 * Start span of the step, the span becomes the current span.
+	 *
+	 * @param session {@link KeycloakSession}
+	 * @param spanName span name
+	 * @return tracing provider to end the span or null if no span was started
+	 */
+	public static TracingProvider start(final KeycloakSession session, final String spanName) {
+		final TracingProvider tracing = session.getProvider(TracingProvider.class);
+		if (tracing == null || !tracing.getCurrentSpan().isRecording()) {
+			return null;
+		}
+		final Span span = tracing.startSpan(TRACER, spanName);
+		final KeycloakContext context = session.getContext();
+		final RealmModel realm = context.getRealm();
+		if (realm != null) {
+			span.setAttribute(TracingAttributes.REALM_NAME, realm.getName());
+		}
+		final ClientModel client = context.getClient();
+		if (client != null) {
+			span.setAttribute(TracingAttributes.CLIENT_ID, client.getClientId());
+		}
+		return tracing;
+	}
+
+	/**
+	 * Record error of the current span.
+	 *
+	 * @param tracing tracing provider returned by {@link #start(KeycloakSession, String)}
+	 * @param e error
+	 */
+	public static void error(final TracingProvider tracing, final Throwable e) {
+		if (tracing != null) {
+			tracing.error(e);
+		}
+	}
+
+	/**
+	 * End the current span.
+	 *
+	 * @param tracing tracing provider returned by {@link #start(KeycloakSession, String)}
+	 */
+	public static void end(final TracingProvider tracing) {
+		if (tracing != null) {
+			tracing.endSpan();
+		}
+	}
+}
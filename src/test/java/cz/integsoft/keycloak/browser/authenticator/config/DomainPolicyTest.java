@@ -0,0 +1,70 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of {@link DomainPolicy}.
+ *
+ * @author integsoft
+ */
+public class DomainPolicyTest {
+
+	private final DomainPolicy policy = DomainPolicy.of("mbta.com=mbta-idp, contractor.mbta.com, example.org");
+
+	@Test
+	public void matchesDomainAndSubdomains() {
+		Assert.assertEquals(policy.match("john@mbta.com").getDomain(), "mbta.com");
+		Assert.assertEquals(policy.match("john@mbta.com").getIdentityProvider(), "mbta-idp");
+		Assert.assertEquals(policy.match("john@it.mbta.com").getDomain(), "mbta.com");
+		Assert.assertEquals(policy.match("john@example.org").getDomain(), "example.org");
+	}
+
+	@Test
+	public void matchesWholeLabelsOnly() {
+		Assert.assertNull(policy.match("john@xmbta.com"));
+		Assert.assertNull(policy.match("john@mbta.com.evil.net"));
+		Assert.assertNull(policy.match("john@notexample.org"));
+		Assert.assertNull(policy.match("john@bta.com"));
+	}
+
+	@Test
+	public void prefersLongestDomain() {
+		final DomainPolicy.Rule rule = policy.match("jane@contractor.mbta.com");
+
+		Assert.assertEquals(rule.getDomain(), "contractor.mbta.com");
+		Assert.assertNull(rule.getIdentityProvider());
+		Assert.assertEquals(policy.match("jane@x.contractor.mbta.com").getDomain(), "contractor.mbta.com");
+	}
+
+	@Test
+	public void ignoresCaseAndTrailingDot() {
+		Assert.assertNotNull(policy.match("John@MBTA.COM"));
+		Assert.assertNotNull(policy.match("john@mbta.com. "));
+	}
+
+	@Test
+	public void usesPartAfterLastAt() {
+		Assert.assertNotNull(policy.match("\"a@b\"@mbta.com"));
+		Assert.assertNull(policy.match("john@mbta.com@gmail.com"));
+	}
+
+	@Test
+	public void matchesNothingWithoutDomain() {
+		Assert.assertNull(policy.match(null));
+		Assert.assertNull(policy.match("mbta.com"));
+		Assert.assertNull(policy.match("john@"));
+		Assert.assertFalse(DomainPolicy.NONE.isBlocked("john@mbta.com"));
+	}
+
+	@Test
+	public void normalizesAndReportsInvalidDomains() {
+		final DomainPolicy parsed = DomainPolicy.of("*.mbta.com, @Example.org., bad..domain, , x y");
+
+		Assert.assertEquals(parsed.getRules().toString(), "[mbta.com, example.org]");
+		Assert.assertEquals(parsed.getErrors(), List.of("Invalid domain bad..domain", "Invalid domain x y"));
+		Assert.assertTrue(parsed.isParsedFrom("*.mbta.com, @Example.org., bad..domain, , x y"));
+	}
+}
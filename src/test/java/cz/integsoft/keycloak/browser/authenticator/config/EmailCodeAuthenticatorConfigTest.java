@@ -0,0 +1,47 @@
+package cz.integsoft.keycloak.browser.authenticator.config;
+
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import cz.integsoft.keycloak.browser.authenticator.EmailCodeAuthenticatorFactory;
+
+/**
+ * Tests of {@link EmailCodeAuthenticatorConfig}.
+ *
+ * @author integsoft
+ */
+public class EmailCodeAuthenticatorConfigTest {
+
+	@Test
+	public void parsesValidConfig() {
+		final EmailCodeAuthenticatorConfig config = EmailCodeAuthenticatorConfig
+				.of(Map.of(EmailCodeAuthenticatorFactory.CODE_LENGTH, "8", EmailCodeAuthenticatorFactory.CODE_TTL, " 300 ", EmailCodeAuthenticatorFactory.MAX_ATTEMPTS, "5"));
+
+		Assert.assertTrue(config.isValid());
+		Assert.assertEquals(config.getLength(), 8);
+		Assert.assertEquals(config.getTtl(), 300);
+		Assert.assertEquals(config.getMaxAttempts(), 5);
+		Assert.assertEquals(config.getLoginCount(), EmailCodeAuthenticatorFactory.DEFAULT_LOGIN_COUNT);
+	}
+
+	@Test
+	public void usesDefaultsOfMissingValues() {
+		final EmailCodeAuthenticatorConfig config = EmailCodeAuthenticatorConfig.of(Map.of(EmailCodeAuthenticatorFactory.CODE_LENGTH, " "));
+
+		Assert.assertTrue(config.isValid());
+		Assert.assertEquals(config.getLength(), EmailCodeAuthenticatorFactory.DEFAULT_LENGTH);
+		Assert.assertTrue(EmailCodeAuthenticatorConfig.DEFAULT.isValid());
+	}
+
+	@Test
+	public void rejectsInvalidValues() {
+		final EmailCodeAuthenticatorConfig config = EmailCodeAuthenticatorConfig.of(Map.of(EmailCodeAuthenticatorFactory.CODE_LENGTH, "17", EmailCodeAuthenticatorFactory.CODE_TTL, "0",
+				EmailCodeAuthenticatorFactory.MAX_ATTEMPTS, "three"));
+
+		Assert.assertFalse(config.isValid());
+		Assert.assertEquals(config.getErrors().size(), 3);
+		Assert.assertTrue(config.getErrors().get(0).startsWith(EmailCodeAuthenticatorFactory.CODE_LENGTH), config.getErrors().toString());
+	}
+}
@@ -0,0 +1,213 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * In-process stand-in of the SMTP server for the tests of the {@link PooledSmtpEmailSender}. It listens on a free port of the loopback address, accepts every message without STARTTLS and AUTH and keeps
+ * the messages in memory. The server may delay the reply to a message, so concurrent sends need more connections, and it may drop the connection after each message, so the retry of the pooled sender
+ * on a stale connection can be checked.
+ *
+ * @author integsoft
+ */
+public class LocalSmtpServer implements AutoCloseable {
+
+	private static Logger logger = Logger.getLogger(LocalSmtpServer.class);
+
+	private static final int BACKLOG = 50;
+	private static final int COMMAND_LENGTH = 4;
+	private static final String CRLF = "\r\n";
+
+	private final ServerSocket serverSocket;
+
+	private final boolean dropAfterMessage;
+
+	private final long replyDelayMillis;
+
+	private final ExecutorService executor;
+
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+	private final List<String> messages = new ArrayList<>();
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/**
+	 * Start the server.
+	 *
+	 * @param dropAfterMessage true - close the connection after each message
+	 * @param replyDelayMillis delay of the reply to a message
+	 * @throws IOException no port can be bound
+	 */
+	public LocalSmtpServer(final boolean dropAfterMessage, final long replyDelayMillis) throws IOException {
+		this.serverSocket = new ServerSocket(0, BACKLOG, InetAddress.getLoopbackAddress());
+		this.dropAfterMessage = dropAfterMessage;
+		this.replyDelayMillis = replyDelayMillis;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r, "mbta-local-smtp-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.execute(this::accept);
+		logger.debugf("Local SMTP server listening on port %d", getPort());
+	}
+
+	/**
+	 * @return port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return number of accepted connections
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * @return number of connections not closed yet
+	 */
+	public int getOpenConnectionCount() {
+		return sockets.size();
+	}
+
+	/**
+	 * @return copy of the received messages, each with its headers
+	 */
+	public List<String> getMessages() {
+		synchronized (messages) {
+			return List.copyOf(messages);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (final IOException e) {
+			logger.debug("Unable to close local SMTP server socket", e);
+		}
+		for (final Socket socket : sockets) {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				logger.debug("Unable to close local SMTP connection", e);
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connections.incrementAndGet();
+				sockets.add(socket);
+				executor.execute(() -> serve(socket));
+			} catch (final IOException e) {
+				if (!closed) {
+					logger.warnf("Local SMTP server stopped accepting connections: %s", e.getMessage());
+				}
+				return;
+			}
+		}
+	}
+
+	private void serve(final Socket socket) {
+		try (socket;
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+				Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.ISO_8859_1)) {
+			reply(writer, "220 localhost ESMTP");
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String command = line.length() < COMMAND_LENGTH ? line.toUpperCase(Locale.ROOT) : line.substring(0, COMMAND_LENGTH).toUpperCase(Locale.ROOT);
+				switch (command) {
+				case "EHLO":
+					reply(writer, "250-localhost" + CRLF + "250 8BITMIME");
+					break;
+				case "HELO":
+					reply(writer, "250 localhost");
+					break;
+				case "MAIL":
+				case "RCPT":
+				case "RSET":
+				case "NOOP":
+					reply(writer, "250 OK");
+					break;
+				case "DATA":
+					reply(writer, "354 End data with <CR><LF>.<CR><LF>");
+					readMessage(reader);
+					delayReply();
+					reply(writer, "250 OK");
+					if (dropAfterMessage) {
+						return;
+					}
+					break;
+				case "QUIT":
+					reply(writer, "221 Bye");
+					return;
+				default:
+					reply(writer, "502 Command not implemented");
+					break;
+				}
+			}
+		} catch (final IOException e) {
+			logger.debugf("Local SMTP connection closed: %s", e.getMessage());
+		} finally {
+			sockets.remove(socket);
+		}
+	}
+
+	private void readMessage(final BufferedReader reader) throws IOException {
+		final StringBuilder message = new StringBuilder();
+		String line;
+		while ((line = reader.readLine()) != null && !".".equals(line)) {
+			// dot-stuffing of the lines starting with a dot
+			message.append(line.startsWith(".") ? line.substring(1) : line).append(CRLF);
+		}
+		synchronized (messages) {
+			messages.add(message.toString());
+		}
+		logger.debugf("Local SMTP server received message of %d characters", message.length());
+	}
+
+	private void delayReply() throws IOException {
+		if (replyDelayMillis > 0) {
+			try {
+				Thread.sleep(replyDelayMillis);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Local SMTP server is closing", e);
+			}
+		}
+	}
+
+	private static void reply(final Writer writer, final String reply) throws IOException {
+		writer.write(reply);
+		writer.write(CRLF);
+		writer.flush();
+	}
+}
@@ -0,0 +1,119 @@
+package cz.integsoft.keycloak.browser.authenticator.email;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import cz.integsoft.keycloak.browser.authenticator.model.EmailTemplate;
+
+/**
+ * Tests of {@link PooledSmtpEmailSender} against the {@link LocalSmtpServer}.
+ *
+ * @author integsoft
+ */
+public class PooledSmtpEmailSenderTest {
+
+	private static final int MAX_IDLE = 2;
+	private static final long IDLE_TIMEOUT_MILLIS = 60000L;
+	private static final long WAIT_MILLIS = 5000L;
+
+	private LocalSmtpServer server;
+
+	private PooledSmtpEmailSender sender;
+
+	@AfterMethod
+	public void tearDown() {
+		if (sender != null) {
+			sender.close();
+		}
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void sequentialSendsReuseOneConnection() throws Exception {
+		start(false, 0);
+		for (int i = 0; i < 20; i++) {
+			send(i);
+		}
+
+		Assert.assertEquals(server.getMessages().size(), 20);
+		Assert.assertEquals(server.getConnectionCount(), 1);
+		Assert.assertEquals(sender.getStatistics().getMissCount(), 1);
+		Assert.assertEquals(sender.getStatistics().getHitCount(), 19);
+		Assert.assertTrue(server.getMessages().get(0).contains("code 0"));
+	}
+
+	@Test
+	public void concurrentSendsOpenNewConnectionsAndKeepMaxIdle() throws Exception {
+		start(false, 200);
+		final int threads = MAX_IDLE * 3;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				final int number = i;
+				futures.add(executor.submit(() -> {
+					send(number);
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// no idle connection is left while all are busy, the pool does not block and opens another one
+		Assert.assertEquals(server.getMessages().size(), threads);
+		Assert.assertTrue(server.getConnectionCount() > MAX_IDLE, "connections " + server.getConnectionCount());
+		Assert.assertEquals(sender.getStatistics().getFailureCount(), 0);
+		// the connections over the idle limit are closed when they are returned
+		waitFor(() -> server.getOpenConnectionCount() <= MAX_IDLE);
+		final int connections = server.getConnectionCount();
+		send(threads);
+		Assert.assertEquals(server.getConnectionCount(), connections);
+	}
+
+	@Test
+	public void brokenConnectionIsReplaced() throws Exception {
+		start(true, 0);
+		for (int i = 0; i < 10; i++) {
+			send(i);
+		}
+
+		Assert.assertEquals(server.getMessages().size(), 10);
+		Assert.assertEquals(server.getConnectionCount(), 10);
+		Assert.assertEquals(sender.getStatistics().getFailureCount(), 0);
+		Assert.assertEquals(sender.getStatistics().getEvictionCount(), 9);
+	}
+
+	private void start(final boolean dropAfterMessage, final long replyDelayMillis) throws Exception {
+		server = new LocalSmtpServer(dropAfterMessage, replyDelayMillis);
+		sender = new PooledSmtpEmailSender(MAX_IDLE, IDLE_TIMEOUT_MILLIS);
+	}
+
+	private void send(final int number) throws Exception {
+		final Map<String, String> config = Map.of("host", "localhost", "port", Integer.toString(server.getPort()), "from", "keycloak@example.com");
+		sender.send(null, config, "user" + number + "@example.com", new EmailTemplate("Code", "code " + number, "<p>code " + number + "</p>"));
+	}
+
+	private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			Assert.assertTrue(System.currentTimeMillis() < deadline, "condition not met in " + WAIT_MILLIS + " ms");
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of {@link OutboxJournal}.
+ *
+ * @author integsoft
+ */
+public class OutboxJournalTest {
+
+	private static final long NO_COMPACTION = Long.MAX_VALUE;
+
+	private Path directory;
+
+	private Path journalFile;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("outbox-journal-test");
+		journalFile = directory.resolve("outbox.journal");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void recoversUndeliveredEntries() throws IOException {
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			final OutboxJournal.Entry first = journal.append("a");
+			journal.append("b");
+			journal.append("c");
+			journal.acknowledge(first);
+		}
+
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			Assert.assertEquals(payloads(journal), List.of("b", "c"));
+		}
+	}
+
+	@Test
+	public void dropsTornLastRecord() throws IOException {
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			journal.append("a");
+			journal.append("b");
+		}
+		final long size = Files.size(journalFile);
+		// crash in the middle of an append, the record has no new line
+		Files.write(journalFile, "1234abcd\t1700000000000\t{\"torn".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			Assert.assertEquals(payloads(journal), List.of("a", "b"));
+			Assert.assertEquals(Files.size(journalFile), size);
+			journal.append("c");
+		}
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			Assert.assertEquals(payloads(journal), List.of("a", "b", "c"));
+		}
+	}
+
+	@Test
+	public void skipsRecordWithBadChecksum() throws IOException {
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			journal.append("a");
+			journal.append("b");
+			journal.append("c");
+		}
+		final String content = Files.readString(journalFile, StandardCharsets.UTF_8);
+		Files.writeString(journalFile, content.replace("\tb\n", "\tx\n"), StandardCharsets.UTF_8);
+
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			Assert.assertEquals(payloads(journal), List.of("a", "c"));
+		}
+	}
+
+	@Test
+	public void compactsDeliveredRecords() throws IOException {
+		try (OutboxJournal journal = new OutboxJournal(journalFile, 100)) {
+			OutboxJournal.Entry last = null;
+			for (int i = 0; i < 20; i++) {
+				last = journal.append("message " + i);
+			}
+			final long size = journal.segmentSize();
+			journal.append("pending");
+			journal.acknowledge(last);
+
+			Assert.assertTrue(journal.segmentSize() < size, "segment size " + journal.segmentSize());
+			Assert.assertEquals(payloads(journal), List.of("pending"));
+			// offsets of the pending entries follow the new segment
+			journal.acknowledge(journal.peek());
+			journal.append("after compaction");
+		}
+
+		try (OutboxJournal journal = new OutboxJournal(journalFile, 100)) {
+			Assert.assertEquals(payloads(journal), List.of("after compaction"));
+		}
+		Assert.assertEquals(files(), List.of("outbox.journal.1", "outbox.journal.checkpoint"));
+	}
+
+	@Test
+	public void ignoresSegmentOfUncommittedCompaction() throws IOException {
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			final OutboxJournal.Entry first = journal.append("a");
+			journal.append("b");
+			journal.acknowledge(first);
+		}
+		// crash after the next segment was written but before the checkpoint was replaced
+		Files.writeString(directory.resolve("outbox.journal.1"), "garbage\n", StandardCharsets.UTF_8);
+		Files.writeString(directory.resolve("outbox.journal.2.tmp"), "garbage", StandardCharsets.UTF_8);
+
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			Assert.assertEquals(payloads(journal), List.of("b"));
+		}
+		Assert.assertEquals(files(), List.of("outbox.journal", "outbox.journal.checkpoint"));
+	}
+
+	@Test
+	public void readsCheckpointWithoutGeneration() throws IOException {
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			journal.append("a");
+			journal.append("b");
+		}
+		// checkpoint of the previous versions, the offset of the end of the first record
+		final String firstLine = Files.readAllLines(journalFile, StandardCharsets.UTF_8).get(0);
+		Files.writeString(directory.resolve("outbox.journal.checkpoint"), Long.toString(firstLine.getBytes(StandardCharsets.UTF_8).length + 1), StandardCharsets.UTF_8);
+
+		try (OutboxJournal journal = new OutboxJournal(journalFile, NO_COMPACTION)) {
+			Assert.assertEquals(payloads(journal), List.of("b"));
+		}
+	}
+
+	private static List<String> payloads(final OutboxJournal journal) {
+		return journal.peek(Integer.MAX_VALUE).stream().map(OutboxJournal.Entry::getPayload).collect(Collectors.toList());
+	}
+
+	private List<String> files() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import cz.integsoft.keycloak.browser.authenticator.model.ProfileUpdateEvent;
+
+/**
+ * Tests of {@link ProfileUpdateCoalescer}.
+ *
+ * @author integsoft
+ */
+public class ProfileUpdateCoalescerTest {
+
+	private final ProfileUpdateCoalescer coalescer = new ProfileUpdateCoalescer(1000);
+
+	@Test
+	public void mergesEventsOfSameUser() {
+		final List<ProfileUpdateEvent> merged = coalescer.coalesce(List.of(
+				new ProfileUpdateEvent("uuid-1", Map.of("firstName", "A", "lastName", "B"), "user-1"),
+				new ProfileUpdateEvent("uuid-2", Map.of("email", "x@example.com"), "user-2"),
+				new ProfileUpdateEvent("uuid-1", Map.of("firstName", "C"), "user-1")));
+
+		Assert.assertEquals(merged.size(), 2);
+		Assert.assertEquals(merged.get(0).getId(), "user-1");
+		Assert.assertEquals(merged.get(0).getUpdates(), Map.of("firstName", "C", "lastName", "B"));
+		Assert.assertEquals(merged.get(1).getId(), "user-2");
+		Assert.assertEquals(merged.get(1).getUpdates(), Map.of("email", "x@example.com"));
+	}
+
+	@Test
+	public void keysByUuidWithoutId() {
+		final List<ProfileUpdateEvent> merged = coalescer.coalesce(List.of(
+				new ProfileUpdateEvent("uuid-1", Map.of("firstName", "A"), null),
+				new ProfileUpdateEvent("uuid-1", Map.of("lastName", "B"), null)));
+
+		Assert.assertEquals(merged.size(), 1);
+		Assert.assertEquals(merged.get(0).getMbtaUuid(), "uuid-1");
+		Assert.assertEquals(merged.get(0).getUpdates(), Map.of("firstName", "A", "lastName", "B"));
+	}
+
+	@Test
+	public void keepsLatestUuid() {
+		final List<ProfileUpdateEvent> merged = coalescer.coalesce(List.of(
+				new ProfileUpdateEvent(null, Map.of("firstName", "A"), "user-1"),
+				new ProfileUpdateEvent("uuid-1", null, "user-1")));
+
+		Assert.assertEquals(merged.size(), 1);
+		Assert.assertEquals(merged.get(0).getMbtaUuid(), "uuid-1");
+		Assert.assertEquals(merged.get(0).getUpdates(), Map.of("firstName", "A"));
+	}
+
+	@Test
+	public void passesEventWithoutKey() {
+		final ProfileUpdateEvent anonymous = new ProfileUpdateEvent(null, Map.of("firstName", "A"), null);
+
+		final List<ProfileUpdateEvent> merged = coalescer.coalesce(List.of(anonymous, anonymous));
+
+		Assert.assertEquals(merged.size(), 2);
+		Assert.assertSame(merged.get(0), anonymous);
+	}
+
+	@Test
+	public void computesWindow() {
+		Assert.assertTrue(coalescer.isEnabled());
+		Assert.assertFalse(new ProfileUpdateCoalescer(0).isEnabled());
+		Assert.assertTrue(coalescer.isInWindow(10000, 10999));
+		Assert.assertFalse(coalescer.isInWindow(10000, 11000));
+		Assert.assertEquals(coalescer.getSendDelay(0), 0);
+		final long delay = coalescer.getSendDelay(System.currentTimeMillis());
+		Assert.assertTrue(delay > 0 && delay <= 1000, "delay " + delay);
+	}
+}
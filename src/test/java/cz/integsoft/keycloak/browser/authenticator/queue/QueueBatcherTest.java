@@ -0,0 +1,75 @@
+package cz.integsoft.keycloak.browser.authenticator.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of {@link QueueBatcher#split(List)}.
+ *
+ * @author integsoft
+ */
+public class QueueBatcherTest {
+
+	@Test
+	public void splitsByMessageCount() {
+		final List<List<String>> batches = QueueBatcher.split(bodies(25, 10));
+
+		Assert.assertEquals(batches.size(), 3);
+		Assert.assertEquals(batches.get(0).size(), QueueBatcher.MAX_BATCH_MESSAGES);
+		Assert.assertEquals(batches.get(1).size(), QueueBatcher.MAX_BATCH_MESSAGES);
+		Assert.assertEquals(batches.get(2).size(), 5);
+	}
+
+	@Test
+	public void splitsBySize() {
+		// three messages of 100 KB, only two fit into 256 KB
+		final List<List<String>> batches = QueueBatcher.split(bodies(3, 100 * 1024));
+
+		Assert.assertEquals(batches.size(), 2);
+		Assert.assertEquals(batches.get(0).size(), 2);
+		Assert.assertEquals(batches.get(1).size(), 1);
+	}
+
+	@Test
+	public void keepsMessageOfExactLimit() {
+		final List<List<String>> batches = QueueBatcher.split(bodies(2, QueueBatcher.MAX_BATCH_BYTES));
+
+		Assert.assertEquals(batches.size(), 2);
+		Assert.assertTrue(QueueBatcher.isWithinLimit(batches.get(0).get(0)));
+	}
+
+	@Test
+	public void dropsOversizedMessage() {
+		final List<String> bodies = new ArrayList<>(bodies(2, 10));
+		bodies.add(1, "x".repeat(QueueBatcher.MAX_BATCH_BYTES + 1));
+
+		final List<List<String>> batches = QueueBatcher.split(bodies);
+
+		Assert.assertFalse(QueueBatcher.isWithinLimit(bodies.get(1)));
+		Assert.assertEquals(batches, List.of(List.of(bodies.get(0), bodies.get(2))));
+	}
+
+	@Test
+	public void countsMultiByteCharacters() {
+		// two bytes per character in UTF-8
+		Assert.assertFalse(QueueBatcher.isWithinLimit("é".repeat(QueueBatcher.MAX_BATCH_BYTES / 2 + 1)));
+		Assert.assertTrue(QueueBatcher.isWithinLimit("é".repeat(QueueBatcher.MAX_BATCH_BYTES / 2)));
+	}
+
+	@Test
+	public void splitsNothing() {
+		Assert.assertEquals(QueueBatcher.split(List.of()), List.of());
+	}
+
+	private static List<String> bodies(final int count, final int length) {
+		final List<String> bodies = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final String prefix = Integer.toString(i);
+			bodies.add(prefix + "x".repeat(length - prefix.length()));
+		}
+		return bodies;
+	}
+}
@@ -0,0 +1,87 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of {@link IpRange}.
+ *
+ * @author integsoft
+ */
+public class IpRangeTest {
+
+	@Test
+	public void containsIpv4() {
+		final IpRange range = IpRange.parse("10.1.0.0/16");
+
+		Assert.assertTrue(range.contains(IpRange.parseAddress("10.1.0.0")));
+		Assert.assertTrue(range.contains(IpRange.parseAddress("10.1.255.255")));
+		Assert.assertFalse(range.contains(IpRange.parseAddress("10.2.0.1")));
+		// an IPv4-mapped IPv6 address is the IPv4 address
+		Assert.assertTrue(range.contains(IpRange.parseAddress("::ffff:10.1.0.1")));
+	}
+
+	@Test
+	public void containsPrefixNotOnByteBoundary() {
+		final IpRange range = IpRange.parse("192.168.1.64/26");
+
+		Assert.assertTrue(range.contains(IpRange.parseAddress("192.168.1.64")));
+		Assert.assertTrue(range.contains(IpRange.parseAddress("192.168.1.127")));
+		Assert.assertFalse(range.contains(IpRange.parseAddress("192.168.1.63")));
+		Assert.assertFalse(range.contains(IpRange.parseAddress("192.168.1.128")));
+	}
+
+	@Test
+	public void masksHostBits() {
+		final IpRange range = IpRange.parse("10.1.2.3/8");
+
+		Assert.assertEquals(range.toString(), "10.0.0.0/8");
+		Assert.assertTrue(range.contains(IpRange.parseAddress("10.200.0.1")));
+	}
+
+	@Test
+	public void containsSingleAddress() {
+		final IpRange range = IpRange.parse(" 127.0.0.1 ");
+
+		Assert.assertTrue(range.contains(IpRange.parseAddress("127.0.0.1")));
+		Assert.assertFalse(range.contains(IpRange.parseAddress("127.0.0.2")));
+	}
+
+	@Test
+	public void containsEverythingWithZeroPrefix() {
+		Assert.assertTrue(IpRange.parse("0.0.0.0/0").contains(IpRange.parseAddress("203.0.113.7")));
+	}
+
+	@Test
+	public void containsIpv6() {
+		final IpRange range = IpRange.parse("2001:db8::/32");
+
+		Assert.assertTrue(range.contains(IpRange.parseAddress("2001:db8:1::1")));
+		Assert.assertFalse(range.contains(IpRange.parseAddress("2001:db9::1")));
+		Assert.assertFalse(range.contains(IpRange.parseAddress("10.0.0.1")));
+	}
+
+	@Test
+	public void parsesAddressLiteralsOnly() {
+		Assert.assertEquals(IpRange.parseAddress("1.2.3.4"), new byte[] { 1, 2, 3, 4 });
+		Assert.assertNull(IpRange.parseAddress("1.2.3"));
+		Assert.assertNull(IpRange.parseAddress("1.2.3.4.5"));
+		Assert.assertNull(IpRange.parseAddress("1.2.3.256"));
+		Assert.assertNull(IpRange.parseAddress("1..3.4"));
+		Assert.assertNull(IpRange.parseAddress("localhost"));
+		Assert.assertNull(IpRange.parseAddress(""));
+		Assert.assertNull(IpRange.parseAddress(null));
+	}
+
+	@Test
+	public void rejectsInvalidRanges() {
+		for (final String cidr : new String[] { "10.0.0.0/33", "10.0.0.0/-1", "10.0.0.0/x", "example.com/8", "2001:db8::/129" }) {
+			try {
+				IpRange.parse(cidr);
+				Assert.fail("accepted " + cidr);
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
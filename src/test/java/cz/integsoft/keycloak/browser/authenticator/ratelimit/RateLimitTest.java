@@ -0,0 +1,75 @@
+package cz.integsoft.keycloak.browser.authenticator.ratelimit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of {@link RateLimit}.
+ *
+ * @author integsoft
+ */
+public class RateLimitTest {
+
+	private static final long NOW = 1_000_000L;
+
+	// 3 tokens, one token per minute
+	private final RateLimit limit = RateLimit.of(3, 60);
+
+	@Test
+	public void createsLimit() {
+		Assert.assertEquals(limit.getCapacity(), 3);
+		Assert.assertEquals(limit.getIntervalMillis(), 60000L);
+		Assert.assertTrue(limit.isEnabled());
+		Assert.assertSame(RateLimit.of(0, 60), RateLimit.NONE);
+		Assert.assertSame(RateLimit.of(3, 0), RateLimit.NONE);
+		Assert.assertFalse(RateLimit.NONE.isEnabled());
+	}
+
+	@Test
+	public void allowsBurstOfCapacity() {
+		long fullAt = 0;
+		for (int i = 0; i < limit.getCapacity(); i++) {
+			fullAt = limit.take(fullAt, NOW);
+			Assert.assertEquals(fullAt, NOW + (i + 1) * limit.getIntervalMillis());
+		}
+
+		Assert.assertEquals(limit.take(fullAt, NOW), -limit.getIntervalMillis());
+	}
+
+	@Test
+	public void computesWaitTime() {
+		long fullAt = 0;
+		for (int i = 0; i < limit.getCapacity(); i++) {
+			fullAt = limit.take(fullAt, NOW);
+		}
+
+		Assert.assertEquals(limit.take(fullAt, NOW + 15000), -45000L);
+		Assert.assertEquals(limit.take(fullAt, NOW + 59999), -1L);
+	}
+
+	@Test
+	public void refillsOneTokenPerInterval() {
+		long fullAt = 0;
+		for (int i = 0; i < limit.getCapacity(); i++) {
+			fullAt = limit.take(fullAt, NOW);
+		}
+
+		final long later = NOW + limit.getIntervalMillis();
+		fullAt = limit.take(fullAt, later);
+		Assert.assertTrue(fullAt > 0);
+		Assert.assertTrue(limit.take(fullAt, later) < 0);
+	}
+
+	@Test
+	public void refillsUpToCapacity() {
+		long fullAt = limit.take(0, NOW);
+		// a long idle time does not add more than the capacity
+		final long later = NOW + 100 * limit.getIntervalMillis();
+		for (int i = 0; i < limit.getCapacity(); i++) {
+			fullAt = limit.take(fullAt, later);
+			Assert.assertTrue(fullAt > 0);
+		}
+
+		Assert.assertTrue(limit.take(fullAt, later) < 0);
+	}
+}
@@ -0,0 +1,89 @@
+package cz.integsoft.keycloak.browser.authenticator.store;
+
+import java.lang.reflect.Proxy;
+
+import org.keycloak.models.KeycloakSession;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import cz.integsoft.keycloak.browser.authenticator.store.OtpCodeStore.Result;
+
+/**
+ * Tests of {@link OtpCodeStore}. The session provides no Infinispan, so the codes are kept in memory of the node.
+ *
+ * @author integsoft
+ */
+public class OtpCodeStoreTest {
+
+	private static final String KEY = "realm:user";
+	private static final String CODE = "123456";
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long TTL_MILLIS = 60000L;
+
+	// every provider lookup returns null
+	private final KeycloakSession session = (KeycloakSession) Proxy.newProxyInstance(KeycloakSession.class.getClassLoader(), new Class<?>[] { KeycloakSession.class }, (proxy, method, args) -> null);
+
+	private final OtpCodeStore store = new OtpCodeStore();
+
+	@Test
+	public void acceptsCorrectCodeOnce() {
+		store.put(session, KEY, CODE, TTL_MILLIS);
+
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.VALID);
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.EXPIRED);
+	}
+
+	@Test
+	public void countsEveryAttempt() {
+		store.put(session, KEY, CODE, TTL_MILLIS);
+
+		Assert.assertEquals(store.verify(session, KEY, "000000", MAX_ATTEMPTS), Result.INVALID);
+		Assert.assertEquals(store.get(session, KEY, MAX_ATTEMPTS).getAccessCount(), 1);
+		Assert.assertEquals(store.verify(session, KEY, "000000", MAX_ATTEMPTS), Result.INVALID);
+		// the last attempt locks the code
+		Assert.assertEquals(store.verify(session, KEY, "000000", MAX_ATTEMPTS), Result.LOCKED);
+		Assert.assertNull(store.get(session, KEY, MAX_ATTEMPTS));
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.EXPIRED);
+	}
+
+	@Test
+	public void acceptsCorrectCodeInLastAttempt() {
+		store.put(session, KEY, CODE, TTL_MILLIS);
+
+		Assert.assertEquals(store.verify(session, KEY, "000000", MAX_ATTEMPTS), Result.INVALID);
+		Assert.assertEquals(store.verify(session, KEY, "000000", MAX_ATTEMPTS), Result.INVALID);
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.VALID);
+	}
+
+	@Test
+	public void locksCodeOverLowerLimit() {
+		store.put(session, KEY, CODE, TTL_MILLIS);
+		Assert.assertEquals(store.verify(session, KEY, "000000", MAX_ATTEMPTS), Result.INVALID);
+
+		// the limit was lowered by the configuration in the meantime
+		Assert.assertEquals(store.verify(session, KEY, CODE, 1), Result.LOCKED);
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.EXPIRED);
+	}
+
+	@Test
+	public void newCodeResetsAttempts() {
+		store.put(session, KEY, CODE, TTL_MILLIS);
+		store.verify(session, KEY, "000000", MAX_ATTEMPTS);
+		store.verify(session, KEY, "000000", MAX_ATTEMPTS);
+
+		store.put(session, KEY, "654321", TTL_MILLIS);
+
+		Assert.assertEquals(store.get(session, KEY, MAX_ATTEMPTS).getAccessCount(), 0);
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.INVALID);
+		Assert.assertEquals(store.verify(session, KEY, "654321", MAX_ATTEMPTS), Result.VALID);
+	}
+
+	@Test
+	public void rejectsExpiredCode() throws InterruptedException {
+		store.put(session, KEY, CODE, 20);
+		Thread.sleep(40);
+
+		Assert.assertEquals(store.verify(session, KEY, CODE, MAX_ATTEMPTS), Result.EXPIRED);
+		Assert.assertNull(store.get(session, KEY, MAX_ATTEMPTS));
+	}
+}